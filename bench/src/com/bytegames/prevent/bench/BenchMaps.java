@@ -0,0 +1,262 @@
+package com.bytegames.prevent.bench;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.Scanner;
+
+import com.bytegames.prevent.PathField;
+
+
+/**
+ * Builds the boards the path benchmarks run against, as plain movement cost arrays so no
+ * configuration, sprites or factories need loading.
+ *
+ * @author byte
+ *
+ */
+public class BenchMaps {
+
+    /**
+     * A board of movement costs with its start and finish sectors.
+     */
+    public static class BenchMap {
+
+        private int _width;
+        private int _height;
+        private byte[] _costs;
+        private int[] _starts;
+        private int[] _finishes;
+
+        public BenchMap(int width, int height, byte[] costs, int[] starts, int[] finishes) {
+            _width = width;
+            _height = height;
+            _costs = costs;
+            _starts = starts;
+            _finishes = finishes;
+        }
+
+        public int getWidth() {
+            return _width;
+        }
+
+        public int getHeight() {
+            return _height;
+        }
+
+        public byte[] getCosts() {
+            return _costs;
+        }
+
+        public int[] getStarts() {
+            return _starts;
+        }
+
+        public int[] getFinishes() {
+            return _finishes;
+        }
+
+    }
+
+    private static final byte OPEN = 1;
+    private static final long MAZE_SEED = 1234L;
+
+    /**
+     * @param name One of open, maze, serpentine or level1.
+     * @param size The number of sectors along each side. Ignored for level1, which keeps the size it ships with.
+     * @return The named board.
+     */
+    public static BenchMap create(String name, int size) {
+
+        if("open".equals(name)) {
+            return createOpen(size);
+        } else if("maze".equals(name)) {
+            return createMaze(size);
+        } else if("serpentine".equals(name)) {
+            return createSerpentine(size);
+        } else if("level1".equals(name)) {
+            return loadMap("maps/level1.map");
+        }
+
+        throw new IllegalArgumentException("Unknown benchmark map: " + name);
+
+    }
+
+    /**
+     * No obstacles at all, entered on the left and left on the right.
+     */
+    private static BenchMap createOpen(int size) {
+
+        byte[] costs = new byte[size * size];
+        Arrays.fill(costs, OPEN);
+
+        int middle = size / 2;
+
+        return new BenchMap(size, size, costs, new int[] { middle * size }, new int[] { middle * size + size - 1 });
+
+    }
+
+    /**
+     * A perfect maze carved by a seeded depth first search, so there is exactly one route between any two cells.
+     */
+    private static BenchMap createMaze(int size) {
+
+        byte[] costs = new byte[size * size];
+        int cellsAcross = (size - 1) / 2;
+        int cells = cellsAcross * cellsAcross;
+
+        Random random = new Random(MAZE_SEED);
+        boolean[] visited = new boolean[cells];
+        int[] stack = new int[cells];
+        int[] choices = new int[4];
+        int top = 0;
+
+        stack[top++] = 0;
+        visited[0] = true;
+        costs[size + 1] = OPEN;
+
+        while(top > 0) {
+
+            int cell = stack[top - 1];
+            int cellX = cell % cellsAcross;
+            int cellY = cell / cellsAcross;
+            int choiceCount = 0;
+
+            if(cellX > 0 && visited[cell - 1] == false) {
+                choices[choiceCount++] = cell - 1;
+            }
+            if(cellX < cellsAcross - 1 && visited[cell + 1] == false) {
+                choices[choiceCount++] = cell + 1;
+            }
+            if(cellY > 0 && visited[cell - cellsAcross] == false) {
+                choices[choiceCount++] = cell - cellsAcross;
+            }
+            if(cellY < cellsAcross - 1 && visited[cell + cellsAcross] == false) {
+                choices[choiceCount++] = cell + cellsAcross;
+            }
+
+            if(choiceCount == 0) {
+                top--;
+                continue;
+            }
+
+            int next = choices[random.nextInt(choiceCount)];
+            int nextX = next % cellsAcross;
+            int nextY = next / cellsAcross;
+
+            //open the cell and the wall between it and the one we came from
+            costs[(nextY * 2 + 1) * size + nextX * 2 + 1] = OPEN;
+            costs[(cellY + nextY + 1) * size + cellX + nextX + 1] = OPEN;
+
+            visited[next] = true;
+            stack[top++] = next;
+
+        }
+
+        int start = size + 1;
+        int finish = ((cellsAcross - 1) * 2 + 1) * size + (cellsAcross - 1) * 2 + 1;
+
+        return new BenchMap(size, size, costs, new int[] { start }, new int[] { finish });
+
+    }
+
+    /**
+     * Full width walls every other row with the gap alternating ends, so the only route snakes across every row.
+     */
+    private static BenchMap createSerpentine(int size) {
+
+        byte[] costs = new byte[size * size];
+        Arrays.fill(costs, OPEN);
+
+        for(int y = 1; y < size; y += 2) {
+
+            int gap = ((y / 2) % 2 == 0) ? size - 1 : 0;
+
+            for(int x = 0; x < size; x++) {
+                if(x != gap) {
+                    costs[y * size + x] = PathField.BLOCKED;
+                }
+            }
+
+        }
+
+        int lastRow = (size % 2 == 0) ? size - 2 : size - 1;
+
+        return new BenchMap(size, size, costs, new int[] { 0 }, new int[] { lastRow * size + size / 2 });
+
+    }
+
+    /**
+     * Reads a shipped map the same way the game does, skipping the waves line. Towers and rocks are blocked
+     * and every other piece costs one to cross.
+     */
+    private static BenchMap loadMap(String mapFile) {
+
+        InputStream in = BenchMaps.class.getClassLoader().getResourceAsStream(mapFile);
+
+        if(in == null) {
+            throw new IllegalStateException("Map not found on the classpath: " + mapFile);
+        }
+
+        Scanner fin = new Scanner(in);
+        List<String> lines = new ArrayList<String>();
+        int width = 0;
+
+        fin.nextLine();
+
+        while(fin.hasNextLine()) {
+            String line = fin.nextLine();
+            lines.add(line);
+            if(line.length() > width) {
+                width = line.length();
+            }
+        }
+
+        fin.close();
+
+        int height = lines.size();
+        byte[] costs = new byte[width * height];
+        List<Integer> starts = new ArrayList<Integer>();
+        List<Integer> finishes = new ArrayList<Integer>();
+
+        for(int y = 0; y < height; y++) {
+
+            String line = lines.get(y);
+
+            for(int x = 0; x < line.length(); x++) {
+                switch(line.charAt(x)) {
+                    case 'S':
+                        starts.add(y * width + x);
+                        costs[y * width + x] = OPEN;
+                        break;
+                    case 'F':
+                        finishes.add(y * width + x);
+                        costs[y * width + x] = OPEN;
+                        break;
+                    case '.':
+                        costs[y * width + x] = OPEN;
+                        break;
+                }
+            }
+
+        }
+
+        return new BenchMap(width, height, costs, toArray(starts), toArray(finishes));
+
+    }
+
+    private static int[] toArray(List<Integer> values) {
+
+        int[] array = new int[values.size()];
+
+        for(int i = 0; i < array.length; i++) {
+            array[i] = values.get(i);
+        }
+
+        return array;
+
+    }
+
+}
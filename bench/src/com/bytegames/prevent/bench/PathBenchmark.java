@@ -0,0 +1,167 @@
+package com.bytegames.prevent.bench;
+
+import java.util.BitSet;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.bytegames.prevent.ClusterField;
+import com.bytegames.prevent.FlowField;
+import com.bytegames.prevent.PathField;
+import com.bytegames.prevent.bench.BenchMaps.BenchMap;
+
+
+/**
+ * JMH benchmarks for the path fields the AI uses. Each map is measured three ways: building the field from
+ * nothing, answering a next step for every sector of an already built field, and repairing a copy of the field
+ * after one tower goes down on the route, which is what the AI's path worker does after a placement.
+ *
+ * Run with the main method to get allocation rates from JMH's GC profiler alongside the timings.
+ *
+ * @author byte
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PathBenchmark {
+
+    @Param({ "open", "maze", "level1", "serpentine" })
+    public String map;
+
+    @Param({ "64", "256", "1024" })
+    public int size;
+
+    @Param({ "flow", "cluster" })
+    public String field;
+
+    private BenchMap _map;
+    private PathField _built;
+    private byte[] _placedCosts;
+    private BitSet _placed;
+
+    @Setup
+    public void setUp() {
+
+        _map = BenchMaps.create(map, size);
+        _built = createField();
+        _built.build(_map.getCosts(), _map.getFinishes());
+
+        //warm any lazily filled caches so lookups measure the steady state
+        lookupAll();
+
+        int placement = findPlacement();
+
+        _placedCosts = _map.getCosts().clone();
+        _placedCosts[placement] = PathField.BLOCKED;
+        _placed = new BitSet(_placedCosts.length);
+        _placed.set(placement);
+
+    }
+
+    @Benchmark
+    public PathField coldBuild() {
+
+        PathField built = createField();
+        built.build(_map.getCosts(), _map.getFinishes());
+
+        return built;
+
+    }
+
+    @Benchmark
+    public int warmLookups() {
+        return lookupAll();
+    }
+
+    @Benchmark
+    public PathField placementRepair() {
+
+        PathField repaired = _built.copy();
+        repaired.update(_placedCosts, _placed);
+
+        return repaired;
+
+    }
+
+    private PathField createField() {
+
+        if("cluster".equals(field)) {
+            return new ClusterField(_map.getWidth(), _map.getHeight());
+        }
+
+        return new FlowField(_map.getWidth(), _map.getHeight());
+
+    }
+
+    private int lookupAll() {
+
+        int sum = 0;
+
+        for(int y = 0; y < _map.getHeight(); y++) {
+            for(int x = 0; x < _map.getWidth(); x++) {
+                sum += _built.getNext(x, y);
+            }
+        }
+
+        return sum;
+
+    }
+
+    /**
+     * @return A sector half way along the route from the first start, where placing a tower forces a detour.
+     */
+    private int findPlacement() {
+
+        int width = _map.getWidth();
+        int sector = _map.getStarts()[0];
+        int length = 0;
+
+        for(int next = _built.getNext(sector % width, sector / width); next >= 0 && next != sector; next = _built.getNext(next % width, next / width)) {
+            sector = next;
+            length++;
+        }
+
+        sector = _map.getStarts()[0];
+
+        for(int i = 0; i < length / 2; i++) {
+            sector = _built.getNext(sector % width, sector / width);
+        }
+
+        return sector;
+
+    }
+
+    /**
+     * Runs every benchmark in this class with the GC profiler attached.
+     */
+    public static void main(String[] args) throws RunnerException {
+
+        Options options = new OptionsBuilder()
+            .include(PathBenchmark.class.getSimpleName())
+            .addProfiler(GCProfiler.class)
+            .build();
+
+        new Runner(options).run();
+
+    }
+
+}
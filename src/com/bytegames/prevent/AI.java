@@ -1,208 +1,414 @@
 package com.bytegames.prevent;
 
-import java.awt.Point;
-import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.Map;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.log4j.Logger;
 
 /**
  * Encapsulates the AI for the game.
- * 
+ *
  * @author byte
  *
  */
 public class AI {
-    
+
     private static Logger LOG = Logger.getLogger(AI.class);
+
+    /**
+     * Maps with more sectors than this are pathed with a {@link ClusterField} rather than a {@link FlowField}.
+     */
+    private static final int LARGE_MAP = 256 * 256;
+
+    private Engine _engine;
+    private boolean _synchronous;
+    private Chokepoints _chokepoints;
+    private boolean _chokepointsStale;
+    private volatile BitSet _publishedChokepoints;
     
-    private Game _game;
-    private Map<Sector, LinkedList<Point>> _optimalPathCache;
-    
+    private AtomicReference<PathField> _pathField;
+    private BitSet _unpublished;
+    private AtomicInteger _generation;
+    private byte[] _directions;
+    private PathField _directionsField;
+    private ExecutorService _pathWorker;
+    private Future<?> _pendingRepair;
+    private boolean _batching;
+    private boolean _batchChanged;
+
     /**
-     * @param game The game object to manipulate.
+     * @param engine The engine whose map this AI paths across.
      */
-    public AI(Game game) {
-        _game = game;
-        _optimalPathCache = new HashMap<Sector, LinkedList<Point>>();
+    public AI(Engine engine) {
+        _engine = engine;
+        _synchronous = false;
+        _chokepoints = null;
+        _chokepointsStale = true;
+        _publishedChokepoints = null;
+        _pathField = new AtomicReference<PathField>();
+        _unpublished = new BitSet();
+        _generation = new AtomicInteger();
+        _pathWorker = null;
+        _pendingRepair = null;
+        _batching = false;
+        _batchChanged = false;
+        _directions = null;
+        _directionsField = null;
     }
-    
+
+    /**
+     * @param synchronous Whether to repair paths on the calling thread as soon as a sector changes, rather than
+     * on the path worker. Synchronous repairs make runs repeatable tick for tick, at the cost of a pause per change.
+     */
+    public void setSynchronous(boolean synchronous) {
+        _synchronous = synchronous;
+    }
+
+    /**
+     * Stops the path worker thread, if one was started.
+     */
+    public synchronized void shutdown() {
+        
+        _generation.incrementAndGet();
+        
+        if(_pathWorker != null) {
+            _pathWorker.shutdownNow();
+            _pathWorker = null;
+        }
+        
+    }
+
     /**
      * Called when something about the current map has changed state, and optimal paths need recalculating.
      */
-    public void invalidateCache() {
+    public synchronized void invalidateCache() {
         LOG.debug("Game map state changed. AI cache invalidated.");
-        _optimalPathCache.clear();
+        _generation.incrementAndGet();
+        _pathField.set(null);
+        _unpublished.clear();
+        _chokepoints = null;
+        _chokepointsStale = true;
+        _publishedChokepoints = null;
     }
-    
+
     /**
-     * @param startSector The sector to start from.
-     * @param finishSector The sector to finish at.
-     * @return A list of pixel points representing the optimal path from this sector to the finish, or null if no path exists.
+     * Called when a single sector has had its piece placed, upgraded or sold. The current paths are
+     * repaired around that sector on the path worker thread, and units keep following the previous
+     * paths until the repaired ones are published. Between {@link #beginChanges()} and {@link #endChanges()}
+     * the repair waits for the end of the batch.
+     * 
+     * @param sector The sector that changed.
      */
-    public LinkedList<Point> getOptimalPath(Sector startSector, Sector finishSector) {
-
-        if(_optimalPathCache.containsKey(startSector)) {
-            return _optimalPathCache.get(startSector);
-        }
+    public synchronized void sectorChanged(Sector sector) {
         
-        int scale = Game.getScale();
-        LinkedList<Point> optimalPath = new LinkedList<Point>();
+        _chokepointsStale = true;
         
-        if(startSector.equals(finishSector)) {
-            optimalPath.add(new Point(finishSector.x * scale, finishSector.y * scale));
-            return optimalPath;
+        if(_pathField.get() == null) {
+            return;
         }
         
-        Map<Sector, Integer> sectorMap = new HashMap<Sector, Integer>();
-        sectorMap.put(finishSector, 0);
+        Board board = _engine.getData().getBoard();
         
-        Map<Sector, Integer> lastPass = new HashMap<Sector, Integer>();
-        lastPass.put(finishSector, 0);
+        //every change the published field has not seen yet, since earlier repairs may have been abandoned
+        _unpublished.set(board.getIndex(sector.x, sector.y));
         
-        boolean foundStart = false;
-        while(foundStart == false) {
-
-        	LOG.debug("Start not yet found. Last pass size: " + lastPass.size());
-        	
-            Map<Sector, Integer> toCheck = new HashMap<Sector, Integer>();
-            toCheck.putAll(lastPass);
-            lastPass.clear();
-
-            for(Sector sector : toCheck.keySet()) {
-                Map<Sector, Integer> newAdjacents = getNewAdjacents(sector, sectorMap);
-                sectorMap.putAll(newAdjacents);
-                lastPass.putAll(newAdjacents);
-            }
-            
-            LOG.debug("After getting new adjacents: sectorMap size: " + sectorMap.size() + ", lastPass: " + lastPass.size());
-            
-            if(lastPass.size() == 0) {
-            	return null;
-            } else if(lastPass.containsKey(startSector)) {
-                foundStart = true;
-            }
-
-        }
-
-        Sector current = startSector;
-        while(current.equals(finishSector) == false) {
-
-            Sector left = AI.getLeft(current);
-            Sector right = AI.getRight(current);
-            Sector up = AI.getUp(current);
-            Sector down = AI.getDown(current);
-            
-            int bestCounter = sectorMap.get(current);
-            Sector best = null;
-
-            if(sectorMap.containsKey(left)) {
-                int counter = sectorMap.get(left);
-                if(counter < bestCounter) {
-                    bestCounter = counter;
-                    best = left;
-                }
-            }
-            
-            if(sectorMap.containsKey(right)) {
-                int counter = sectorMap.get(right);
-                if(counter < bestCounter) {
-                    bestCounter = counter;
-                    best = right;
-                }
-            }
-            
-            if(sectorMap.containsKey(up)) {
-                int counter = sectorMap.get(up);
-                if(counter < bestCounter) {
-                    bestCounter = counter;
-                    best = up;
-                }
-            }
-            
-            if(sectorMap.containsKey(down)) {
-                int counter = sectorMap.get(down);
-                if(counter < bestCounter) {
-                    bestCounter = counter;
-                    best = down;
-                }
-            }
-            
-            int optimalPointX = best.x * scale;
-            int optimalPointY = best.y * scale;
-            Point optimalPoint = new Point(optimalPointX, optimalPointY);
-            
-            optimalPath.add(optimalPoint);
-            
-            current = best;
-            
+        if(_batching) {
+            _batchChanged = true;
+            return;
         }
-
-        _optimalPathCache.put(startSector, optimalPath);
         
-        return optimalPath;
+        repair();
         
     }
     
-    private Map<Sector, Integer> getNewAdjacents(Sector sector, Map<Sector, Integer> sectorMap) {
+    /**
+     * Holds back path repairs for the sectors changed from now until {@link #endChanges()}, so that several
+     * changes on one tick share one repair. Chokepoints still account for each change as it is made, so every
+     * placement in the batch is checked against the ones before it.
+     */
+    public synchronized void beginChanges() {
+        _batching = true;
+    }
+    
+    /**
+     * Repairs the paths once for every sector changed since {@link #beginChanges()}.
+     */
+    public synchronized void endChanges() {
         
-        Map<Sector, Integer> adjacentSectorMap = new HashMap<Sector, Integer>();
+        _batching = false;
         
-        int sectorCounter = sectorMap.get(sector);
-        int adjacentsCounter = sectorCounter + 1;
+        if(_batchChanged) {
+            _batchChanged = false;
+            repair();
+        }
+        
+    }
+    
+    /**
+     * Starts a repair of the current paths around every sector changed since they were last published.
+     */
+    private void repair() {
         
-        Sector left = AI.getLeft(sector);
-        Sector right = AI.getRight(sector);
-        Sector up = AI.getUp(sector);
-        Sector down = AI.getDown(sector);
+        byte[] snapshot = _engine.getData().getBoard().getMovementCosts().clone();
         
-        Map<Sector, GamePiece> pieces = _game.getData().getGamePieces();
+        int generation = _generation.incrementAndGet();
+        FieldRepair repair = new FieldRepair(snapshot, (BitSet)_unpublished.clone(), generation);
         
-        if(pieces.containsKey(left) && pieces.get(left).isTraversable()) {
-            if((sectorMap.containsKey(left) == false) || (sectorMap.containsKey(left) && sectorMap.get(left) > adjacentsCounter)) {
-                adjacentSectorMap.put(left, adjacentsCounter);
-            }
+        if(_synchronous) {
+            repair.run();
+            return;
         }
         
-        if(pieces.containsKey(right) && pieces.get(right).isTraversable()) {
-            if((sectorMap.containsKey(right) == false) || (sectorMap.containsKey(right) && sectorMap.get(right) > adjacentsCounter)) {
-                adjacentSectorMap.put(right, adjacentsCounter);
-            }
+        //anything still queued is now stale, the new repair will catch up on its changes too
+        if(_pendingRepair != null) {
+            _pendingRepair.cancel(false);
         }
         
-        if(pieces.containsKey(up) && pieces.get(up).isTraversable()) {
-            if((sectorMap.containsKey(up) == false) || (sectorMap.containsKey(up) && sectorMap.get(up) > adjacentsCounter)) {
-                adjacentSectorMap.put(up, adjacentsCounter);
-            }
-        }
+        _pendingRepair = getPathWorker().submit(repair);
         
-        if(pieces.containsKey(down) && pieces.get(down).isTraversable()) {
-            if((sectorMap.containsKey(down) == false) || (sectorMap.containsKey(down) && sectorMap.get(down) > adjacentsCounter)) {
-                adjacentSectorMap.put(down, adjacentsCounter);
-            }
+    }
+
+    /**
+     * Answers whether placing a tower at a sector would leave units from some start with no way to any finish,
+     * as the board stands right now. Call it on the thread that ticks the engine, which is the only one that
+     * changes the board; the underlying data is only rebuilt after the board changes.
+     * 
+     * @param x Sector horizontal coordinate.
+     * @param y Sector vertical coordinate.
+     * @return Whether the sector is on every path from some start to the finishes.
+     */
+    public synchronized boolean isChokepoint(int x, int y) {
+        
+        Board board = _engine.getData().getBoard();
+        
+        if(board.contains(x, y) == false) {
+            return false;
         }
         
-        return adjacentSectorMap;
+        return getChokepoints().isChokepoint(board.getIndex(x, y));
         
     }
     
-    private static Sector getLeft(Sector sector) {
-        return new Sector(sector.x - 1, sector.y);
+    /**
+     * Answers {@link #isChokepoint(int, int)} as of the end of the last tick's commands, without touching the
+     * board. Safe to call from any thread, and cheap enough to ask on every mouse move.
+     * 
+     * @param x Sector horizontal coordinate.
+     * @param y Sector vertical coordinate.
+     * @return Whether the sector was on every path from some start to the finishes, or false before the first tick.
+     */
+    public boolean wasChokepoint(int x, int y) {
+        
+        BitSet published = _publishedChokepoints;
+        Board board = _engine.getData().getBoard();
+        
+        return published != null && board.contains(x, y) && published.get(board.getIndex(x, y));
+        
     }
     
-    private static Sector getRight(Sector sector) {
-        return new Sector(sector.x + 1, sector.y);
+    /**
+     * Publishes the chokepoints for {@link #wasChokepoint(int, int)}, rebuilding them first if the board has
+     * changed since. Call it on the thread that ticks the engine, once the tick's commands are applied.
+     */
+    public synchronized void publishChokepoints() {
+        
+        if(_chokepointsStale || _publishedChokepoints == null) {
+            _publishedChokepoints = getChokepoints().snapshot();
+        }
+        
     }
     
-    private static Sector getUp(Sector sector) {
-        return new Sector(sector.x, sector.y - 1);
+    private Chokepoints getChokepoints() {
+        
+        Data data = _engine.getData();
+        Board board = data.getBoard();
+        
+        if(_chokepoints == null) {
+            _chokepoints = new Chokepoints(board.getWidth(), board.getHeight());
+        }
+        
+        if(_chokepointsStale) {
+            _chokepoints.build(board.getTraversable(), board.getIndexes(data.getStartSectors()), board.getIndexes(data.getFinishSectors()));
+            _chokepointsStale = false;
+            LOG.debug("Chokepoints rebuilt.");
+        }
+        
+        return _chokepoints;
+        
     }
-    
-    private static Sector getDown(Sector sector) {
-        return new Sector(sector.x, sector.y + 1);
+
+    /**
+     * Fixes the paths {@link #getDirection(int, int)} answers from to the field published right now, so every
+     * unit steers by the same paths for a whole tick even if a repair is published part way through it. Must be
+     * called on one thread before directions are asked for from several.
+     */
+    public void pinDirections() {
+
+        PathField field = getPathField();
+
+        if(field == _directionsField) {
+            return;
+        }
+
+        int size = field.getWidth() * field.getHeight();
+
+        //one array per board size, forgotten rather than reallocated each time a repair is published
+        if(_directions == null || _directions.length != size) {
+            _directions = new byte[size];
+        } else {
+            Arrays.fill(_directions, Direction.UNKNOWN);
+        }
+
+        _directionsField = field;
+
+    }
+
+    /**
+     * Safe to call from several threads at once once the directions have been pinned.
+     *
+     * @param x Horizontal coordinate of the sector a unit is currently in.
+     * @param y Vertical coordinate of the sector a unit is currently in.
+     * @return The {@link Direction} of the next step along the optimal path to the nearest finish, as of the last
+     * time directions were pinned.
+     */
+    public byte getDirection(int x, int y) {
+
+        if(_directionsField == null) {
+            pinDirections();
+        }
+
+        //directions are resolved once per sector for each pinned field, then served from the byte array. a
+        //racing read sees either UNKNOWN or the finished direction, never anything in between
+        byte direction = _directions[y * _directionsField.getWidth() + x];
+
+        if(direction == Direction.UNKNOWN) {
+            direction = resolveDirection(x, y);
+        }
+
+        return direction;
+
+    }
+
+    /**
+     * Works out a direction the cache does not hold yet. Serialised because path fields fill in their own
+     * lazy state as they are read.
+     */
+    private synchronized byte resolveDirection(int x, int y) {
+
+        int width = _directionsField.getWidth();
+        int sector = y * width + x;
+        byte direction = _directions[sector];
+
+        if(direction == Direction.UNKNOWN) {
+            direction = Direction.fromStep(sector, _directionsField.getNext(x, y), width);
+            _directions[sector] = direction;
+        }
+
+        return direction;
+
     }
 
+    private ExecutorService getPathWorker() {
+        
+        if(_pathWorker == null) {
+            _pathWorker = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "AI path worker");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        
+        return _pathWorker;
+        
+    }
+
+    private PathField getPathField() {
+
+        PathField current = _pathField.get();
+        
+        if(current != null) {
+            return current;
+        }
+
+        Data data = _engine.getData();
+        Board board = data.getBoard();
+        int width = board.getWidth();
+        int height = board.getHeight();
 
+        PathField field;
+        
+        if(board.size() > LARGE_MAP) {
+            field = new ClusterField(width, height);
+        } else {
+            field = new FlowField(width, height);
+        }
+        
+        field.build(board.getMovementCosts(), board.getIndexes(data.getFinishSectors()));
+
+        LOG.debug("Path field rebuilt for " + width + "x" + height + " sectors.");
+
+        _pathField.compareAndSet(null, field);
+
+        return field;
+
+    }
+    
+    /**
+     * Brings a copy of the published path field up to date with a snapshot of the board's movement costs, then swaps it in.
+     * Gives up without publishing as soon as a newer change has been requested.
+     */
+    private class FieldRepair implements Runnable {
+        
+        private byte[] _snapshot;
+        private BitSet _changed;
+        private int _generation;
+        
+        public FieldRepair(byte[] snapshot, BitSet changed, int generation) {
+            _snapshot = snapshot;
+            _changed = changed;
+            _generation = generation;
+        }
+        
+        public void run() {
+            
+            PathField current = _pathField.get();
+            
+            if(current == null || isStale()) {
+                return;
+            }
+            
+            PathField repaired;
+            
+            //under the lock, so the copy sees every lazy field the published one has filled in for lookups
+            synchronized(AI.this) {
+                repaired = current.copy();
+            }
+            
+            repaired.update(_snapshot, _changed);
+            
+            synchronized(AI.this) {
+                if(isStale() == false && _pathField.compareAndSet(current, repaired)) {
+                    _unpublished.andNot(_changed);
+                    LOG.debug("Path field repaired for " + _changed.cardinality() + " changed sectors.");
+                } else {
+                    LOG.debug("Path field repair superseded before publishing.");
+                }
+            }
+            
+        }
+        
+        private boolean isStale() {
+            return _generation != AI.this._generation.get();
+        }
+        
+    }
 
 }
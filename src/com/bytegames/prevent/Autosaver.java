@@ -0,0 +1,158 @@
+package com.bytegames.prevent;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Saves a game every so many ticks without holding up play. The snapshot is taken on the ticking thread at a
+ * tick boundary, which only copies arrays, and is written out on a background thread. Each save goes to a
+ * temporary file that replaces the last save only once it is complete, so a crash part way through a write
+ * leaves the previous save behind rather than half of a new one. If the disk is so slow that a save is still
+ * being written when the next is due, the next is skipped rather than queued behind it.
+ *
+ * @author byte
+ *
+ */
+public class Autosaver {
+
+    private static final long SHUTDOWN_WAIT_SECONDS = 5;
+
+    private static Logger LOG = Logger.getLogger(Autosaver.class);
+
+    private File _file;
+    private long _intervalTicks;
+    private long _lastSaveTick;
+    private ExecutorService _writer;
+    private Future<?> _pendingWrite;
+
+    /**
+     * @param file The file to save to.
+     * @param intervalTicks How many ticks to play between saves.
+     */
+    public Autosaver(File file, long intervalTicks) {
+
+        _file = file;
+        _intervalTicks = Math.max(1, intervalTicks);
+        _lastSaveTick = 0;
+        _pendingWrite = null;
+
+        _writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "Autosave writer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+    }
+
+    /**
+     * @return The file saved to.
+     */
+    public File getFile() {
+        return _file;
+    }
+
+    /**
+     * Saves the game if a save is due. Call it between ticks, on the thread that ticks the engine.
+     *
+     * @param engine The engine being played.
+     */
+    public void tick(Engine engine) {
+
+        if(engine.getTickCount() - _lastSaveTick < _intervalTicks) {
+            return;
+        }
+
+        save(engine);
+
+    }
+
+    /**
+     * Saves the game now, unless the last save is still being written. Call it between ticks, on the thread
+     * that ticks the engine.
+     *
+     * @param engine The engine being played.
+     * @return Whether a save was started.
+     */
+    public boolean save(Engine engine) {
+
+        if(_pendingWrite != null && _pendingWrite.isDone() == false) {
+            LOG.debug("Autosave skipped; the last one is still being written.");
+            return false;
+        }
+
+        final SaveGame save = new SaveGame(engine);
+        _lastSaveTick = engine.getTickCount();
+
+        _pendingWrite = _writer.submit(new Runnable() {
+            public void run() {
+                write(save);
+            }
+        });
+
+        return true;
+
+    }
+
+    /**
+     * Waits a little for a save being written to finish, then stops the writer thread.
+     */
+    public void shutdown() {
+
+        _writer.shutdown();
+
+        try {
+            if(_writer.awaitTermination(SHUTDOWN_WAIT_SECONDS, TimeUnit.SECONDS) == false) {
+                LOG.warn("Warning: Gave up waiting for an autosave to finish writing.");
+            }
+        } catch(InterruptedException ex) {
+            LOG.debug("Warning: Interrupted while waiting for an autosave to finish writing.");
+        }
+
+    }
+
+    /**
+     * Moves a finished save over the last one in a single step, so there is always one or the other on disk.
+     */
+    private void replace(File temporary) throws IOException {
+
+        try {
+            Files.move(temporary.toPath(), _file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch(AtomicMoveNotSupportedException ex) {
+            //some file systems cannot; the file system's own replace is the best left
+            LOG.debug("Warning: Atomic replace unsupported for " + _file + ".");
+            Files.move(temporary.toPath(), _file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+
+    }
+
+    private void write(SaveGame save) {
+
+        File temporary = new File(_file.getPath() + ".tmp");
+        long started = System.nanoTime();
+
+        try {
+
+            save.write(temporary);
+            replace(temporary);
+
+            LOG.debug("Autosaved tick " + save.getTickCount() + " in " + (System.nanoTime() - started) / 1000000 + "ms.");
+
+        } catch(IOException ex) {
+            LOG.error("Error: Unable to autosave to " + _file + ". " + ex.getMessage());
+        }
+
+    }
+
+}
@@ -0,0 +1,411 @@
+package com.bytegames.prevent;
+
+import java.io.FileNotFoundException;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.configuration.ConfigurationException;
+import org.apache.commons.configuration.XMLConfiguration;
+import org.apache.log4j.BasicConfigurator;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+/**
+ * Headless batch tool for tuning the numbers in config.xml. It sweeps a grid of configuration values and,
+ * for every combination, plays a map through many times with randomly laid out towers, then writes one CSV
+ * row per combination with how often units got through, how the score ended up, how many towers the layouts
+ * could afford and how long ticks took. Towers are bought out of the starting score like a player's, so
+ * sweeping tower costs changes how much defence a layout gets.
+ *
+ * Simulations run one per core. Each gets its own engine and its own copy of the configuration, so nothing
+ * is shared between them but read only map files. Layouts are drawn from the run number alone, so every
+ * combination is tried against the same set of layouts and differences between rows come from the values
+ * being swept rather than from luck, and the report comes out the same whichever order the runs finish in.
+ *
+ * Usage: BalanceRunner [map] [runs] [towers] [report] [key=value,value,...]...
+ *
+ * For example: BalanceRunner maps/level1.map 200 6 balance.csv "towers.light[@dps]=10,20,30" "units.soldier[@health]=80,100"
+ *
+ * @author byte
+ *
+ */
+public class BalanceRunner {
+
+    private static final String DEFAULT_MAP = "maps/level1.map";
+    private static final int DEFAULT_RUNS = 100;
+    private static final int DEFAULT_TOWERS = 6;
+    private static final String DEFAULT_REPORT = "balance.csv";
+    private static final long MAX_TICKS = 1000000;
+    private static final int START_SCORE = 20;
+    private static final long LAYOUT_SEED = 0x5EEDL;
+    private static final long NANOS_PER_MICRO = 1000;
+
+    private static Logger LOG = Logger.getLogger(BalanceRunner.class);
+
+    private String _map;
+    private int _runs;
+    private int _towers;
+    private List<String> _keys;
+    private List<String[]> _values;
+
+    /**
+     * @param map The map to play.
+     * @param runs How many layouts to play each combination of values against.
+     * @param towers How many towers to try to place in each layout, as far as the starting score will pay for.
+     */
+    public BalanceRunner(String map, int runs, int towers) {
+        _map = map;
+        _runs = runs;
+        _towers = towers;
+        _keys = new ArrayList<String>();
+        _values = new ArrayList<String[]>();
+    }
+
+    /**
+     * Adds a configuration key to sweep.
+     *
+     * @param key A configuration key, such as towers.light[@dps].
+     * @param values The values to try it at.
+     */
+    public void addParameter(String key, String[] values) {
+        _keys.add(key);
+        _values.add(values);
+    }
+
+    /**
+     * Plays every combination and writes the report.
+     *
+     * @param base The configuration the swept values are laid over.
+     * @param report Where to write the CSV report.
+     * @throws IOException Exception thrown when the report cannot be written.
+     * @throws InterruptedException Exception thrown when interrupted while waiting for runs to finish.
+     */
+    public void run(XMLConfiguration base, PrintWriter report) throws IOException, InterruptedException {
+
+        List<String[]> combinations = getCombinations();
+        List<List<Future<Result>>> pending = new ArrayList<List<Future<Result>>>();
+
+        ExecutorService pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+
+        try {
+
+            for(String[] combination : combinations) {
+
+                List<Future<Result>> runs = new ArrayList<Future<Result>>();
+
+                for(int run = 0; run < _runs; run++) {
+                    //each simulation gets a copy of its own, taken here before any of them start reading
+                    runs.add(pool.submit(new Simulation(createConfig(base, combination), run)));
+                }
+
+                pending.add(runs);
+
+            }
+
+            writeHeader(report);
+
+            for(int index = 0; index < combinations.size(); index++) {
+                writeRow(report, combinations.get(index), collect(pending.get(index)));
+            }
+
+        } finally {
+            pool.shutdownNow();
+        }
+
+    }
+
+    private XMLConfiguration createConfig(XMLConfiguration base, String[] combination) {
+
+        XMLConfiguration config = (XMLConfiguration)base.clone();
+
+        for(int key = 0; key < _keys.size(); key++) {
+            config.setProperty(_keys.get(key), combination[key]);
+        }
+
+        return config;
+
+    }
+
+    /**
+     * @return Every combination of the swept values, the last key varying fastest.
+     */
+    private List<String[]> getCombinations() {
+
+        List<String[]> combinations = new ArrayList<String[]>();
+        int[] choice = new int[_keys.size()];
+
+        while(true) {
+
+            String[] combination = new String[_keys.size()];
+            for(int key = 0; key < combination.length; key++) {
+                combination[key] = _values.get(key)[choice[key]];
+            }
+            combinations.add(combination);
+
+            int key = choice.length - 1;
+            while(key >= 0 && ++choice[key] == _values.get(key).length) {
+                choice[key] = 0;
+                key--;
+            }
+
+            if(key < 0) {
+                return combinations;
+            }
+
+        }
+
+    }
+
+    private List<Result> collect(List<Future<Result>> runs) throws InterruptedException {
+
+        List<Result> results = new ArrayList<Result>();
+
+        for(Future<Result> run : runs) {
+            try {
+                results.add(run.get());
+            } catch(ExecutionException ex) {
+                LOG.error("Error: A simulation failed. " + ex.getCause());
+            }
+        }
+
+        return results;
+
+    }
+
+    private void writeHeader(PrintWriter report) {
+
+        for(String key : _keys) {
+            report.print(key + ",");
+        }
+
+        report.println("runs,wins,winRate,leakRate,meanScore,scoreStdDev,meanTicks,meanTickMicros,maxTickMicros,meanTowers");
+
+    }
+
+    private void writeRow(PrintWriter report, String[] combination, List<Result> results) {
+
+        int wins = 0;
+        long leaks = 0;
+        long resolved = 0;
+        double scoreSum = 0;
+        double scoreSquares = 0;
+        long ticks = 0;
+        long tickNanos = 0;
+        long maxTickNanos = 0;
+        long towers = 0;
+
+        for(Result result : results) {
+            wins += result.won ? 1 : 0;
+            leaks += result.leaks;
+            resolved += result.leaks + result.kills;
+            scoreSum += result.score;
+            scoreSquares += (double)result.score * result.score;
+            ticks += result.ticks;
+            tickNanos += result.tickNanos;
+            maxTickNanos = Math.max(maxTickNanos, result.maxTickNanos);
+            towers += result.towers;
+        }
+
+        int count = Math.max(1, results.size());
+        double meanScore = scoreSum / count;
+
+        for(String value : combination) {
+            report.print(value + ",");
+        }
+
+        report.println(results.size() + "," + wins + "," + format((double)wins / count) + ","
+                + format(resolved == 0 ? 0 : (double)leaks / resolved) + "," + format(meanScore) + ","
+                + format(Math.sqrt(Math.max(0, scoreSquares / count - meanScore * meanScore))) + ","
+                + format((double)ticks / count) + ","
+                + format(ticks == 0 ? 0 : (double)tickNanos / ticks / NANOS_PER_MICRO) + ","
+                + format((double)maxTickNanos / NANOS_PER_MICRO) + ","
+                + format((double)towers / count));
+
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.US, "%.4f", value);
+    }
+
+    /**
+     * How one simulation went.
+     */
+    private static class Result {
+        private boolean won;
+        private int towers;
+        private int kills;
+        private int leaks;
+        private int score;
+        private long ticks;
+        private long tickNanos;
+        private long maxTickNanos;
+    }
+
+    /**
+     * Plays the map through once with a random layout of towers.
+     */
+    private class Simulation implements Callable<Result> {
+
+        private XMLConfiguration _config;
+        private int _run;
+
+        public Simulation(XMLConfiguration config, int run) {
+            _config = config;
+            _run = run;
+        }
+
+        public Result call() throws FileNotFoundException {
+
+            Engine engine = new Engine(_map, START_SCORE, null, _config);
+
+            //repeatable, and already one simulation per core
+            engine.getAI().setSynchronous(true);
+            engine.setParallel(false);
+
+            try {
+
+                Result result = new Result();
+
+                result.towers = placeTowers(engine, new Random(LAYOUT_SEED * 31 + _run));
+
+                while(engine.isOver() == false && engine.getTickCount() < MAX_TICKS) {
+                    long started = System.nanoTime();
+                    engine.tick();
+                    long elapsed = System.nanoTime() - started;
+                    result.tickNanos += elapsed;
+                    result.maxTickNanos = Math.max(result.maxTickNanos, elapsed);
+                }
+
+                result.won = engine.hasWon();
+                result.kills = engine.getKillCount();
+                result.leaks = engine.getLeakCount();
+                result.score = engine.getData().getScore();
+                result.ticks = engine.getTickCount();
+
+                return result;
+
+            } finally {
+                engine.shutdown();
+            }
+
+        }
+
+        /**
+         * Tries open sectors in a random order until enough towers stand or none are left. Sectors that would
+         * cut the path are refused by the placement itself, and towers the score cannot pay for are passed over.
+         *
+         * @return The number of towers placed.
+         */
+        private int placeTowers(Engine engine, Random random) {
+
+            Board board = engine.getData().getBoard();
+            List<Sector> open = new ArrayList<Sector>();
+
+            for(int y = 0; y < board.getHeight(); y++) {
+                for(int x = 0; x < board.getWidth(); x++) {
+                    if(board.isTerrain(x, y, TerrainType.LAND)) {
+                        open.add(new Sector(x, y));
+                    }
+                }
+            }
+
+            Collections.shuffle(open, random);
+
+            TowerType[] types = TowerType.values();
+            int[] costs = new int[types.length];
+
+            for(int type = 0; type < types.length; type++) {
+                costs[type] = TowerFactory.getTower(types[type], _config).getCost();
+            }
+
+            int placed = 0;
+
+            for(int index = 0; index < open.size() && placed < _towers; index++) {
+
+                Sector sector = open.get(index);
+                int type = random.nextInt(types.length);
+
+                if(costs[type] > engine.getData().getScore()) {
+                    continue;
+                }
+
+                if(new Command(CommandType.PLACE, sector.x, sector.y, types[type]).apply(engine)) {
+                    placed++;
+                }
+
+            }
+
+            return placed;
+
+        }
+
+    }
+
+    /**
+     * Entry point for a balance run.
+     *
+     * @param args The map, runs per combination, towers per layout, report file, then any keys to sweep.
+     */
+    public static void main(String[] args) {
+
+        BasicConfigurator.configure();
+        Logger.getRootLogger().setLevel(Level.WARN);
+
+        String map = args.length > 0 ? args[0] : DEFAULT_MAP;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_RUNS;
+        int towers = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_TOWERS;
+        String reportFile = args.length > 3 ? args[3] : DEFAULT_REPORT;
+
+        BalanceRunner runner = new BalanceRunner(map, runs, towers);
+
+        for(int arg = 4; arg < args.length; arg++) {
+            int split = args[arg].indexOf('=');
+            if(split <= 0) {
+                System.err.println("Expected key=value,value,... but got: " + args[arg]);
+                System.exit(1);
+            }
+            runner.addParameter(args[arg].substring(0, split), args[arg].substring(split + 1).split(","));
+        }
+
+        XMLConfiguration base = null;
+
+        try {
+            base = new XMLConfiguration("config/config.xml");
+        } catch(ConfigurationException ex) {
+            LOG.fatal("Fatal Error: Unable to read required configuration file.");
+            System.exit(1);
+        }
+
+        long started = System.currentTimeMillis();
+
+        try {
+            PrintWriter report = new PrintWriter(new FileWriter(reportFile));
+            try {
+                runner.run(base, report);
+            } finally {
+                report.close();
+            }
+        } catch(IOException ex) {
+            LOG.fatal("Fatal Error: Unable to write report: " + reportFile);
+            System.exit(1);
+        } catch(InterruptedException ex) {
+            LOG.fatal("Fatal Error: Interrupted before every run finished.");
+            System.exit(1);
+        }
+
+        System.out.println("report=" + reportFile + " elapsedMs=" + (System.currentTimeMillis() - started));
+
+    }
+
+}
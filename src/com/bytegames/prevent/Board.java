@@ -0,0 +1,510 @@
+package com.bytegames.prevent;
+
+import java.awt.Graphics;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import org.apache.commons.configuration.Configuration;
+
+
+/**
+ * The grid of sectors making up a map. Each sector holds a single byte tile id which indexes into a
+ * palette of shared pieces, so one terrain or tower object serves every sector of that kind.
+ * Traversability is mirrored into a bitset, and movement costs into a byte per sector, for the AI to read directly.
+ * The sectors holding towers are also kept as a dense list, so firing visits only towers rather than the whole board.
+ *
+ * A copy of the board for a save shares the sector arrays with the original until one of them next changes a
+ * sector, which is when the arrays are copied. Towers change rarely, so taking a copy every few seconds costs
+ * a copy of the tower list and little else, however large the board.
+ *
+ * @author byte
+ *
+ */
+public class Board {
+
+    /**
+     * Tile id for a sector with no piece on it.
+     */
+    public static final byte EMPTY = 0;
+
+    private static final int TERRAIN_BASE = 1;
+    private static final int TOWER_BASE = TERRAIN_BASE + TerrainType.values().length;
+    private static final int PALETTE_SIZE = TOWER_BASE + TowerType.values().length;
+    private static final int NO_TOWER = -1;
+    private static final int INITIAL_TOWER_CAPACITY = 16;
+
+    private int _width;
+    private int _height;
+    private byte[] _tiles;
+    private BitSet _traversable;
+    private byte[] _movementCosts;
+    private GamePiece[] _palette;
+    private Configuration _config;
+
+    //dense list of tower sectors with the tick each tower may next fire on, and each sector's place in the list
+    private int[] _towerSectors;
+    private long[] _towerReadyTicks;
+    private int[] _towerSlots;
+    private int _towerCount;
+
+    //whether the sector arrays may be shared with a copy, and must be copied before they are next changed
+    private boolean _shared;
+
+    /**
+     * Instantiates an empty board.
+     *
+     * @param width The number of sectors across.
+     * @param height The number of sectors down.
+     * @param config The configuration pieces are created from.
+     */
+    public Board(int width, int height, Configuration config) {
+
+        _width = width;
+        _height = height;
+        _tiles = new byte[width * height];
+        _traversable = new BitSet(width * height);
+        _movementCosts = new byte[width * height];
+        _palette = new GamePiece[PALETTE_SIZE];
+        _config = config;
+
+        _towerSectors = new int[INITIAL_TOWER_CAPACITY];
+        _towerReadyTicks = new long[INITIAL_TOWER_CAPACITY];
+        _towerSlots = new int[width * height];
+        _towerCount = 0;
+        Arrays.fill(_towerSlots, NO_TOWER);
+        _shared = false;
+
+    }
+
+    /**
+     * Instantiates a copy of a board that shares its sector arrays until either board changes a sector.
+     */
+    private Board(Board board) {
+
+        _width = board._width;
+        _height = board._height;
+        _tiles = board._tiles;
+        _traversable = board._traversable;
+        _movementCosts = board._movementCosts;
+        _palette = board._palette;
+        _config = board._config;
+
+        _towerSectors = Arrays.copyOf(board._towerSectors, Math.max(INITIAL_TOWER_CAPACITY, board._towerCount));
+        _towerReadyTicks = Arrays.copyOf(board._towerReadyTicks, _towerSectors.length);
+        _towerSlots = board._towerSlots;
+        _towerCount = board._towerCount;
+
+        _shared = true;
+        board._shared = true;
+
+    }
+
+    /**
+     * @return A copy of the board as it stands. The sectors are only copied when one board or the other next
+     * changes a sector, so the copy is cheap to take on the ticking thread and may then be read on another.
+     */
+    public Board copy() {
+        return new Board(this);
+    }
+
+    /**
+     * Writes the sectors and towers, tiles in one block and the tower list in its current order, so towers
+     * fire in the same order once it is read back.
+     *
+     * @param out Where to write.
+     * @throws IOException Exception thrown when the snapshot cannot be written.
+     */
+    public void write(SnapshotWriter out) throws IOException {
+
+        out.writeInt(_width);
+        out.writeInt(_height);
+        out.writeBytes(_tiles, _tiles.length);
+
+        out.writeInt(_towerCount);
+        out.writeInts(_towerSectors, _towerCount);
+        out.writeLongs(_towerReadyTicks, _towerCount);
+
+    }
+
+    /**
+     * Reads back a board written by {@link #write(SnapshotWriter)}.
+     *
+     * @param in Where to read from.
+     * @param config The configuration pieces are created from.
+     * @return The board.
+     * @throws IOException Exception thrown when the snapshot cannot be read or is corrupt.
+     */
+    public static Board read(SnapshotReader in, Configuration config) throws IOException {
+
+        int width = in.readCount();
+        int height = in.readCount();
+
+        if((long)width * height > Integer.MAX_VALUE) {
+            throw new IOException("Corrupt snapshot: board of " + width + " by " + height);
+        }
+
+        Board board = new Board(width, height, config);
+        byte[] tiles = in.readBytes(width * height);
+
+        for(int index = 0; index < tiles.length; index++) {
+
+            int tile = tiles[index];
+
+            if(tile < EMPTY || tile >= PALETTE_SIZE) {
+                throw new IOException("Corrupt snapshot: tile " + tile + " at sector " + index);
+            }
+
+            if(tile != EMPTY) {
+                board.setPieceTile(index, tile);
+            }
+
+        }
+
+        int towerCount = in.readCount();
+        int[] towerSectors = in.readInts(towerCount);
+        long[] towerReadyTicks = in.readLongs(towerCount);
+
+        for(int slot = 0; slot < towerCount; slot++) {
+
+            int index = towerSectors[slot];
+
+            if(index < 0 || index >= tiles.length || tiles[index] < TOWER_BASE || board._towerSlots[index] != NO_TOWER) {
+                throw new IOException("Corrupt snapshot: tower at sector " + index);
+            }
+
+            board.addTower(index);
+            board._towerReadyTicks[slot] = towerReadyTicks[slot];
+
+        }
+
+        return board;
+
+    }
+
+    /**
+     * @return The number of sectors across the board.
+     */
+    public int getWidth() {
+        return _width;
+    }
+
+    /**
+     * @return The number of sectors down the board.
+     */
+    public int getHeight() {
+        return _height;
+    }
+
+    /**
+     * @return The number of sectors on the board.
+     */
+    public int size() {
+        return _tiles.length;
+    }
+
+    /**
+     * @param x Sector horizontal coordinate.
+     * @param y Sector vertical coordinate.
+     * @return Whether the coordinate lies on the board.
+     */
+    public boolean contains(int x, int y) {
+        return x >= 0 && y >= 0 && x < _width && y < _height;
+    }
+
+    /**
+     * @param x Sector horizontal coordinate.
+     * @param y Sector vertical coordinate.
+     * @return The index of the sector in the board arrays.
+     */
+    public int getIndex(int x, int y) {
+        return y * _width + x;
+    }
+
+    /**
+     * @param index The index of a sector.
+     * @return The tile id stored at that sector.
+     */
+    public byte getTile(int index) {
+        return _tiles[index];
+    }
+
+    /**
+     * @param index The index of a sector.
+     * @return The piece at that sector, or null if the sector is empty.
+     */
+    public GamePiece getPiece(int index) {
+        return _palette[_tiles[index]];
+    }
+
+    /**
+     * @param x Sector horizontal coordinate.
+     * @param y Sector vertical coordinate.
+     * @return The piece at that sector, or null if the sector is empty or off the board.
+     */
+    public GamePiece getPiece(int x, int y) {
+
+        if(contains(x, y) == false) {
+            return null;
+        }
+
+        return getPiece(getIndex(x, y));
+    }
+
+    /**
+     * @param x Sector horizontal coordinate.
+     * @param y Sector vertical coordinate.
+     * @param type A terrain type.
+     * @return Whether the sector is on the board and holds that terrain.
+     */
+    public boolean isTerrain(int x, int y, TerrainType type) {
+        return contains(x, y) && _tiles[getIndex(x, y)] == TERRAIN_BASE + type.ordinal();
+    }
+
+    /**
+     * @param sectors Sectors on the board.
+     * @return The index of each sector, in the same order.
+     */
+    public int[] getIndexes(List<Sector> sectors) {
+
+        int[] indexes = new int[sectors.size()];
+
+        for(int i = 0; i < indexes.length; i++) {
+            indexes[i] = getIndex(sectors.get(i).x, sectors.get(i).y);
+        }
+
+        return indexes;
+
+    }
+
+    /**
+     * @param index The index of a sector.
+     * @return Whether units can walk through that sector.
+     */
+    public boolean isTraversable(int index) {
+        return _traversable.get(index);
+    }
+
+    /**
+     * @param x Sector horizontal coordinate.
+     * @param y Sector vertical coordinate.
+     * @return Whether units can walk through that sector. Sectors off the board are not traversable.
+     */
+    public boolean isTraversable(int x, int y) {
+        return contains(x, y) && _traversable.get(getIndex(x, y));
+    }
+
+    /**
+     * @return The traversability of every sector, indexed by y * width + x. This is the live set, not a copy,
+     * though it is swapped for a fresh one when a sector changes after the board was copied, so fetch it again
+     * rather than holding on to it.
+     */
+    public BitSet getTraversable() {
+        return _traversable;
+    }
+
+    /**
+     * @return The movement cost of every sector, indexed by y * width + x, with PathField.BLOCKED for sectors
+     * that are not traversable. This is the live array, not a copy, though like the traversability it is
+     * swapped for a fresh one when a sector changes after the board was copied.
+     */
+    public byte[] getMovementCosts() {
+        return _movementCosts;
+    }
+
+    /**
+     * @return The number of towers on the board.
+     */
+    public int getTowerCount() {
+        return _towerCount;
+    }
+
+    /**
+     * @param slot A tower's place in the tower list, from 0 to getTowerCount() - 1. Places change as towers are removed.
+     * @return The index of the sector the tower stands on.
+     */
+    public int getTowerSector(int slot) {
+        return _towerSectors[slot];
+    }
+
+    /**
+     * @param slot A tower's place in the tower list.
+     * @return The tick the tower may next fire on.
+     */
+    public long getTowerReadyTick(int slot) {
+        return _towerReadyTicks[slot];
+    }
+
+    /**
+     * @param slot A tower's place in the tower list.
+     * @param tick The tick the tower may next fire on.
+     */
+    public void setTowerReadyTick(int slot, long tick) {
+        _towerReadyTicks[slot] = tick;
+    }
+
+    /**
+     * @param x Sector horizontal coordinate.
+     * @param y Sector vertical coordinate.
+     * @param type The terrain to lay down at the sector.
+     */
+    public void setTerrain(int x, int y, TerrainType type) {
+        setTile(getIndex(x, y), TERRAIN_BASE + type.ordinal());
+    }
+
+    /**
+     * @param x Sector horizontal coordinate.
+     * @param y Sector vertical coordinate.
+     * @param type The tower to place at the sector.
+     */
+    public void setTower(int x, int y, TowerType type) {
+        setTile(getIndex(x, y), TOWER_BASE + type.ordinal());
+    }
+
+    /**
+     * Draws the pieces on the sectors that overlap an area, so drawing costs the same for a small map as for
+     * the on screen part of a huge one.
+     *
+     * @param gfx The graphics object to draw with.
+     * @param scale The size of a sector in pixels.
+     * @param visible The area to draw, in pixels from the top left of the board.
+     */
+    public void draw(Graphics gfx, int scale, Rectangle visible) {
+
+        Point drawPoint = new Point();
+
+        int fromX = Math.max(0, visible.x / scale);
+        int fromY = Math.max(0, visible.y / scale);
+        int toX = Math.min(_width - 1, (visible.x + visible.width - 1) / scale);
+        int toY = Math.min(_height - 1, (visible.y + visible.height - 1) / scale);
+
+        for(int y = fromY; y <= toY; y++) {
+
+            int index = y * _width + fromX;
+
+            for(int x = fromX; x <= toX; x++, index++) {
+
+                GamePiece piece = _palette[_tiles[index]];
+
+                if(piece != null) {
+                    drawPoint.setLocation(x * scale, y * scale);
+                    piece.draw(gfx, drawPoint);
+                }
+
+            }
+
+        }
+
+    }
+
+    private void setTile(int index, int tile) {
+
+        if(_shared) {
+            unshare();
+        }
+
+        setPieceTile(index, tile);
+
+        //an upgraded tower keeps its place and its reload
+        if(tile >= TOWER_BASE) {
+            addTower(index);
+        } else {
+            removeTower(index);
+        }
+
+    }
+
+    /**
+     * Lays a piece's tile at a sector, leaving the tower list alone.
+     */
+    private void setPieceTile(int index, int tile) {
+
+        if(_palette[tile] == null) {
+            _palette[tile] = createPiece(tile);
+        }
+
+        GamePiece piece = _palette[tile];
+
+        _tiles[index] = (byte)tile;
+        _traversable.set(index, piece.isTraversable());
+        _movementCosts[index] = piece.isTraversable() ? getClampedCost(piece) : PathField.BLOCKED;
+
+    }
+
+    /**
+     * Takes private copies of the sector arrays a copy of the board may still be reading.
+     */
+    private void unshare() {
+
+        _tiles = _tiles.clone();
+        _traversable = (BitSet)_traversable.clone();
+        _movementCosts = _movementCosts.clone();
+        _towerSlots = _towerSlots.clone();
+        _shared = false;
+
+    }
+
+    private void addTower(int index) {
+
+        if(_towerSlots[index] != NO_TOWER) {
+            return;
+        }
+
+        if(_towerCount == _towerSectors.length) {
+            _towerSectors = Arrays.copyOf(_towerSectors, _towerCount * 2);
+            _towerReadyTicks = Arrays.copyOf(_towerReadyTicks, _towerCount * 2);
+        }
+
+        _towerSectors[_towerCount] = index;
+        _towerReadyTicks[_towerCount] = 0;
+        _towerSlots[index] = _towerCount;
+        _towerCount++;
+
+    }
+
+    private void removeTower(int index) {
+
+        int slot = _towerSlots[index];
+
+        if(slot == NO_TOWER) {
+            return;
+        }
+
+        int last = --_towerCount;
+
+        _towerSectors[slot] = _towerSectors[last];
+        _towerReadyTicks[slot] = _towerReadyTicks[last];
+        _towerSlots[_towerSectors[slot]] = slot;
+        _towerSlots[index] = NO_TOWER;
+
+    }
+
+    private static byte getClampedCost(GamePiece piece) {
+
+        int cost = piece.getMovementCost();
+
+        if(cost < 1) {
+            cost = 1;
+        }
+        if(cost > PathField.MAX_COST) {
+            cost = PathField.MAX_COST;
+        }
+
+        return (byte)cost;
+
+    }
+
+    private GamePiece createPiece(int tile) {
+
+        if(tile >= TOWER_BASE) {
+            return TowerFactory.getTower(TowerType.values()[tile - TOWER_BASE], _config);
+        }
+
+        return TerrainFactory.getTerrain(TerrainType.values()[tile - TERRAIN_BASE], _config);
+
+    }
+
+}
@@ -0,0 +1,184 @@
+package com.bytegames.prevent;
+
+
+/**
+ * A monotone priority queue of int items keyed by small non-negative ints, for shortest path searches
+ * whose step costs are bounded (Dial's algorithm). Items live in a ring of buckets, one per key in the
+ * window [current, current + maxStep], so pushes and pops are constant time with no boxing.
+ *
+ * Keys outside the window (such as the scattered seeds of a path repair) fall back to a small binary
+ * heap of packed longs, which is merged with the buckets when popping.
+ *
+ * @author byte
+ *
+ */
+public class BucketQueue {
+
+    private static final int INITIAL_BUCKET_CAPACITY = 16;
+
+    private int _span;
+    private int[][] _buckets;
+    private int[] _sizes;
+    private int _count;
+    private int _current;
+    private int _lastKey;
+
+    private long[] _overflow;
+    private int _overflowSize;
+
+    /**
+     * @param maxStep The largest difference between the key of a popped item and the keys it pushes.
+     */
+    public BucketQueue(int maxStep) {
+
+        _span = maxStep + 1;
+        _buckets = new int[_span][];
+        _sizes = new int[_span];
+
+        for(int i = 0; i < _span; i++) {
+            _buckets[i] = new int[INITIAL_BUCKET_CAPACITY];
+        }
+
+        _overflow = new long[INITIAL_BUCKET_CAPACITY];
+
+        clear();
+
+    }
+
+    /**
+     * Empties the queue.
+     */
+    public void clear() {
+
+        for(int i = 0; i < _span; i++) {
+            _sizes[i] = 0;
+        }
+
+        _count = 0;
+        _overflowSize = 0;
+        _current = 0;
+        _lastKey = 0;
+
+    }
+
+    /**
+     * @return Whether there is nothing left to pop.
+     */
+    public boolean isEmpty() {
+        return _count == 0 && _overflowSize == 0;
+    }
+
+    /**
+     * @param item The item to queue.
+     * @param key The priority of the item. Lower keys are popped first.
+     */
+    public void push(int item, int key) {
+
+        if(_count == 0) {
+            _current = key;
+        }
+
+        if(key >= _current && key - _current < _span) {
+
+            int bucket = key % _span;
+
+            if(_sizes[bucket] == _buckets[bucket].length) {
+                int[] grown = new int[_buckets[bucket].length * 2];
+                System.arraycopy(_buckets[bucket], 0, grown, 0, _sizes[bucket]);
+                _buckets[bucket] = grown;
+            }
+
+            _buckets[bucket][_sizes[bucket]++] = item;
+            _count++;
+
+        } else {
+            pushOverflow(((long)key << 32) | (item & 0xFFFFFFFFL));
+        }
+
+    }
+
+    /**
+     * @return The item with the lowest key. Items sharing a key come out in no particular order.
+     */
+    public int pop() {
+
+        if(_count > 0) {
+            while(_sizes[_current % _span] == 0) {
+                _current++;
+            }
+        }
+
+        if(_overflowSize > 0 && (_count == 0 || (int)(_overflow[0] >>> 32) < _current)) {
+            long entry = popOverflow();
+            _lastKey = (int)(entry >>> 32);
+            return (int)entry;
+        }
+
+        int bucket = _current % _span;
+
+        _count--;
+        _lastKey = _current;
+
+        return _buckets[bucket][--_sizes[bucket]];
+
+    }
+
+    /**
+     * @return The key of the item most recently popped.
+     */
+    public int getLastKey() {
+        return _lastKey;
+    }
+
+    private void pushOverflow(long entry) {
+
+        if(_overflowSize == _overflow.length) {
+            long[] grown = new long[_overflow.length * 2];
+            System.arraycopy(_overflow, 0, grown, 0, _overflowSize);
+            _overflow = grown;
+        }
+
+        int child = _overflowSize++;
+
+        while(child > 0) {
+            int parent = (child - 1) / 2;
+            if(_overflow[parent] <= entry) {
+                break;
+            }
+            _overflow[child] = _overflow[parent];
+            child = parent;
+        }
+
+        _overflow[child] = entry;
+
+    }
+
+    private long popOverflow() {
+
+        long top = _overflow[0];
+        long last = _overflow[--_overflowSize];
+
+        int parent = 0;
+
+        while(true) {
+            int child = parent * 2 + 1;
+            if(child >= _overflowSize) {
+                break;
+            }
+            if(child + 1 < _overflowSize && _overflow[child + 1] < _overflow[child]) {
+                child++;
+            }
+            if(last <= _overflow[child]) {
+                break;
+            }
+            _overflow[parent] = _overflow[child];
+            parent = child;
+        }
+
+        _overflow[parent] = last;
+
+        return top;
+
+    }
+
+}
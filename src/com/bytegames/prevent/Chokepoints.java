@@ -0,0 +1,208 @@
+package com.bytegames.prevent;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+
+/**
+ * The set of sectors that every route from some start to all of the finishes passes through. Blocking any
+ * one of them would leave units from that start with no path, so they are the sectors a tower must not be
+ * placed on.
+ *
+ * The set is found with a single depth first search that tracks articulation points. The search is rooted
+ * at a virtual sector joined to every finish, so a map with many exits is handled in the same pass as one
+ * with a single exit. After each change to the board it costs one pass over the map, and each query
+ * afterwards is a bit lookup.
+ *
+ * @author byte
+ *
+ */
+public class Chokepoints {
+
+    private static final int DIRECTIONS = 4;
+
+    private int _width;
+    private int _height;
+    private int _root;
+    private BitSet _chokepoints;
+
+    //scratch space reused between builds
+    private int[] _discovered;
+    private int[] _low;
+    private int[] _parent;
+    private int[] _nextDirection;
+    private int[] _stack;
+    private BitSet _leadsToStart;
+    private BitSet _starts;
+    private BitSet _finishes;
+
+    /**
+     * @param width The number of sectors across the map.
+     * @param height The number of sectors down the map.
+     */
+    public Chokepoints(int width, int height) {
+
+        _width = width;
+        _height = height;
+        _root = width * height;
+        _chokepoints = new BitSet(width * height);
+
+        //one extra slot for the virtual root
+        _discovered = new int[_root + 1];
+        _low = new int[_root + 1];
+        _parent = new int[_root + 1];
+        _nextDirection = new int[_root + 1];
+        _stack = new int[_root + 1];
+        _leadsToStart = new BitSet(_root + 1);
+        _starts = new BitSet(_root);
+        _finishes = new BitSet(_root);
+
+    }
+
+    /**
+     * Finds the chokepoints for the current board, replacing anything computed before.
+     *
+     * @param traversable Traversability of each sector, indexed by y * width + x.
+     * @param starts The indexes of the start sectors.
+     * @param finishes The indexes of the finish sectors.
+     */
+    public void build(BitSet traversable, int[] starts, int[] finishes) {
+
+        _chokepoints.clear();
+
+        Arrays.fill(_discovered, 0);
+        Arrays.fill(_nextDirection, 0);
+        _leadsToStart.clear();
+        _starts.clear();
+        _finishes.clear();
+
+        for(int start : starts) {
+            _starts.set(start);
+        }
+
+        for(int finish : finishes) {
+            if(traversable.get(finish)) {
+                _finishes.set(finish);
+            }
+        }
+
+        int time = 1;
+        int top = 0;
+
+        _stack[top++] = _root;
+        _discovered[_root] = _low[_root] = time++;
+        _parent[_root] = -1;
+
+        while(top > 0) {
+
+            int sector = _stack[top - 1];
+
+            if(hasMoreAdjacents(sector, finishes)) {
+
+                int adjacent = getAdjacent(sector, _nextDirection[sector]++, finishes);
+
+                if(adjacent < 0 || (adjacent != _root && traversable.get(adjacent) == false)) {
+                    continue;
+                }
+
+                if(_discovered[adjacent] == 0) {
+                    _parent[adjacent] = sector;
+                    _discovered[adjacent] = _low[adjacent] = time++;
+                    _stack[top++] = adjacent;
+                } else if(adjacent != _parent[sector] && _discovered[adjacent] < _low[sector]) {
+                    _low[sector] = _discovered[adjacent];
+                }
+
+                continue;
+
+            }
+
+            //every neighbour explored, so fold this sector's results into its parent
+            top--;
+
+            if(_starts.get(sector)) {
+                _leadsToStart.set(sector);
+            }
+
+            int parent = _parent[sector];
+
+            if(parent < 0) {
+                continue;
+            }
+
+            if(_low[sector] < _low[parent]) {
+                _low[parent] = _low[sector];
+            }
+
+            if(_leadsToStart.get(sector)) {
+                _leadsToStart.set(parent);
+                //a start hangs off the parent with no way back around it
+                if(parent != _root && _low[sector] >= _discovered[parent]) {
+                    _chokepoints.set(parent);
+                }
+            }
+
+        }
+
+        //blocking a start always cuts it off, unless it was cut off already and cannot be made worse
+        for(int start : starts) {
+            if(_discovered[start] != 0) {
+                _chokepoints.set(start);
+            }
+        }
+
+    }
+
+    /**
+     * @param index The index of a sector.
+     * @return Whether blocking the sector would cut some start off from every finish.
+     */
+    public boolean isChokepoint(int index) {
+        return _chokepoints.get(index);
+    }
+
+    /**
+     * @return A copy of the set as last built, indexed by y * width + x, which later builds leave alone.
+     */
+    public BitSet snapshot() {
+        return (BitSet)_chokepoints.clone();
+    }
+
+    private boolean hasMoreAdjacents(int sector, int[] finishes) {
+
+        if(sector == _root) {
+            return _nextDirection[sector] < finishes.length;
+        }
+
+        //finishes have one extra edge, back up to the virtual root
+        return _nextDirection[sector] < (_finishes.get(sector) ? DIRECTIONS + 1 : DIRECTIONS);
+
+    }
+
+    private int getAdjacent(int sector, int direction, int[] finishes) {
+
+        if(sector == _root) {
+            return _finishes.get(finishes[direction]) ? finishes[direction] : -1;
+        }
+
+        if(direction == DIRECTIONS) {
+            return _root;
+        }
+
+        int x = sector % _width;
+        int y = sector / _width;
+
+        switch(direction) {
+            case 0:
+                return x > 0 ? sector - 1 : -1;
+            case 1:
+                return x < _width - 1 ? sector + 1 : -1;
+            case 2:
+                return y > 0 ? sector - _width : -1;
+            default:
+                return y < _height - 1 ? sector + _width : -1;
+        }
+
+    }
+
+}
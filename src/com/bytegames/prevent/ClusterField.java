@@ -0,0 +1,963 @@
+package com.bytegames.prevent;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+
+/**
+ * A hierarchical path field for maps too large to flood in one piece (HPA* style).
+ *
+ * The map is cut into square clusters. Wherever units can cross from one cluster into the next, a
+ * transition is placed on each side of the border, and together with the finishes these form the nodes
+ * of an abstract graph. Each cluster knows the cost of crossing between its own nodes, so a
+ * search over the small abstract graph gives every node its distance to the nearest finish.
+ *
+ * Sector level directions are only worked out for the clusters units are actually standing in, by growing
+ * a local field inside the cluster from its nodes. A change to a sector rebuilds the one or few clusters
+ * it touches, then repairs the abstract distances outward from those clusters the way a {@link FlowField}
+ * repairs its sectors, so repairs cost a few clusters' worth of work plus whatever distances really changed,
+ * however large the map is. Copies share every cluster, node distance and local field they have not changed;
+ * a repair only replaces the local fields of clusters whose own sectors changed or whose nodes ended up at a
+ * different distance.
+ *
+ * @author byte
+ *
+ */
+public class ClusterField implements PathField {
+
+    /**
+     * The number of sectors along each side of a cluster.
+     */
+    public static final int CLUSTER_SIZE = 16;
+
+    /**
+     * Border openings at least this wide get a transition at each end rather than one in the middle.
+     */
+    private static final int WIDE_ENTRANCE = 6;
+
+    private static final int DIRECTIONS = 4;
+
+    //abstract nodes are numbered cluster index * NODE_STRIDE + slot, a cluster holding at most one node per sector
+    private static final int NODE_STRIDE = CLUSTER_SIZE * CLUSTER_SIZE;
+
+    private int _width;
+    private int _height;
+    private int _clustersX;
+    private int _clustersY;
+    private Cluster[] _clusters;
+
+    //abstract distances of each cluster's nodes, indexed by slot, shared with copies until they change
+    private int[][] _nodeDistances;
+
+    //sector level fields, worked out on demand and shared with copies until they change
+    private int[][] _localDistances;
+    private BucketQueue _lookupQueue;
+
+    //scratch space reused between updates, by whichever copy is being updated
+    private BucketQueue _queue;
+    private int[] _scratchDistances;
+    private Search _search;
+
+    /**
+     * @param width The number of sectors across the map.
+     * @param height The number of sectors down the map.
+     */
+    public ClusterField(int width, int height) {
+
+        _width = width;
+        _height = height;
+        _clustersX = (width + CLUSTER_SIZE - 1) / CLUSTER_SIZE;
+        _clustersY = (height + CLUSTER_SIZE - 1) / CLUSTER_SIZE;
+        _clusters = new Cluster[_clustersX * _clustersY];
+        _nodeDistances = new int[_clusters.length][];
+        _localDistances = new int[_clusters.length][];
+
+        _queue = new BucketQueue(MAX_COST);
+        _scratchDistances = new int[CLUSTER_SIZE * CLUSTER_SIZE];
+        _search = null;
+
+    }
+
+    private ClusterField(ClusterField other) {
+
+        _width = other._width;
+        _height = other._height;
+        _clustersX = other._clustersX;
+        _clustersY = other._clustersY;
+        _clusters = other._clusters.clone();
+        _nodeDistances = other._nodeDistances.clone();
+        _localDistances = other._localDistances.clone();
+
+        _queue = other._queue;
+        _scratchDistances = other._scratchDistances;
+        _search = other._search;
+
+    }
+
+    @Override
+    public void build(byte[] costs, int[] finishes) {
+
+        for(int cy = 0; cy < _clustersY; cy++) {
+            for(int cx = 0; cx < _clustersX; cx++) {
+
+                int left = cx * CLUSTER_SIZE;
+                int top = cy * CLUSTER_SIZE;
+                Cluster cluster = new Cluster(left, top, Math.min(CLUSTER_SIZE, _width - left), Math.min(CLUSTER_SIZE, _height - top));
+
+                for(int y = 0; y < cluster.height; y++) {
+                    System.arraycopy(costs, (top + y) * _width + left, cluster.costs, y * cluster.width, cluster.width);
+                }
+
+                _clusters[cy * _clustersX + cx] = cluster;
+
+            }
+        }
+
+        for(int finish : finishes) {
+            Cluster cluster = getCluster(finish % _width, finish / _width);
+            cluster.finishes.set(cluster.getLocal(finish % _width, finish / _width));
+        }
+
+        for(Cluster cluster : _clusters) {
+            findNodes(cluster);
+            findPaths(cluster);
+        }
+
+        BitSet dirty = new BitSet(_clusters.length);
+        dirty.set(0, _clusters.length);
+
+        searchAbstractGraph(dirty);
+
+    }
+
+    @Override
+    public ClusterField copy() {
+        return new ClusterField(this);
+    }
+
+    @Override
+    public void update(byte[] costs, BitSet changed) {
+
+        BitSet dirty = new BitSet(_clusters.length);
+
+        for(int sector = changed.nextSetBit(0); sector >= 0; sector = changed.nextSetBit(sector + 1)) {
+
+            int x = sector % _width;
+            int y = sector / _width;
+            int clusterIndex = getClusterIndex(x, y);
+            Cluster cluster = getWritableCluster(clusterIndex, dirty);
+
+            cluster.costs[cluster.getLocal(x, y)] = costs[sector];
+
+            //a sector on the rim can open or close a transition, which changes the neighbouring cluster's nodes too
+            if(x == cluster.left && x > 0) {
+                getWritableCluster(getClusterIndex(x - 1, y), dirty);
+            }
+            if(x == cluster.left + cluster.width - 1 && x < _width - 1) {
+                getWritableCluster(getClusterIndex(x + 1, y), dirty);
+            }
+            if(y == cluster.top && y > 0) {
+                getWritableCluster(getClusterIndex(x, y - 1), dirty);
+            }
+            if(y == cluster.top + cluster.height - 1 && y < _height - 1) {
+                getWritableCluster(getClusterIndex(x, y + 1), dirty);
+            }
+
+        }
+
+        if(dirty.isEmpty()) {
+            return;
+        }
+
+        for(int clusterIndex = dirty.nextSetBit(0); clusterIndex >= 0; clusterIndex = dirty.nextSetBit(clusterIndex + 1)) {
+            findNodes(_clusters[clusterIndex]);
+        }
+
+        for(int clusterIndex = dirty.nextSetBit(0); clusterIndex >= 0; clusterIndex = dirty.nextSetBit(clusterIndex + 1)) {
+            findPaths(_clusters[clusterIndex]);
+        }
+
+        searchAbstractGraph(dirty);
+
+    }
+
+    @Override
+    public int getNext(int x, int y) {
+
+        if(x < 0 || y < 0 || x >= _width || y >= _height) {
+            return -1;
+        }
+
+        int clusterIndex = getClusterIndex(x, y);
+        Cluster cluster = _clusters[clusterIndex];
+        int[] local = getLocalDistances(clusterIndex);
+
+        int bestCounter = local[cluster.getLocal(x, y)];
+
+        if(bestCounter == UNREACHABLE) {
+            return -1;
+        }
+
+        int best = y * _width + x;
+
+        for(int direction = 0; direction < DIRECTIONS; direction++) {
+
+            int adjacentX = x + getOffsetX(direction);
+            int adjacentY = y + getOffsetY(direction);
+
+            if(adjacentX < 0 || adjacentY < 0 || adjacentX >= _width || adjacentY >= _height) {
+                continue;
+            }
+
+            int counter;
+
+            if(cluster.contains(adjacentX, adjacentY)) {
+                counter = local[cluster.getLocal(adjacentX, adjacentY)];
+            } else {
+                //across the rim only the transition on the other side is known without working out its cluster
+                counter = getNodeDistance(getClusterIndex(adjacentX, adjacentY), adjacentX, adjacentY);
+            }
+
+            if(counter < bestCounter) {
+                bestCounter = counter;
+                best = adjacentY * _width + adjacentX;
+            }
+
+        }
+
+        return best;
+
+    }
+
+    @Override
+    public int getWidth() {
+        return _width;
+    }
+
+    @Override
+    public int getHeight() {
+        return _height;
+    }
+
+    private int getClusterIndex(int x, int y) {
+        return (y / CLUSTER_SIZE) * _clustersX + (x / CLUSTER_SIZE);
+    }
+
+    private Cluster getCluster(int x, int y) {
+        return _clusters[getClusterIndex(x, y)];
+    }
+
+    private Cluster getWritableCluster(int clusterIndex, BitSet dirty) {
+
+        if(dirty.get(clusterIndex) == false) {
+            //copy on first write, the previous version may still be shared with the published field
+            _clusters[clusterIndex] = _clusters[clusterIndex].copy();
+            dirty.set(clusterIndex);
+        }
+
+        return _clusters[clusterIndex];
+
+    }
+
+    private byte getCost(int x, int y) {
+        Cluster cluster = getCluster(x, y);
+        return cluster.costs[cluster.getLocal(x, y)];
+    }
+
+    private int getNodeDistance(int clusterIndex, int x, int y) {
+
+        Cluster cluster = _clusters[clusterIndex];
+        int slot = cluster.nodeSlots[cluster.getLocal(x, y)];
+
+        if(slot < 0) {
+            return UNREACHABLE;
+        }
+
+        return _nodeDistances[clusterIndex][slot];
+
+    }
+
+    private static int getOffsetX(int direction) {
+        return direction == 0 ? -1 : (direction == 1 ? 1 : 0);
+    }
+
+    private static int getOffsetY(int direction) {
+        return direction == 2 ? -1 : (direction == 3 ? 1 : 0);
+    }
+
+    /**
+     * Places the cluster's transitions along each of its borders and adds its finishes, making them the cluster's nodes.
+     */
+    private void findNodes(Cluster cluster) {
+
+        Arrays.fill(cluster.nodeSlots, -1);
+        cluster.nodeCount = 0;
+
+        int right = cluster.left + cluster.width - 1;
+        int bottom = cluster.top + cluster.height - 1;
+
+        if(cluster.left > 0) {
+            findTransitions(cluster, cluster.left, cluster.top, 0, 1, -1, 0, cluster.height);
+        }
+        if(right < _width - 1) {
+            findTransitions(cluster, right, cluster.top, 0, 1, 1, 0, cluster.height);
+        }
+        if(cluster.top > 0) {
+            findTransitions(cluster, cluster.left, cluster.top, 1, 0, 0, -1, cluster.width);
+        }
+        if(bottom < _height - 1) {
+            findTransitions(cluster, cluster.left, bottom, 1, 0, 0, 1, cluster.width);
+        }
+
+        for(int local = cluster.finishes.nextSetBit(0); local >= 0; local = cluster.finishes.nextSetBit(local + 1)) {
+            if(cluster.costs[local] != BLOCKED) {
+                cluster.addNode(local);
+            }
+        }
+
+    }
+
+    /**
+     * Walks one border of the cluster, finding each run of sectors that are open on both sides, and marks the
+     * middle of short runs or both ends of wide ones as nodes. Both clusters on a border walk it the same way,
+     * so their transitions always pair up.
+     */
+    private void findTransitions(Cluster cluster, int startX, int startY, int stepX, int stepY, int acrossX, int acrossY, int length) {
+
+        int runStart = -1;
+
+        for(int i = 0; i <= length; i++) {
+
+            boolean open = false;
+
+            if(i < length) {
+                int x = startX + i * stepX;
+                int y = startY + i * stepY;
+                open = getCost(x, y) != BLOCKED && getCost(x + acrossX, y + acrossY) != BLOCKED;
+            }
+
+            if(open && runStart < 0) {
+                runStart = i;
+            } else if(open == false && runStart >= 0) {
+
+                int runEnd = i - 1;
+
+                if(runEnd - runStart + 1 >= WIDE_ENTRANCE) {
+                    cluster.addNode(cluster.getLocal(startX + runStart * stepX, startY + runStart * stepY));
+                    cluster.addNode(cluster.getLocal(startX + runEnd * stepX, startY + runEnd * stepY));
+                } else {
+                    int middle = (runStart + runEnd) / 2;
+                    cluster.addNode(cluster.getLocal(startX + middle * stepX, startY + middle * stepY));
+                }
+
+                runStart = -1;
+
+            }
+
+        }
+
+    }
+
+    /**
+     * Works out the cost of travelling inside the cluster from each of its nodes to each other node.
+     */
+    private void findPaths(Cluster cluster) {
+
+        int count = cluster.nodeCount;
+        cluster.paths = new int[count * count];
+
+        for(int to = 0; to < count; to++) {
+
+            _queue.clear();
+            growLocal(cluster, _scratchDistances, _queue, to, null);
+
+            for(int from = 0; from < count; from++) {
+                cluster.paths[from * count + to] = _scratchDistances[cluster.nodeCells[from]];
+            }
+
+        }
+
+    }
+
+    /**
+     * Brings every node's distance to the nearest finish up to date after the dirty clusters have had their nodes
+     * and paths worked out again. The dirty clusters' nodes start from nothing, as does every node elsewhere whose
+     * cheapest route ran through them, and a reverse Dijkstra from the finishes and the nodes that kept their
+     * distance fills them back in. Building the field is the same search with every cluster dirty.
+     */
+    private void searchAbstractGraph(BitSet dirty) {
+
+        if(_search == null) {
+            _search = new Search(_clusters.length);
+        }
+
+        Search search = _search;
+
+        //first pass: the dirty clusters' nodes, then every node only supported through one of them
+        for(int clusterIndex = dirty.nextSetBit(0); clusterIndex >= 0; clusterIndex = dirty.nextSetBit(clusterIndex + 1)) {
+
+            Cluster cluster = _clusters[clusterIndex];
+
+            search.save(clusterIndex, _nodeDistances[clusterIndex], _localDistances[clusterIndex]);
+            _nodeDistances[clusterIndex] = new int[cluster.nodeCount];
+            _localDistances[clusterIndex] = null;
+
+            for(int slot = 0; slot < cluster.nodeCount; slot++) {
+                search.orphan(clusterIndex * NODE_STRIDE + slot);
+            }
+
+        }
+
+        for(int clusterIndex = dirty.nextSetBit(0); clusterIndex >= 0; clusterIndex = dirty.nextSetBit(clusterIndex + 1)) {
+            findRimCandidates(_clusters[clusterIndex], dirty);
+        }
+
+        for(int checked = 0; checked < search.orphanCount; checked++) {
+
+            int orphan = search.orphans[checked];
+            int clusterIndex = orphan / NODE_STRIDE;
+
+            if(dirty.get(clusterIndex) == false) {
+                findPredecessorCandidates(orphan, dirty);
+            }
+
+        }
+
+        //second pass: give each orphan the best distance offered by the nodes that kept theirs, then relax
+        for(int i = 0; i < search.orphanCount; i++) {
+            int orphan = search.orphans[i];
+            getWritableDistances(orphan / NODE_STRIDE)[orphan % NODE_STRIDE] = UNREACHABLE;
+        }
+
+        _queue.clear();
+
+        for(int i = 0; i < search.orphanCount; i++) {
+
+            int orphan = search.orphans[i];
+            int best = getBestSuccessorDistance(orphan);
+
+            if(best != UNREACHABLE) {
+                getWritableDistances(orphan / NODE_STRIDE)[orphan % NODE_STRIDE] = best;
+                _queue.push(orphan, best);
+            }
+
+        }
+
+        while(_queue.isEmpty() == false) {
+
+            int node = _queue.pop();
+            int distance = _queue.getLastKey();
+            int clusterIndex = node / NODE_STRIDE;
+            int slot = node % NODE_STRIDE;
+
+            if(distance != _nodeDistances[clusterIndex][slot]) {
+                continue;
+            }
+
+            Cluster cluster = _clusters[clusterIndex];
+            int count = cluster.nodeCount;
+
+            //edges inside the cluster
+            for(int from = 0; from < count; from++) {
+                int path = cluster.paths[from * count + slot];
+                if(from != slot && path != UNREACHABLE) {
+                    relaxNode(clusterIndex, from, distance + path);
+                }
+            }
+
+            //edges across the rim to the paired transition
+            int local = cluster.nodeCells[slot];
+            int x = cluster.left + local % cluster.width;
+            int y = cluster.top + local / cluster.width;
+
+            for(int direction = 0; direction < DIRECTIONS; direction++) {
+
+                int adjacentX = x + getOffsetX(direction);
+                int adjacentY = y + getOffsetY(direction);
+
+                if(adjacentX < 0 || adjacentY < 0 || adjacentX >= _width || adjacentY >= _height || cluster.contains(adjacentX, adjacentY)) {
+                    continue;
+                }
+
+                int adjacentIndex = getClusterIndex(adjacentX, adjacentY);
+                Cluster adjacent = _clusters[adjacentIndex];
+                int adjacentLocal = adjacent.getLocal(adjacentX, adjacentY);
+                int adjacentSlot = adjacent.nodeSlots[adjacentLocal];
+
+                if(adjacentSlot >= 0 && adjacent.costs[adjacentLocal] != BLOCKED) {
+                    relaxNode(adjacentIndex, adjacentSlot, distance + adjacent.costs[adjacentLocal]);
+                }
+
+            }
+
+        }
+
+        //clean clusters that were orphaned but came back to the same distances keep what they had
+        for(int i = 0; i < search.savedCount; i++) {
+
+            int clusterIndex = search.savedClusters[i];
+
+            if(dirty.get(clusterIndex) == false && Arrays.equals(search.savedDistances[i], _nodeDistances[clusterIndex])) {
+                _nodeDistances[clusterIndex] = search.savedDistances[i];
+                _localDistances[clusterIndex] = search.savedLocals[i];
+            }
+
+        }
+
+        search.clear();
+
+    }
+
+    /**
+     * Queues the clean nodes just across the rim of a dirty cluster, whose routes may have run through it.
+     */
+    private void findRimCandidates(Cluster cluster, BitSet dirty) {
+
+        for(int local = 0; local < cluster.width * cluster.height; local++) {
+
+            int x = cluster.left + local % cluster.width;
+            int y = cluster.top + local / cluster.width;
+
+            if(x != cluster.left && y != cluster.top && x != cluster.left + cluster.width - 1 && y != cluster.top + cluster.height - 1) {
+                continue;
+            }
+
+            for(int direction = 0; direction < DIRECTIONS; direction++) {
+
+                int adjacentX = x + getOffsetX(direction);
+                int adjacentY = y + getOffsetY(direction);
+
+                if(adjacentX < 0 || adjacentY < 0 || adjacentX >= _width || adjacentY >= _height || cluster.contains(adjacentX, adjacentY)) {
+                    continue;
+                }
+
+                int adjacentIndex = getClusterIndex(adjacentX, adjacentY);
+
+                if(dirty.get(adjacentIndex) == false) {
+                    Cluster adjacent = _clusters[adjacentIndex];
+                    int adjacentSlot = adjacent.nodeSlots[adjacent.getLocal(adjacentX, adjacentY)];
+                    if(adjacentSlot >= 0) {
+                        checkCandidate(adjacentIndex * NODE_STRIDE + adjacentSlot, dirty);
+                    }
+                }
+
+            }
+
+        }
+
+    }
+
+    /**
+     * Queues the clean nodes whose cheapest route ran through a node that has just been orphaned.
+     */
+    private void findPredecessorCandidates(int orphan, BitSet dirty) {
+
+        int clusterIndex = orphan / NODE_STRIDE;
+        int slot = orphan % NODE_STRIDE;
+        Cluster cluster = _clusters[clusterIndex];
+        int count = cluster.nodeCount;
+        int distance = _nodeDistances[clusterIndex][slot];
+
+        for(int from = 0; from < count; from++) {
+            int path = cluster.paths[from * count + slot];
+            if(from != slot && path != UNREACHABLE && _nodeDistances[clusterIndex][from] == distance + path) {
+                checkCandidate(clusterIndex * NODE_STRIDE + from, dirty);
+            }
+        }
+
+        int local = cluster.nodeCells[slot];
+        int x = cluster.left + local % cluster.width;
+        int y = cluster.top + local / cluster.width;
+
+        for(int direction = 0; direction < DIRECTIONS; direction++) {
+
+            int adjacentX = x + getOffsetX(direction);
+            int adjacentY = y + getOffsetY(direction);
+
+            if(adjacentX < 0 || adjacentY < 0 || adjacentX >= _width || adjacentY >= _height || cluster.contains(adjacentX, adjacentY)) {
+                continue;
+            }
+
+            int adjacentIndex = getClusterIndex(adjacentX, adjacentY);
+
+            if(dirty.get(adjacentIndex)) {
+                continue;
+            }
+
+            Cluster adjacent = _clusters[adjacentIndex];
+            int adjacentLocal = adjacent.getLocal(adjacentX, adjacentY);
+            int adjacentSlot = adjacent.nodeSlots[adjacentLocal];
+
+            if(adjacentSlot >= 0 && _nodeDistances[adjacentIndex][adjacentSlot] == distance + adjacent.costs[adjacentLocal]) {
+                checkCandidate(adjacentIndex * NODE_STRIDE + adjacentSlot, dirty);
+            }
+
+        }
+
+    }
+
+    /**
+     * Orphans a clean node unless it is a finish, already lost, or still has a cheapest route through a node
+     * that is neither dirty nor orphaned.
+     */
+    private void checkCandidate(int node, BitSet dirty) {
+
+        int clusterIndex = node / NODE_STRIDE;
+        int slot = node % NODE_STRIDE;
+        int distance = _nodeDistances[clusterIndex][slot];
+
+        if(_search.orphaned.get(node) || distance == 0 || distance == UNREACHABLE) {
+            return;
+        }
+
+        Cluster cluster = _clusters[clusterIndex];
+        int count = cluster.nodeCount;
+
+        for(int to = 0; to < count; to++) {
+            int path = cluster.paths[slot * count + to];
+            if(to != slot && path != UNREACHABLE && _search.orphaned.get(clusterIndex * NODE_STRIDE + to) == false
+                    && distance - path == _nodeDistances[clusterIndex][to]) {
+                return;
+            }
+        }
+
+        int local = cluster.nodeCells[slot];
+        int x = cluster.left + local % cluster.width;
+        int y = cluster.top + local / cluster.width;
+
+        for(int direction = 0; direction < DIRECTIONS; direction++) {
+
+            int adjacentX = x + getOffsetX(direction);
+            int adjacentY = y + getOffsetY(direction);
+
+            if(adjacentX < 0 || adjacentY < 0 || adjacentX >= _width || adjacentY >= _height || cluster.contains(adjacentX, adjacentY)) {
+                continue;
+            }
+
+            int adjacentIndex = getClusterIndex(adjacentX, adjacentY);
+
+            if(dirty.get(adjacentIndex)) {
+                continue;
+            }
+
+            Cluster adjacent = _clusters[adjacentIndex];
+            int adjacentSlot = adjacent.nodeSlots[adjacent.getLocal(adjacentX, adjacentY)];
+
+            if(adjacentSlot >= 0 && _search.orphaned.get(adjacentIndex * NODE_STRIDE + adjacentSlot) == false
+                    && distance - cluster.costs[local] == _nodeDistances[adjacentIndex][adjacentSlot]) {
+                return;
+            }
+
+        }
+
+        _search.orphan(node);
+
+    }
+
+    /**
+     * @return The cheapest distance to a finish offered to a node by its neighbours in the abstract graph, or zero for a finish.
+     */
+    private int getBestSuccessorDistance(int node) {
+
+        int clusterIndex = node / NODE_STRIDE;
+        int slot = node % NODE_STRIDE;
+        Cluster cluster = _clusters[clusterIndex];
+        int local = cluster.nodeCells[slot];
+
+        if(cluster.finishes.get(local)) {
+            return 0;
+        }
+
+        int count = cluster.nodeCount;
+        int best = UNREACHABLE;
+
+        for(int to = 0; to < count; to++) {
+            int path = cluster.paths[slot * count + to];
+            int distance = _nodeDistances[clusterIndex][to];
+            if(to != slot && path != UNREACHABLE && distance != UNREACHABLE && distance + path < best) {
+                best = distance + path;
+            }
+        }
+
+        int x = cluster.left + local % cluster.width;
+        int y = cluster.top + local / cluster.width;
+
+        for(int direction = 0; direction < DIRECTIONS; direction++) {
+
+            int adjacentX = x + getOffsetX(direction);
+            int adjacentY = y + getOffsetY(direction);
+
+            if(adjacentX < 0 || adjacentY < 0 || adjacentX >= _width || adjacentY >= _height || cluster.contains(adjacentX, adjacentY)) {
+                continue;
+            }
+
+            int adjacentIndex = getClusterIndex(adjacentX, adjacentY);
+            Cluster adjacent = _clusters[adjacentIndex];
+            int adjacentSlot = adjacent.nodeSlots[adjacent.getLocal(adjacentX, adjacentY)];
+
+            if(adjacentSlot >= 0) {
+                int distance = _nodeDistances[adjacentIndex][adjacentSlot];
+                if(distance != UNREACHABLE && distance + cluster.costs[local] < best) {
+                    best = distance + cluster.costs[local];
+                }
+            }
+
+        }
+
+        return best;
+
+    }
+
+    private void relaxNode(int clusterIndex, int slot, int distance) {
+
+        if(distance < _nodeDistances[clusterIndex][slot]) {
+            getWritableDistances(clusterIndex)[slot] = distance;
+            _queue.push(clusterIndex * NODE_STRIDE + slot, distance);
+        }
+
+    }
+
+    /**
+     * @return The cluster's node distances, copied on the first write of a search since the previous version may
+     * still be shared with the published field. The cluster's local field is dropped along with them.
+     */
+    private int[] getWritableDistances(int clusterIndex) {
+
+        if(_search.saved.get(clusterIndex) == false) {
+            _search.save(clusterIndex, _nodeDistances[clusterIndex], _localDistances[clusterIndex]);
+            _nodeDistances[clusterIndex] = _nodeDistances[clusterIndex].clone();
+            _localDistances[clusterIndex] = null;
+        }
+
+        return _nodeDistances[clusterIndex];
+
+    }
+
+    /**
+     * @return The sector level field for a cluster, seeded from its nodes' abstract distances. Worked out the
+     * first time any unit in the cluster asks, then kept for as long as this version of the field is published.
+     */
+    private int[] getLocalDistances(int clusterIndex) {
+
+        if(_localDistances[clusterIndex] != null) {
+            return _localDistances[clusterIndex];
+        }
+
+        Cluster cluster = _clusters[clusterIndex];
+        int[] distances = new int[cluster.width * cluster.height];
+
+        if(_lookupQueue == null) {
+            _lookupQueue = new BucketQueue(MAX_COST);
+        }
+
+        _lookupQueue.clear();
+        growLocal(cluster, distances, _lookupQueue, -1, _nodeDistances[clusterIndex]);
+
+        _localDistances[clusterIndex] = distances;
+
+        return distances;
+
+    }
+
+    /**
+     * Runs Dial's algorithm inside a single cluster. Seeds either one node at distance zero, or every node at its
+     * abstract distance when seeds are given.
+     */
+    private void growLocal(Cluster cluster, int[] distances, BucketQueue queue, int seed, int[] seeds) {
+
+        int size = cluster.width * cluster.height;
+
+        Arrays.fill(distances, 0, size, UNREACHABLE);
+
+        for(int slot = 0; slot < cluster.nodeCount; slot++) {
+
+            int seedDistance;
+
+            if(seeds != null) {
+                seedDistance = seeds[slot];
+            } else {
+                seedDistance = (slot == seed) ? 0 : UNREACHABLE;
+            }
+
+            if(seedDistance != UNREACHABLE) {
+                distances[cluster.nodeCells[slot]] = seedDistance;
+                queue.push(cluster.nodeCells[slot], seedDistance);
+            }
+
+        }
+
+        while(queue.isEmpty() == false) {
+
+            int local = queue.pop();
+            int distance = queue.getLastKey();
+
+            if(distance != distances[local]) {
+                continue;
+            }
+
+            int x = local % cluster.width;
+            int y = local / cluster.width;
+
+            for(int direction = 0; direction < DIRECTIONS; direction++) {
+
+                int adjacentX = x + getOffsetX(direction);
+                int adjacentY = y + getOffsetY(direction);
+
+                if(adjacentX < 0 || adjacentY < 0 || adjacentX >= cluster.width || adjacentY >= cluster.height) {
+                    continue;
+                }
+
+                int adjacent = adjacentY * cluster.width + adjacentX;
+
+                if(cluster.costs[adjacent] != BLOCKED) {
+                    int counter = distance + cluster.costs[adjacent];
+                    if(counter < distances[adjacent]) {
+                        distances[adjacent] = counter;
+                        queue.push(adjacent, counter);
+                    }
+                }
+
+            }
+
+        }
+
+    }
+
+    /**
+     * Scratch space for repairing the abstract distances, kept between repairs: the nodes orphaned so far, and
+     * the distances and local fields each cluster had before the repair first wrote to it.
+     */
+    private static class Search {
+
+        private BitSet orphaned;
+        private int[] orphans;
+        private int orphanCount;
+        private BitSet saved;
+        private int[] savedClusters;
+        private int[][] savedDistances;
+        private int[][] savedLocals;
+        private int savedCount;
+
+        public Search(int clusterCount) {
+            this.orphaned = new BitSet(clusterCount * NODE_STRIDE);
+            this.orphans = new int[64];
+            this.orphanCount = 0;
+            this.saved = new BitSet(clusterCount);
+            this.savedClusters = new int[16];
+            this.savedDistances = new int[16][];
+            this.savedLocals = new int[16][];
+            this.savedCount = 0;
+        }
+
+        public void orphan(int node) {
+
+            if(orphanCount == orphans.length) {
+                orphans = Arrays.copyOf(orphans, orphanCount * 2);
+            }
+
+            orphaned.set(node);
+            orphans[orphanCount++] = node;
+
+        }
+
+        public void save(int clusterIndex, int[] distances, int[] locals) {
+
+            if(savedCount == savedClusters.length) {
+                savedClusters = Arrays.copyOf(savedClusters, savedCount * 2);
+                savedDistances = Arrays.copyOf(savedDistances, savedCount * 2);
+                savedLocals = Arrays.copyOf(savedLocals, savedCount * 2);
+            }
+
+            saved.set(clusterIndex);
+            savedClusters[savedCount] = clusterIndex;
+            savedDistances[savedCount] = distances;
+            savedLocals[savedCount] = locals;
+            savedCount++;
+
+        }
+
+        public void clear() {
+
+            for(int i = 0; i < orphanCount; i++) {
+                orphaned.clear(orphans[i]);
+            }
+
+            for(int i = 0; i < savedCount; i++) {
+                saved.clear(savedClusters[i]);
+                savedDistances[i] = null;
+                savedLocals[i] = null;
+            }
+
+            orphanCount = 0;
+            savedCount = 0;
+
+        }
+
+    }
+
+    /**
+     * One square of the map, with its own copy of the movement costs, its nodes and the costs between them.
+     */
+    private static class Cluster {
+
+        private int left;
+        private int top;
+        private int width;
+        private int height;
+        private byte[] costs;
+        private BitSet finishes;
+        private int[] nodeSlots;
+        private int[] nodeCells;
+        private int nodeCount;
+        private int[] paths;
+
+        public Cluster(int left, int top, int width, int height) {
+            this.left = left;
+            this.top = top;
+            this.width = width;
+            this.height = height;
+            this.costs = new byte[width * height];
+            this.finishes = new BitSet(width * height);
+            this.nodeSlots = new int[width * height];
+            this.nodeCells = new int[DIRECTIONS * 2];
+            this.nodeCount = 0;
+            this.paths = new int[0];
+        }
+
+        public Cluster copy() {
+            Cluster copy = new Cluster(left, top, width, height);
+            copy.costs = costs.clone();
+            copy.finishes = finishes;
+            copy.nodeSlots = nodeSlots.clone();
+            copy.nodeCells = nodeCells.clone();
+            copy.nodeCount = nodeCount;
+            copy.paths = paths;
+            return copy;
+        }
+
+        public boolean contains(int x, int y) {
+            return x >= left && y >= top && x < left + width && y < top + height;
+        }
+
+        public int getLocal(int x, int y) {
+            return (y - top) * width + (x - left);
+        }
+
+        public void addNode(int local) {
+
+            if(nodeSlots[local] >= 0) {
+                return;
+            }
+
+            if(nodeCount == nodeCells.length) {
+                nodeCells = Arrays.copyOf(nodeCells, nodeCount * 2);
+            }
+
+            nodeSlots[local] = nodeCount;
+            nodeCells[nodeCount++] = local;
+
+        }
+
+    }
+
+}
@@ -0,0 +1,123 @@
+package com.bytegames.prevent;
+
+import org.apache.log4j.Logger;
+
+/**
+ * One thing a player does to the board. Input only ever creates commands and hands them to the engine, which
+ * applies them at the start of its next tick, so every change the player makes lands on a tick boundary and
+ * a session can be recorded and played back exactly.
+ *
+ * A command checks the board again when it is applied, and does nothing if the sector no longer allows it.
+ *
+ * @author byte
+ *
+ */
+public class Command {
+
+    private static Logger LOG = Logger.getLogger(Command.class);
+
+    private CommandType _type;
+    private int _x;
+    private int _y;
+    private TowerType _towerType;
+
+    /**
+     * Instantiates a command.
+     *
+     * @param type What to do.
+     * @param x Sector horizontal coordinate.
+     * @param y Sector vertical coordinate.
+     * @param towerType The tower to place or upgrade to, or null when selling.
+     */
+    public Command(CommandType type, int x, int y, TowerType towerType) {
+        _type = type;
+        _x = x;
+        _y = y;
+        _towerType = towerType;
+    }
+
+    /**
+     * @return What to do.
+     */
+    public CommandType getType() {
+        return _type;
+    }
+
+    /**
+     * @return Sector horizontal coordinate.
+     */
+    public int getX() {
+        return _x;
+    }
+
+    /**
+     * @return Sector vertical coordinate.
+     */
+    public int getY() {
+        return _y;
+    }
+
+    /**
+     * @return The tower to place or upgrade to, or null when selling.
+     */
+    public TowerType getTowerType() {
+        return _towerType;
+    }
+
+    /**
+     * Carries out the command, if the board still allows it.
+     *
+     * @param engine The engine to change.
+     * @return Whether the command was carried out.
+     */
+    public boolean apply(Engine engine) {
+
+        Data data = engine.getData();
+        Board board = data.getBoard();
+        GamePiece piece = board.getPiece(_x, _y);
+
+        switch(_type) {
+            case PLACE:
+                //only open land; entries and exits seed the paths and must stay as they are
+                if(board.isTerrain(_x, _y, TerrainType.LAND) == false || engine.getAI().isChokepoint(_x, _y)) {
+                    return false;
+                }
+                board.setTower(_x, _y, _towerType);
+                data.setScore(data.getScore() - ((Tower)board.getPiece(_x, _y)).getCost());
+                break;
+            case UPGRADE:
+                if(piece instanceof Tower == false || ((Tower)piece).getUpgradeTowerTypes().contains(_towerType) == false) {
+                    return false;
+                }
+                board.setTower(_x, _y, _towerType);
+                data.setScore(data.getScore() - ((Tower)board.getPiece(_x, _y)).getCost());
+                break;
+            case SELL:
+                if(piece instanceof Tower == false) {
+                    return false;
+                }
+                data.setScore(data.getScore() + getSellPrice((Tower)piece));
+                board.setTerrain(_x, _y, TerrainType.LAND);
+                break;
+            default:
+                LOG.error("Unable to apply unknown command.");
+                return false;
+        }
+
+        LOG.debug("Applied " + _type + " at " + _x + ", " + _y + ".");
+
+        engine.getAI().sectorChanged(new Sector(_x, _y));
+
+        return true;
+
+    }
+
+    /**
+     * @param tower A tower on the board.
+     * @return What selling the tower refunds.
+     */
+    public static int getSellPrice(Tower tower) {
+        return (tower.getCost() / 2) == 0 ? 1 : (tower.getCost() / 2);
+    }
+
+}
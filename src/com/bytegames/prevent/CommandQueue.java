@@ -0,0 +1,83 @@
+package com.bytegames.prevent;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The hand-over between the threads player input arrives on and the one thread that ticks the engine. Any
+ * number of threads may add commands at once without locking: each add pushes onto a linked stack with a
+ * single compare-and-set. The ticking thread takes everything added so far with one atomic swap and puts it
+ * back into the order it arrived in, so a tick applies a fixed batch and anything added while it is being
+ * applied waits for the next tick.
+ *
+ * @author byte
+ *
+ */
+public class CommandQueue {
+
+    private AtomicReference<Node> _head;
+
+    /**
+     * Instantiates an empty queue.
+     */
+    public CommandQueue() {
+        _head = new AtomicReference<Node>();
+    }
+
+    /**
+     * Adds a command. Safe to call from any thread.
+     *
+     * @param command The command.
+     */
+    public void add(Command command) {
+
+        Node node = new Node(command);
+
+        do {
+            node.next = _head.get();
+        } while(_head.compareAndSet(node.next, node) == false);
+
+    }
+
+    /**
+     * Takes every command added so far. Only one thread may drain the queue.
+     *
+     * @param commands The list to add the commands to, in the order they were added to the queue.
+     * @return The number of commands taken.
+     */
+    public int drainTo(List<Command> commands) {
+
+        Node node = _head.getAndSet(null);
+
+        //the stack holds the newest first; turn it round in place
+        Node reversed = null;
+        int count = 0;
+
+        while(node != null) {
+            Node next = node.next;
+            node.next = reversed;
+            reversed = node;
+            node = next;
+            count++;
+        }
+
+        for(; reversed != null; reversed = reversed.next) {
+            commands.add(reversed.command);
+        }
+
+        return count;
+
+    }
+
+    private static class Node {
+
+        private final Command command;
+        private Node next;
+
+        public Node(Command command) {
+            this.command = command;
+        }
+
+    }
+
+}
@@ -0,0 +1,22 @@
+package com.bytegames.prevent;
+
+/**
+ * @author byte
+ * 
+ * Represents the different things a player can do to the board.
+ */
+public enum CommandType {
+
+    /**
+     * Place a tower on open ground.
+     */
+    PLACE,
+    /**
+     * Upgrade a tower to a better one.
+     */
+    UPGRADE,
+    /**
+     * Sell a tower for part of its cost.
+     */
+    SELL
+}
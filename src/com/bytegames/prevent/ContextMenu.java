@@ -33,23 +33,26 @@ public class ContextMenu extends Menu {
         clearEntries();
         
         _context = sector;
-        GamePiece piece = getGame().getData().getGamePieces().get(sector);
+        GamePiece piece = getGame().getData().getBoard().getPiece(sector.x, sector.y);
         
         int menuIdx = 0;
         
-        if(piece instanceof Terrain && piece.isTraversable()) {
+        boolean land = getGame().getData().getBoard().isTerrain(sector.x, sector.y, TerrainType.LAND);
+        
+        if(land && getGame().getAI().wasChokepoint(sector.x, sector.y)) {
+
+            LOG.debug("Detected a chokepoint at the mouse press for context menu. Placement would block the path.");
+
+        } else if(land) {
 
             LOG.debug("Detected a terrain at the mouse press for context menu.");
             
             //add menu option for light tower placement
             addMenuEntry(menuIdx++, "Light Tower", new MenuFunction() {
                 public void run(Game game) {
-                    Tower tower = TowerFactory.getTower(TowerType.SMALLTURRET);
-                    game.getData().getGamePieces().put(_context, tower);
-                    game.getData().setScore(game.getData().getScore() - tower.getCost());
-                    LOG.debug("Added light tower via context menu press.");
+                    game.submit(new Command(CommandType.PLACE, _context.x, _context.y, TowerType.SMALLTURRET));
+                    LOG.debug("Requested light tower via context menu press.");
                     game.getContextMenu().setVisible(false);
-                    game.getAI().invalidateCache();
                 }
             });
 
@@ -67,33 +70,28 @@ public class ContextMenu extends Menu {
             
             final Tower contextTower = (Tower)piece;
             
-            for(TowerType type : contextTower.getUpgradeTowerTypes()) {
+            for(final TowerType type : contextTower.getUpgradeTowerTypes()) {
                 
                 final Tower tower = TowerFactory.getTower(type);
                 
                 addMenuEntry(menuIdx++, tower.getName(), new MenuFunction() {
                     public void run(Game game) {
-                        game.getData().getGamePieces().put(_context, tower);
-                        game.getData().setScore(game.getData().getScore() - tower.getCost());
-                        LOG.debug("Added " + tower.getName() + " via context menu press.");
+                        game.submit(new Command(CommandType.UPGRADE, _context.x, _context.y, type));
+                        LOG.debug("Requested " + tower.getName() + " via context menu press.");
                         game.getContextMenu().setVisible(false);
-                        game.getAI().invalidateCache();
                     }
                 });
                 
             }
             
-            final int sellPrice = (contextTower.getCost() / 2) == 0 ? 1 :(contextTower.getCost() / 2);
+            final int sellPrice = Command.getSellPrice(contextTower);
             
             //add menu option for sell
             addMenuEntry(menuIdx++, "Sell for " + sellPrice, new MenuFunction() {
                 public void run(Game game) {
-                    Terrain terrain = TerrainFactory.getTerrain(TerrainType.LAND);
-                    game.getData().setScore(game.getData().getScore() + sellPrice);
-                    LOG.debug("Sold " + contextTower.getName() + " via context menu press.");
-                    game.getData().getGamePieces().put(_context, terrain);
+                    game.submit(new Command(CommandType.SELL, _context.x, _context.y, null));
+                    LOG.debug("Requested sale of " + contextTower.getName() + " via context menu press.");
                     game.getContextMenu().setVisible(false);
-                    game.getAI().invalidateCache();
                 }
             });
             
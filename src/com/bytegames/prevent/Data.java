@@ -1,11 +1,14 @@
 package com.bytegames.prevent;
 
 import java.awt.Graphics;
-import java.awt.Point;
+import java.awt.Rectangle;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.net.URL;
 import java.util.*;
+
+import org.apache.commons.configuration.Configuration;
 import org.apache.log4j.Logger;
 
 /**
@@ -17,69 +20,376 @@ import org.apache.log4j.Logger;
 public class Data {
     
     private static final long DISPENSE_DELAY = 1000;
+    private static final int WAVE_DELAY_MULTIPLIER = 4;
+    private static final int WAVE_START = -1;
     private static final int MAX_LIVES = 20;
+    private static final byte MAP_WAVES = 0;
+    private static final byte ENDLESS_WAVES = 1;
     
     private static Logger LOG = Logger.getLogger(Data.class);
 
     private int _score;
     private int _lives;
     private String _mapFile;
-    private Map<Sector, GamePiece> _gamePieces;
-    private Sector _start;
-    private Sector _finish;
+    private Configuration _config;
+    private Board _board;
+    private List<Sector> _starts;
+    private List<Sector> _finishes;
+    private BitSet _finishIndexes;
 
     private int _waveNumber;
-    private Map<Integer, Stack<Unit>> _waves;
-    private LinkedList<Unit> _dispensedUnits;
-    private long _lastDispensedTime;
+    private WaveSource _waveSource;
+    private Wave _wave;
+    private Unit[] _unitTemplates;
+    private UnitStore _units;
+    private ProjectileStore _projectiles;
+    private EffectStore _effects;
+    private int _dispenseDelayTicks;
+    
+    //units and shots sorted by where they are, for drawing only the ones on screen; sorted once per tick drawn
+    private SpatialGrid _unitDrawGrid;
+    private SpatialGrid _shotDrawGrid;
+    private long _drawGridTick;
+    
+    //spawn streams for the current wave, one per run of the wave at each entry
+    private TimingWheel _spawns;
+    private TimingWheel.Listener _spawnListener;
+    private int _streamCount;
+    private int _activeStreams;
+    private int[] _streamRun;
+    private int[] _streamStart;
+    private int[] _streamRemaining;
+    private long[] _streamNextTicks;
+    private boolean _waveStarting;
+    private long _waveStartTick;
 
     /**
      * Instantiates a new data store.
      * 
      * @param mapFile The map file to load.
+     * @param config The configuration pieces and units are created from.
      */
-    public Data(String mapFile) {
+    public Data(String mapFile, Configuration config) {
 
         _score = 0;
         _lives = MAX_LIVES;
         _mapFile = mapFile;
-        _gamePieces = new HashMap<Sector, GamePiece>();
-        _waves = new HashMap<Integer, Stack<Unit>>();
-        _dispensedUnits = new LinkedList<Unit>();
-        _lastDispensedTime = System.currentTimeMillis();
+        _config = config;
+        _board = null;
+        _starts = new ArrayList<Sector>();
+        _finishes = new ArrayList<Sector>();
+        _finishIndexes = null;
+        _waveSource = null;
+        _wave = null;
+        _unitTemplates = new Unit[UnitType.values().length];
+        _units = new UnitStore();
+        _projectiles = new ProjectileStore();
+        _effects = new EffectStore();
+        _dispenseDelayTicks = Math.max(1, (int)(DISPENSE_DELAY * Engine.getTickRate(config) / 1000));
+        _unitDrawGrid = null;
+        _shotDrawGrid = null;
+        _drawGridTick = -1;
         _waveNumber = 0;
+        
+        _spawns = new TimingWheel();
+        _spawnListener = new TimingWheel.Listener() {
+            public void fire(int event, long tick) {
+                if(event == WAVE_START) {
+                    startWave(tick);
+                } else {
+                    releaseStream(event, tick);
+                }
+            }
+        };
+        _streamCount = 0;
+        _activeStreams = 0;
+        _streamRun = new int[0];
+        _streamStart = new int[0];
+        _streamRemaining = new int[0];
+        _streamNextTicks = new long[0];
+        _waveStarting = false;
+        _waveStartTick = 0;
 
     }
     
     /**
-     * Identify if at this pass any units need to be sent out for play, and do so.
+     * @return A copy of the game as it stands at the end of a tick, for saving. The board's sectors are shared
+     * until either copy changes one, and everything else is copied outright, so the copy may be written out
+     * on another thread while play goes on.
+     */
+    public Data copy() {
+        
+        Data copy = new Data(_mapFile, _config);
+        
+        copy._score = _score;
+        copy._lives = _lives;
+        copy._board = _board.copy();
+        copy._starts.addAll(_starts);
+        copy._finishes.addAll(_finishes);
+        copy._waveNumber = _waveNumber;
+        copy._waveSource = _waveSource;
+        copy._wave = _wave;
+        copy._unitTemplates = _unitTemplates.clone();
+        copy._units = _units.copy();
+        copy._projectiles = _projectiles.copy();
+        copy._effects = _effects.copy();
+        
+        copy._streamCount = _streamCount;
+        copy._activeStreams = _activeStreams;
+        copy._streamRun = _streamRun.clone();
+        copy._streamStart = _streamStart.clone();
+        copy._streamRemaining = _streamRemaining.clone();
+        copy._streamNextTicks = _streamNextTicks.clone();
+        copy._waveStarting = _waveStarting;
+        copy._waveStartTick = _waveStartTick;
+        copy._spawns = new TimingWheel(_spawns.getTick());
+        copy.scheduleSpawns();
+        
+        return copy;
+        
+    }
+    
+    /**
+     * Writes the whole game: the score and lives, where the waves come from and how far through them play
+     * is, when each spawn stream next lets out units, then the board, units, shots and effects.
+     * 
+     * @param out Where to write.
+     * @throws IOException Exception thrown when the snapshot cannot be written.
+     */
+    public void write(SnapshotWriter out) throws IOException {
+        
+        out.writeInt(_score);
+        out.writeInt(_lives);
+        out.writeInt(_waveNumber);
+        
+        if(_waveSource instanceof MapWaves) {
+            out.writeByte(MAP_WAVES);
+            out.writeString(((MapWaves)_waveSource).getWavesStringLine());
+        } else if(_waveSource instanceof EndlessWaves) {
+            out.writeByte(ENDLESS_WAVES);
+            out.writeLong(((EndlessWaves)_waveSource).getSeed());
+        } else {
+            throw new IllegalStateException("Only a map's own waves or endless waves can be saved.");
+        }
+        
+        out.writeLong(_spawns.getTick());
+        out.writeBoolean(_waveStarting);
+        out.writeLong(_waveStartTick);
+        out.writeInt(_streamCount);
+        out.writeInts(_streamRun, _streamCount);
+        out.writeInts(_streamStart, _streamCount);
+        out.writeInts(_streamRemaining, _streamCount);
+        out.writeLongs(_streamNextTicks, _streamCount);
+        
+        _board.write(out);
+        _units.write(out);
+        _projectiles.write(out);
+        _effects.write(out, _units);
+        
+    }
+    
+    /**
+     * Reads back a game written by {@link #write(SnapshotWriter)}, ready to carry on from the tick it was saved on.
+     * 
+     * @param in Where to read from.
+     * @param mapFile The name of the map the game was played on.
+     * @param config The configuration pieces and units are created from.
+     * @return The game.
+     * @throws IOException Exception thrown when the snapshot cannot be read or is corrupt.
+     */
+    public static Data read(SnapshotReader in, String mapFile, Configuration config) throws IOException {
+        
+        Data data = new Data(mapFile, config);
+        
+        data._score = in.readInt();
+        data._lives = in.readInt();
+        data._waveNumber = in.readCount();
+        
+        byte waveSource = in.readByte();
+        
+        if(waveSource == MAP_WAVES) {
+            data._waveSource = new MapWaves(in.readString());
+        } else if(waveSource == ENDLESS_WAVES) {
+            data._waveSource = new EndlessWaves(in.readLong());
+        } else {
+            throw new IOException("Corrupt snapshot: wave source " + waveSource);
+        }
+        
+        data._wave = data._waveSource.getWave(data._waveNumber);
+        
+        long tick = in.readLong();
+        data._waveStarting = in.readBoolean();
+        data._waveStartTick = in.readLong();
+        data._streamCount = in.readCount();
+        data._streamRun = in.readInts(data._streamCount);
+        data._streamStart = in.readInts(data._streamCount);
+        data._streamRemaining = in.readInts(data._streamCount);
+        data._streamNextTicks = in.readLongs(data._streamCount);
+        
+        data._board = Board.read(in, config);
+        data.findEnds();
+        
+        data._units = UnitStore.read(in);
+        data._projectiles = ProjectileStore.read(in);
+        data._effects = EffectStore.read(in, data._units);
+        
+        for(int stream = 0; stream < data._streamCount; stream++) {
+            if(data._streamRemaining[stream] > 0) {
+                if(data._wave == null || data._streamRun[stream] < 0 || data._streamRun[stream] >= data._wave.getRunCount()
+                        || data._streamStart[stream] < 0 || data._streamStart[stream] >= data._starts.size()
+                        || data._streamNextTicks[stream] <= tick) {
+                    throw new IOException("Corrupt snapshot: spawn stream " + stream);
+                }
+                data._activeStreams++;
+            }
+        }
+        
+        if(data._waveStarting && data._wave == null) {
+            throw new IOException("Corrupt snapshot: starting a wave past the last");
+        }
+        
+        data._spawns = new TimingWheel(tick);
+        data.scheduleSpawns();
+        
+        return data;
+        
+    }
+    
+    /**
+     * Puts the pending wave start and the next release of every running stream onto a fresh spawn wheel.
+     * Streams of a wave are all started on the same tick with the same interval and released in the order
+     * they were started, so scheduling them in that order keeps releases in the order they would have gone.
+     */
+    private void scheduleSpawns() {
+        
+        if(_waveStarting) {
+            _spawns.schedule(WAVE_START, _waveStartTick);
+        }
+        
+        for(int stream = 0; stream < _streamCount; stream++) {
+            if(_streamRemaining[stream] > 0) {
+                _spawns.schedule(stream, _streamNextTicks[stream]);
+            }
+        }
+        
+    }
+    
+    /**
+     * Finds the start and finish sectors on the board, in the order a map file lists them.
+     */
+    private void findEnds() {
+        
+        for(int y = 0; y < _board.getHeight(); y++) {
+            for(int x = 0; x < _board.getWidth(); x++) {
+                if(_board.isTerrain(x, y, TerrainType.ENTRY)) {
+                    _starts.add(new Sector(x, y));
+                } else if(_board.isTerrain(x, y, TerrainType.EXIT)) {
+                    _finishes.add(new Sector(x, y));
+                }
+            }
+        }
+        
+    }
+    
+    /**
+     * Moves the spawn schedule on one simulation tick, releasing any units that are due. Each wave is let out
+     * by spawn streams on a {@link TimingWheel}, so releasing a unit costs the same however many streams are
+     * running, and a run plays out identically however fast the ticks come.
      */
     public void dispenseUnits() {
         
-        int scale = Game.getScale();
+        _spawns.advance(_spawnListener);
         
-        //determine if delay between waves has passed
-        if(_lastDispensedTime + DISPENSE_DELAY < System.currentTimeMillis()) {
-
-            _lastDispensedTime = System.currentTimeMillis();
+        if(_wave != null && _waveStarting == false && _activeStreams == 0 && _units.size() == 0) {
+            //this wave is out, and the units dispensed are finished. move on to the next after a delay
+            _waveNumber++;
+            _wave = _waveSource.getWave(_waveNumber);
+            if(_wave != null) {
+                scheduleWave(_spawns.getTick() + WAVE_DELAY_MULTIPLIER * _dispenseDelayTicks);
+            }
+        }
 
-            if(_waves.containsKey(_waveNumber) == false) {
-                return;
-            } else if(_waves.get(_waveNumber).size() > 0) {
-                //there are still units in this wave to dispense
-                Unit unit = _waves.get(_waveNumber).pop();
-                Point start = new Point(getStartSector().x * scale, getStartSector().y * scale);
-                unit.setLocation(start);
-                unit.setDestination(start);
-                _dispensedUnits.add(unit);
-            } else if(_dispensedUnits.size() == 0) {
-                //this wave is empty, and the units dispensed are finished. increment _waveNumber and put a delay until next wave
-                _waveNumber++;
-                _lastDispensedTime = System.currentTimeMillis() + (4 * DISPENSE_DELAY);
+    }
+    
+    private void scheduleWave(long tick) {
+        _waveStarting = true;
+        _waveStartTick = Math.max(tick, _spawns.getTick() + 1);
+        _spawns.schedule(WAVE_START, _waveStartTick);
+    }
+    
+    /**
+     * Splits each run of the current wave evenly over the entries and starts a spawn stream for each share.
+     */
+    private void startWave(long tick) {
+        
+        _waveStarting = false;
+        _streamCount = 0;
+        _activeStreams = 0;
+        
+        int starts = _starts.size();
+        int streams = _wave.getRunCount() * starts;
+        
+        if(_streamRun.length < streams) {
+            _streamRun = new int[streams];
+            _streamStart = new int[streams];
+            _streamRemaining = new int[streams];
+            _streamNextTicks = new long[streams];
+        }
+        
+        int interval = getInterval();
+        
+        for(int run = 0; run < _wave.getRunCount(); run++) {
+            
+            int count = _wave.getCount(run);
+            
+            for(int start = 0; start < starts; start++) {
+                
+                int share = count / starts + (start < count % starts ? 1 : 0);
+                
+                if(share > 0) {
+                    int stream = _streamCount++;
+                    _streamRun[stream] = run;
+                    _streamStart[stream] = start;
+                    _streamRemaining[stream] = share;
+                    _streamNextTicks[stream] = tick + interval;
+                    _activeStreams++;
+                    _spawns.schedule(stream, _streamNextTicks[stream]);
+                }
+                
             }
             
         }
-
+        
+    }
+    
+    /**
+     * Lets out the next burst of a spawn stream at its entry, and schedules the one after.
+     */
+    private void releaseStream(int stream, long tick) {
+        
+        Unit unit = getUnitTemplate(_wave.getType(_streamRun[stream]));
+        int health = Math.max(1, (int)((long)unit.getHealth() * _wave.getHealthPercent() / 100));
+        int speed = Math.min(unit.getSpeed() + _wave.getSpeedBonus(), Engine.SECTOR_SIZE);
+        Sector startSector = _starts.get(_streamStart[stream]);
+        int burst = Math.min(Math.max(1, _wave.getBurst()), _streamRemaining[stream]);
+        
+        for(int i = 0; i < burst; i++) {
+            _units.add(unit, startSector.x * Engine.SECTOR_SIZE, startSector.y * Engine.SECTOR_SIZE, health, speed);
+        }
+        
+        _streamRemaining[stream] -= burst;
+        
+        if(_streamRemaining[stream] > 0) {
+            _streamNextTicks[stream] = tick + getInterval();
+            _spawns.schedule(stream, _streamNextTicks[stream]);
+        } else {
+            _activeStreams--;
+        }
+        
+    }
+    
+    private int getInterval() {
+        return _wave.getInterval() > 0 ? _wave.getInterval() : _dispenseDelayTicks;
     }
     
     /**
@@ -87,7 +397,7 @@ public class Data {
      */
     public boolean unitsAllDone() {
         
-        if(_waves.size() == 0 && getDispensedUnits().size() == 0) {
+        if(_wave == null && _units.size() == 0) {
             return true;
         }
         
@@ -95,6 +405,28 @@ public class Data {
         
     }
     
+    /**
+     * Replaces the waves to play, such as swapping a map's own waves for endless ones. Play restarts from the first wave.
+     * 
+     * @param waveSource Where the waves come from.
+     */
+    public void setWaveSource(WaveSource waveSource) {
+        
+        _waveSource = waveSource;
+        _waveNumber = 0;
+        _wave = _waveSource.getWave(0);
+        
+        _spawns.clear();
+        _streamCount = 0;
+        _activeStreams = 0;
+        _waveStarting = false;
+        
+        if(_wave != null) {
+            scheduleWave(_spawns.getTick());
+        }
+        
+    }
+    
     /**
      * @return The number of lives remaining.
      */
@@ -110,31 +442,76 @@ public class Data {
     }
     
     /**
-     * @return A list of the units that have been put into play.
+     * @return The units that have been put into play and are still in it.
+     */
+    public UnitStore getUnits() {
+        return _units;
+    }
+    
+    /**
+     * @return Every shot in flight.
      */
-    public LinkedList<Unit> getDispensedUnits() {
-        return _dispensedUnits;
+    public ProjectileStore getProjectiles() {
+        return _projectiles;
     }
     
     /**
-     * @return The current mapping of sectors to the towers.
+     * @return Every status effect on a unit in play.
      */
-    public Map<Sector, GamePiece> getGamePieces() {
-        return _gamePieces;
+    public EffectStore getEffects() {
+        return _effects;
     }
     
     /**
-     * @return The sector marking the starting place for units.
+     * @return The board holding the terrain and towers of the loaded map.
      */
-    public Sector getStartSector() {
-        return _start;
+    public Board getBoard() {
+        return _board;
     }
     
     /**
-     * @return The sector marking the finish place for units.
+     * @return The sectors marking the starting places for units.
      */
-    public Sector getFinishSector() {
-        return _finish;
+    public List<Sector> getStartSectors() {
+        return _starts;
+    }
+    
+    /**
+     * @return The sectors marking the finish places for units.
+     */
+    public List<Sector> getFinishSectors() {
+        return _finishes;
+    }
+    
+    /**
+     * @return The board index of every finish sector, as the paths are seeded from. A unit has arrived when it
+     * stands on one of these, whatever the sector holds.
+     */
+    public BitSet getFinishIndexes() {
+        
+        if(_finishIndexes == null) {
+            _finishIndexes = new BitSet(_board.size());
+            for(int index : _board.getIndexes(_finishes)) {
+                _finishIndexes.set(index);
+            }
+        }
+        
+        return _finishIndexes;
+        
+    }
+    
+    /**
+     * @return The name of the map file the game was loaded from.
+     */
+    public String getMapFile() {
+        return _mapFile;
+    }
+    
+    /**
+     * @return Where the waves being played come from.
+     */
+    public WaveSource getWaveSource() {
+        return _waveSource;
     }
     
     /**
@@ -181,111 +558,108 @@ public class Data {
     
     private void parseMapObjects(Scanner fin) {
         
-        int y = 0;
+        List<String> lines = new ArrayList<String>();
+        int width = 0;
 
         while(fin.hasNextLine()) {
-            
             String line = fin.nextLine();
+            lines.add(line);
+            if(line.length() > width) {
+                width = line.length();
+            }
+        }
+        
+        _board = new Board(width, lines.size(), _config);
+        
+        for(int y = 0; y < lines.size(); y++) {
             
-            int x = 0;
-            for(x = 0; x < line.length(); x++) {
-                Sector sector = new Sector(x, y);
+            String line = lines.get(y);
+            
+            for(int x = 0; x < line.length(); x++) {
                 char lineChar = line.charAt(x);
                 switch(lineChar) {
                     case '1':
-                        _gamePieces.put(sector, TowerFactory.getTower(TowerType.SMALLTURRET));
+                        _board.setTower(x, y, TowerType.SMALLTURRET);
                         break;
                     case '2':
-                        _gamePieces.put(sector, TowerFactory.getTower(TowerType.MEDIUMTURRET));
+                        _board.setTower(x, y, TowerType.MEDIUMTURRET);
                         break;
                     case '3':
-                        _gamePieces.put(sector, TowerFactory.getTower(TowerType.HEAVYTURRET));
+                        _board.setTower(x, y, TowerType.HEAVYTURRET);
                         break;
                     case 'X':
-                        _gamePieces.put(sector, TerrainFactory.getTerrain(TerrainType.ROCK));
+                        _board.setTerrain(x, y, TerrainType.ROCK);
                         break;
                     case 'S':
-                        _gamePieces.put(sector, TerrainFactory.getTerrain(TerrainType.ENTRY));
-                        _start = sector;
+                        _board.setTerrain(x, y, TerrainType.ENTRY);
+                        _starts.add(new Sector(x, y));
                         break;
                     case 'F':
-                        _gamePieces.put(sector, TerrainFactory.getTerrain(TerrainType.EXIT));
-                        _finish = sector;
+                        _board.setTerrain(x, y, TerrainType.EXIT);
+                        _finishes.add(new Sector(x, y));
                         break;
                     case '.':
-                        _gamePieces.put(sector, TerrainFactory.getTerrain(TerrainType.LAND));
+                        _board.setTerrain(x, y, TerrainType.LAND);
                         break;
                 }
             }
-            y++;
 
         }
         
     }
     
     private void parseWaves(Scanner fin) {
-
-        String wavesStringLine = fin.nextLine();
-        String[] wavesString = wavesStringLine.split(":");
+        setWaveSource(new MapWaves(fin.nextLine()));
+    }
+    
+    /**
+     * @return The statistics units of a type are dispensed with, read from the configuration the first time they are needed.
+     */
+    public Unit getUnitTemplate(UnitType type) {
         
-        int wave = 0;
-
-        for(int i = 0; i < wavesString.length; i++) {
-            
-            Stack<Unit> thisWave = new Stack<Unit>();
-            
-            char[] waveUnitChars = wavesString[i].toCharArray();
-            for(int j = 0; j < waveUnitChars.length; j++) {
-                
-            	Character waveUnitChar = waveUnitChars[j];
-            	
-            	int waveUnitLevel = Integer.parseInt(waveUnitChar.toString());
-            	
-            	switch(waveUnitLevel) {
-            		default:
-            		case 1:
-            		    thisWave.push(UnitFactory.getUnit(UnitType.SOLDIER));
-            			break;
-            		case 2:
-            		    thisWave.push(UnitFactory.getUnit(UnitType.HUMVEE));
-            		    break;
-            		case 3:
-                        thisWave.push(UnitFactory.getUnit(UnitType.HUMVEE));
-                        break;
-            	}
-            }
-            
-            _waves.put(wave, thisWave);
-
-            wave++;
-
+        if(_unitTemplates[type.ordinal()] == null) {
+            _unitTemplates[type.ordinal()] = UnitFactory.getUnit(type, _config);
         }
         
+        return _unitTemplates[type.ordinal()];
+        
     }
 
     /**
-     * Draws the towers and units.
+     * Draws the towers, units and shots the viewport can see. Units and shots are sorted into grids the first
+     * time each tick is drawn, so every frame after that only visits the ones near the screen. Call it between
+     * ticks, on the thread that ticks the engine.
      * 
      * @param gfx Graphics object to use to draw with.
+     * @param viewport The part of the board on screen, and its scale.
+     * @param tick The number of ticks played so far.
+     * @param alpha How far between the previous tick and the current one to draw moving units, from 0 to 1.
      */
-    public void draw(Graphics gfx) {
+    public void draw(Graphics gfx, Viewport viewport, long tick, double alpha) {
 
-        for(Sector sector : _gamePieces.keySet()) {
-            int scale = Game.getScale();
-            _gamePieces.get(sector).draw(gfx, new Point(sector.x * scale, sector.y * scale));
+        int scale = viewport.getScale();
+        Rectangle visible = viewport.getVisibleArea();
+
+        if(_unitDrawGrid == null) {
+            _unitDrawGrid = new SpatialGrid(_board.getWidth(), _board.getHeight());
+            _shotDrawGrid = new SpatialGrid(_board.getWidth(), _board.getHeight());
         }
 
-        for (Iterator<Unit> it = _dispensedUnits.iterator(); it.hasNext(); ) {
-            
-            Unit unit = it.next();
-            
-            if (unit.isDone()) {
-                it.remove();
-            } else {
-                unit.draw(gfx);
-            }
+        if(tick != _drawGridTick) {
+            _unitDrawGrid.rebuild(_units);
+            _shotDrawGrid.rebuild(_projectiles);
+            _drawGridTick = tick;
         }
-        
+
+        gfx.translate(-visible.x, -visible.y);
+
+        _board.draw(gfx, scale, visible);
+
+        _units.draw(gfx, scale, visible, _unitDrawGrid, alpha);
+
+        _projectiles.draw(gfx, scale, visible, _shotDrawGrid, alpha);
+
+        gfx.translate(visible.x, visible.y);
         
     }
 
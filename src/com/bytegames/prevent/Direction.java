@@ -0,0 +1,86 @@
+package com.bytegames.prevent;
+
+
+/**
+ * The single byte codes used to record which way a unit should step out of a sector.
+ * A whole map's worth of directions costs one byte per sector.
+ *
+ * @author byte
+ *
+ */
+public class Direction {
+
+    /**
+     * Not yet worked out. Zero so that a freshly allocated array starts out unresolved.
+     */
+    public static final byte UNKNOWN = 0;
+    /**
+     * No finish can be reached from the sector.
+     */
+    public static final byte NONE = 1;
+    /**
+     * The sector is a finish, so there is nowhere further to go.
+     */
+    public static final byte ARRIVED = 2;
+    /**
+     * Step to the sector on the left.
+     */
+    public static final byte LEFT = 3;
+    /**
+     * Step to the sector on the right.
+     */
+    public static final byte RIGHT = 4;
+    /**
+     * Step to the sector above.
+     */
+    public static final byte UP = 5;
+    /**
+     * Step to the sector below.
+     */
+    public static final byte DOWN = 6;
+
+    /**
+     * @param direction A direction code.
+     * @return The change in sector horizontal coordinate when stepping that way.
+     */
+    public static int getOffsetX(byte direction) {
+        return direction == LEFT ? -1 : (direction == RIGHT ? 1 : 0);
+    }
+
+    /**
+     * @param direction A direction code.
+     * @return The change in sector vertical coordinate when stepping that way.
+     */
+    public static int getOffsetY(byte direction) {
+        return direction == UP ? -1 : (direction == DOWN ? 1 : 0);
+    }
+
+    /**
+     * @param sector The index of a sector.
+     * @param next The index of the sector to step to from it, the sector itself, or -1.
+     * @param width The number of sectors across the map.
+     * @return The direction code for the step.
+     */
+    public static byte fromStep(int sector, int next, int width) {
+
+        if(next < 0) {
+            return NONE;
+        }
+
+        if(next == sector) {
+            return ARRIVED;
+        }
+
+        if(next == sector - width) {
+            return UP;
+        }
+
+        if(next == sector + width) {
+            return DOWN;
+        }
+
+        return next < sector ? LEFT : RIGHT;
+
+    }
+
+}
@@ -0,0 +1,265 @@
+package com.bytegames.prevent;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Every status effect in play, held as parallel primitive arrays with the tick each one wears off, rather than
+ * as a list of effect objects on each unit. Effects are dense in slots 0 to size() - 1 and a finished one is
+ * replaced by the last, like the units and shots.
+ *
+ * An effect changes its unit's totals in the {@link UnitStore} once when it starts and once when it ends, so
+ * slows and stuns cost nothing on the ticks in between. The one pass a tick only visits effects that are
+ * live, to wear them off, pulse burns and drop those whose unit has gone, so its cost follows the number of
+ * effects in play rather than the number of units.
+ *
+ * @author byte
+ *
+ */
+public class EffectStore {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private int _size;
+    private int[] _units;
+    private byte[] _types;
+    private int[] _strengths;
+    private long[] _expiryTicks;
+    private long[] _pulseTicks;
+
+    /**
+     * Instantiates an empty store.
+     */
+    public EffectStore() {
+
+        _size = 0;
+        _units = new int[INITIAL_CAPACITY];
+        _types = new byte[INITIAL_CAPACITY];
+        _strengths = new int[INITIAL_CAPACITY];
+        _expiryTicks = new long[INITIAL_CAPACITY];
+        _pulseTicks = new long[INITIAL_CAPACITY];
+
+    }
+
+    /**
+     * Instantiates a copy of a store.
+     */
+    private EffectStore(EffectStore effects) {
+
+        _size = effects._size;
+        _units = effects._units.clone();
+        _types = effects._types.clone();
+        _strengths = effects._strengths.clone();
+        _expiryTicks = effects._expiryTicks.clone();
+        _pulseTicks = effects._pulseTicks.clone();
+
+    }
+
+    /**
+     * @return A copy of every effect as it stands. Its handles find units in a copy of the unit store taken at the same time.
+     */
+    public EffectStore copy() {
+        return new EffectStore(this);
+    }
+
+    /**
+     * Writes every effect whose unit is still in play, in slot order. Units are written by slot rather than
+     * by handle, since handles are not kept when units are read back.
+     *
+     * @param out Where to write.
+     * @param units The units in play.
+     * @throws IOException Exception thrown when the snapshot cannot be written.
+     */
+    public void write(SnapshotWriter out, UnitStore units) throws IOException {
+
+        int[] slots = new int[_size];
+        int count = 0;
+
+        for(int effect = 0; effect < _size; effect++) {
+            slots[effect] = units.getSlot(_units[effect]);
+            if(slots[effect] >= 0) {
+                count++;
+            }
+        }
+
+        out.writeInt(count);
+
+        for(int effect = 0; effect < _size; effect++) {
+            if(slots[effect] >= 0) {
+                out.writeInt(slots[effect]);
+                out.writeByte(_types[effect]);
+                out.writeInt(_strengths[effect]);
+                out.writeLong(_expiryTicks[effect]);
+                out.writeLong(_pulseTicks[effect]);
+            }
+        }
+
+    }
+
+    /**
+     * Reads back effects written by {@link #write(SnapshotWriter, UnitStore)}. The units' totals were saved
+     * with them, so they are not touched.
+     *
+     * @param in Where to read from.
+     * @param units The units the effects are on, already read back.
+     * @return The effects.
+     * @throws IOException Exception thrown when the snapshot cannot be read or is corrupt.
+     */
+    public static EffectStore read(SnapshotReader in, UnitStore units) throws IOException {
+
+        EffectStore effects = new EffectStore();
+        int count = in.readCount();
+
+        for(int index = 0; index < count; index++) {
+
+            int slot = in.readInt();
+            byte type = in.readByte();
+
+            if(slot < 0 || slot >= units.size() || type < 0 || type >= EffectType.values().length) {
+                throw new IOException("Corrupt snapshot: effect " + index);
+            }
+
+            if(effects._size == effects._units.length) {
+                effects.grow();
+            }
+
+            int effect = effects._size++;
+
+            effects._units[effect] = units.getHandle(slot);
+            effects._types[effect] = type;
+            effects._strengths[effect] = in.readInt();
+            effects._expiryTicks[effect] = in.readLong();
+            effects._pulseTicks[effect] = in.readLong();
+
+        }
+
+        return effects;
+
+    }
+
+    /**
+     * @return The number of effects in play.
+     */
+    public int size() {
+        return _size;
+    }
+
+    /**
+     * Ends every effect without touching the units, for when they have all left play too.
+     */
+    public void clear() {
+        _size = 0;
+    }
+
+    /**
+     * Puts an effect on a unit. Effects of the same kind stack.
+     *
+     * @param units The units in play.
+     * @param slot The slot of the unit.
+     * @param type The kind of effect.
+     * @param strength The slow percentage, or the burn damage each second. Stuns ignore it.
+     * @param tick The current tick.
+     * @param duration How many ticks the effect lasts.
+     * @param tickRate The number of ticks per second, which is how often burns pulse.
+     */
+    public void apply(UnitStore units, int slot, EffectType type, int strength, long tick, int duration, int tickRate) {
+
+        if(duration <= 0) {
+            return;
+        }
+
+        if(_size == _units.length) {
+            grow();
+        }
+
+        int effect = _size++;
+
+        _units[effect] = units.getHandle(slot);
+        _types[effect] = (byte)type.ordinal();
+        _strengths[effect] = strength;
+        _expiryTicks[effect] = tick + duration;
+        _pulseTicks[effect] = tick + tickRate;
+
+        switch(type) {
+            case SLOW:
+                units.addSlow(slot, strength);
+                break;
+            case STUN:
+                units.addStuns(slot, 1);
+                break;
+            default:
+                break;
+        }
+
+    }
+
+    /**
+     * Pulses burns that are due and wears off effects that have run their time. Units burned to nothing are
+     * left in the store for the caller to sweep up.
+     *
+     * @param units The units in play.
+     * @param tick The current tick.
+     * @param tickRate The number of ticks per second.
+     */
+    public void process(UnitStore units, long tick, int tickRate) {
+
+        int effect = 0;
+
+        while(effect < _size) {
+
+            int slot = units.getSlot(_units[effect]);
+
+            if(slot < 0) {
+                //the unit has left play, and its totals went with it
+                remove(effect);
+                continue;
+            }
+
+            if(_types[effect] == EffectType.BURN.ordinal() && tick >= _pulseTicks[effect]) {
+                units.setHealth(slot, units.getHealth(slot) - _strengths[effect]);
+                _pulseTicks[effect] += tickRate;
+            }
+
+            if(tick >= _expiryTicks[effect]) {
+                if(_types[effect] == EffectType.SLOW.ordinal()) {
+                    units.addSlow(slot, -_strengths[effect]);
+                } else if(_types[effect] == EffectType.STUN.ordinal()) {
+                    units.addStuns(slot, -1);
+                }
+                remove(effect);
+                continue;
+            }
+
+            effect++;
+
+        }
+
+    }
+
+    private void remove(int effect) {
+
+        int last = --_size;
+
+        if(effect != last) {
+            _units[effect] = _units[last];
+            _types[effect] = _types[last];
+            _strengths[effect] = _strengths[last];
+            _expiryTicks[effect] = _expiryTicks[last];
+            _pulseTicks[effect] = _pulseTicks[last];
+        }
+
+    }
+
+    private void grow() {
+
+        int capacity = _units.length * 2;
+
+        _units = Arrays.copyOf(_units, capacity);
+        _types = Arrays.copyOf(_types, capacity);
+        _strengths = Arrays.copyOf(_strengths, capacity);
+        _expiryTicks = Arrays.copyOf(_expiryTicks, capacity);
+        _pulseTicks = Arrays.copyOf(_pulseTicks, capacity);
+
+    }
+
+}
@@ -0,0 +1,22 @@
+package com.bytegames.prevent;
+
+/**
+ * @author byte
+ * 
+ * The timed status effects a tower's shots can leave on the units they hit.
+ */
+public enum EffectType {
+
+    /**
+     * Cuts the unit's speed by a percentage.
+     */
+    SLOW,
+    /**
+     * Damages the unit once a second.
+     */
+    BURN,
+    /**
+     * Stops the unit moving at all.
+     */
+    STUN
+}
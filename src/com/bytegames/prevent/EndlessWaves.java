@@ -0,0 +1,70 @@
+package com.bytegames.prevent;
+
+import java.util.Random;
+
+
+/**
+ * Generates waves without end for survival play. Each wave is worked out from the seed and its number alone,
+ * so nothing is kept between waves and memory stays flat however long the game runs, and the same seed always
+ * plays out the same way.
+ *
+ * Waves grow steadily larger, bring in heavier unit types as they go, release their units in bigger bursts,
+ * and give every unit more health and, more slowly, more speed.
+ *
+ * @author byte
+ *
+ */
+public class EndlessWaves implements WaveSource {
+
+    private static final int BASE_UNITS = 4;
+    private static final int UNITS_PER_WAVE = 2;
+    private static final int WAVES_PER_NEW_TYPE = 5;
+    private static final int RUNS_PER_WAVE = 3;
+    private static final int HEALTH_PERCENT_PER_WAVE = 10;
+    private static final int WAVES_PER_SPEED_STEP = 10;
+    private static final int WAVES_PER_BURST_STEP = 4;
+    private static final long WAVE_SEED_MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+    private long _seed;
+
+    /**
+     * @param seed The seed the whole run of waves is generated from.
+     */
+    public EndlessWaves(long seed) {
+        _seed = seed;
+    }
+
+    /**
+     * @return The seed the whole run of waves is generated from.
+     */
+    public long getSeed() {
+        return _seed;
+    }
+
+    @Override
+    public Wave getWave(int number) {
+
+        Random random = new Random(_seed ^ (number * WAVE_SEED_MULTIPLIER));
+        UnitType[] types = UnitType.values();
+
+        //one more unit type joins the mix every few waves
+        int typesAvailable = Math.min(types.length, 1 + number / WAVES_PER_NEW_TYPE);
+        int total = BASE_UNITS + number * UNITS_PER_WAVE;
+
+        Wave wave = new Wave();
+        wave.setHealthPercent(100 + number * HEALTH_PERCENT_PER_WAVE);
+        wave.setSpeedBonus(number / WAVES_PER_SPEED_STEP);
+        wave.setBurst(1 + number / WAVES_PER_BURST_STEP);
+
+        //split the wave into a few runs, each of a single type
+        for(int run = 0; run < RUNS_PER_WAVE && total > 0; run++) {
+            int count = (run == RUNS_PER_WAVE - 1) ? total : 1 + random.nextInt(total);
+            wave.add(types[random.nextInt(typesAvailable)], count);
+            total -= count;
+        }
+
+        return wave;
+
+    }
+
+}
@@ -0,0 +1,481 @@
+package com.bytegames.prevent;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.configuration.Configuration;
+import org.apache.commons.configuration.ConfigurationException;
+import org.apache.commons.configuration.XMLConfiguration;
+import org.apache.log4j.Logger;
+
+/**
+ * The game simulation for one map, with no display attached. Everything here is measured in logical
+ * units of {@link #SECTOR_SIZE} per sector, so the simulation plays out the same whatever the screen
+ * resolution, or with no screen at all. The windowed game drives an engine one tick at a time and draws
+ * it; a headless run just ticks it as fast as it will go.
+ *
+ * @author byte
+ *
+ */
+public class Engine {
+
+    /**
+     * The size of a sector in the logical units unit locations and speeds are measured in.
+     */
+    public static final int SECTOR_SIZE = 32;
+
+    private static final int DEFAULT_TICK_RATE = 100;
+
+    private static Logger LOG = Logger.getLogger(Engine.class);
+
+    /**
+     * Configuration settings.
+     */
+    public static XMLConfiguration config;
+
+    private String _map;
+    private int _startScore;
+    private WaveSource _waves;
+    private Configuration _config;
+    private Data _data;
+    private AI _ai;
+    private SpatialGrid _grid;
+    private UnitMover _mover;
+    private long _tickCount;
+    private boolean _won;
+    private boolean _lost;
+    private int _kills;
+    private int _leaks;
+    private CommandQueue _commands;
+    private List<Command> _commandBatch;
+    private ReplayRecorder _recorder;
+
+    /**
+     * Loads the configuration shared by every engine. Must be called once before any engine is created.
+     *
+     * @param file The configuration file to load, relative to the classpath.
+     * @throws ConfigurationException Exception thrown when the configuration file is unreadable.
+     */
+    public static void loadConfig(String file) throws ConfigurationException {
+        config = new XMLConfiguration(file);
+    }
+
+    /**
+     * @return The number of simulation ticks per second.
+     */
+    public static int getTickRate() {
+        return getTickRate(config);
+    }
+
+    /**
+     * @param config A configuration.
+     * @return The number of simulation ticks per second it sets.
+     */
+    public static int getTickRate(Configuration config) {
+        return config.getInt("timing[@tickrate]", DEFAULT_TICK_RATE);
+    }
+
+    /**
+     * Instantiates an engine and loads a map into it.
+     *
+     * @param map The name of the map to load.
+     * @param score The score to start with.
+     * @throws FileNotFoundException Exception thrown when map file is unavailable.
+     */
+    public Engine(String map, int score) throws FileNotFoundException {
+        this(map, score, null);
+    }
+
+    /**
+     * Instantiates an engine and loads a map into it, playing a different set of waves to the map's own.
+     *
+     * @param map The name of the map to load.
+     * @param score The score to start with.
+     * @param waves The waves to play, or null for the waves listed in the map.
+     * @throws FileNotFoundException Exception thrown when map file is unavailable.
+     */
+    public Engine(String map, int score, WaveSource waves) throws FileNotFoundException {
+        this(map, score, waves, config);
+    }
+
+    /**
+     * Instantiates an engine that reads its statistics from its own configuration rather than the shared one,
+     * so engines with different settings can run side by side.
+     *
+     * @param map The name of the map to load.
+     * @param score The score to start with.
+     * @param waves The waves to play, or null for the waves listed in the map.
+     * @param engineConfig The configuration to create pieces and units from. It should not be changed while the engine runs.
+     * @throws FileNotFoundException Exception thrown when map file is unavailable.
+     */
+    public Engine(String map, int score, WaveSource waves, Configuration engineConfig) throws FileNotFoundException {
+
+        _map = map;
+        _startScore = score;
+        _waves = waves;
+        _config = engineConfig;
+        _data = new Data(map, engineConfig);
+        _data.setScore(score);
+        _data.load();
+
+        if(waves != null) {
+            _data.setWaveSource(waves);
+        }
+
+        init();
+
+    }
+
+    /**
+     * Instantiates an engine around a game read back from a save, to carry on from the tick it was saved on.
+     *
+     * @param data The game.
+     * @param tickCount The number of ticks played when it was saved.
+     * @param won Whether it had been won.
+     * @param lost Whether it had been lost.
+     * @param kills The number of units the towers had destroyed.
+     * @param leaks The number of units that had reached an exit.
+     * @param engineConfig The configuration the game was read back with.
+     */
+    public Engine(Data data, long tickCount, boolean won, boolean lost, int kills, int leaks, Configuration engineConfig) {
+
+        _map = data.getMapFile();
+        _startScore = data.getScore();
+        _waves = data.getWaveSource() instanceof EndlessWaves ? data.getWaveSource() : null;
+        _config = engineConfig;
+        _data = data;
+
+        init();
+
+        _tickCount = tickCount;
+        _won = won;
+        _lost = lost;
+        _kills = kills;
+        _leaks = leaks;
+
+    }
+
+    private void init() {
+
+        _ai = new AI(this);
+        _mover = new UnitMover();
+        _grid = new SpatialGrid(_data.getBoard().getWidth(), _data.getBoard().getHeight());
+        _tickCount = 0;
+        _won = false;
+        _lost = false;
+        _kills = 0;
+        _leaks = 0;
+        _commands = new CommandQueue();
+        _commandBatch = new ArrayList<Command>();
+        _recorder = null;
+
+    }
+
+    /**
+     * @return The configuration this engine creates pieces and units from.
+     */
+    public Configuration getConfig() {
+        return _config;
+    }
+
+    /**
+     * @return The current data store.
+     */
+    public Data getData() {
+        return _data;
+    }
+
+    /**
+     * @return The AI component for the game.
+     */
+    public AI getAI() {
+        return _ai;
+    }
+
+    /**
+     * @return The number of ticks simulated so far.
+     */
+    public long getTickCount() {
+        return _tickCount;
+    }
+
+    /**
+     * @return The number of units the towers have destroyed.
+     */
+    public int getKillCount() {
+        return _kills;
+    }
+
+    /**
+     * @return The number of units that have reached an exit.
+     */
+    public int getLeakCount() {
+        return _leaks;
+    }
+
+    /**
+     * @return Whether every wave has been played through without running out of lives.
+     */
+    public boolean hasWon() {
+        return _won;
+    }
+
+    /**
+     * @return Whether the lives have run out.
+     */
+    public boolean hasLost() {
+        return _lost;
+    }
+
+    /**
+     * @return Whether the game has been won or lost.
+     */
+    public boolean isOver() {
+        return _won || _lost;
+    }
+
+    /**
+     * Advances the game by one fixed simulation tick.
+     */
+    public void tick() {
+
+        if(isOver()) {
+            return;
+        }
+
+        _tickCount++;
+
+        applyCommands();
+        _data.dispenseUnits();
+        processEffects();
+        moveUnits();
+        weaponsFire();
+
+        if(_lost == false && _data.unitsAllDone()) {
+            _won = true;
+        }
+
+    }
+
+    /**
+     * Hands the engine a player's command, to be applied at the start of the next tick. Safe to call from any thread.
+     *
+     * @param command The command.
+     */
+    public void submit(Command command) {
+        _commands.add(command);
+    }
+
+    /**
+     * Starts recording every command applied from here on to a replay file. Paths are repaired on the ticking
+     * thread from now on, since a repair published part way through a tick could not be played back the same.
+     *
+     * @param file The file to record to.
+     * @throws IOException Exception thrown when the file cannot be written.
+     */
+    public void startRecording(File file) throws IOException {
+
+        if(_tickCount != 0) {
+            throw new IllegalStateException("Recording must start before the first tick.");
+        }
+
+        _recorder = new ReplayRecorder(file, _map, _startScore, _waves);
+        _ai.setSynchronous(true);
+
+    }
+
+    /**
+     * @param parallel Whether large waves may be moved on several threads. Runs come out the same either way.
+     */
+    public void setParallel(boolean parallel) {
+        _mover.setParallel(parallel);
+    }
+
+    /**
+     * Stops any background work the engine has started, and finishes any recording.
+     */
+    public void shutdown() {
+        _ai.shutdown();
+        _mover.shutdown();
+        stopRecording();
+    }
+
+    /**
+     * Applies the commands handed over since the last tick, in the order they arrived, recording each one that
+     * takes effect. Paths are repaired once for the whole batch rather than once per command, and the
+     * chokepoints the player sees are published afterwards.
+     */
+    private void applyCommands() {
+
+        if(_commands.drainTo(_commandBatch) > 0) {
+
+            _ai.beginChanges();
+
+            try {
+                for(Command command : _commandBatch) {
+                    if(command.apply(this) && _recorder != null) {
+                        try {
+                            _recorder.record(_tickCount, command);
+                        } catch(IOException ex) {
+                            LOG.error("Error: Unable to write replay, recording stopped. " + ex.getMessage());
+                            _recorder = null;
+                        }
+                    }
+                }
+            } finally {
+                _commandBatch.clear();
+                _ai.endChanges();
+            }
+
+        }
+
+        //hover and menus read chokepoints from here, so they never build them against a board being changed
+        _ai.publishChokepoints();
+
+    }
+
+    private void stopRecording() {
+
+        if(_recorder == null) {
+            return;
+        }
+
+        try {
+            _recorder.close(_tickCount, _data.getScore(), _data.getLives());
+        } catch(IOException ex) {
+            LOG.error("Error: Unable to finish replay. " + ex.getMessage());
+        }
+
+        _recorder = null;
+
+    }
+
+    /**
+     * Lands the shots already in flight, lets every tower that has reloaded fire a shot at the nearest unit in
+     * its range, then takes destroyed units out of play and pays out for them. Units are sorted into a spatial
+     * grid first, so landing shots and picking targets only look at the units nearby.
+     */
+    private void weaponsFire() {
+
+        UnitStore units = _data.getUnits();
+        ProjectileStore projectiles = _data.getProjectiles();
+        Board board = _data.getBoard();
+
+        if(units.size() == 0 && projectiles.size() == 0) {
+            return;
+        }
+
+        _grid.rebuild(units);
+
+        int tickRate = getTickRate(_config);
+
+        projectiles.advance(_grid, units, _data.getEffects(), _tickCount, tickRate);
+        int width = board.getWidth();
+
+        for(int slot = 0; slot < board.getTowerCount(); slot++) {
+
+            if(board.getTowerReadyTick(slot) > _tickCount) {
+                continue;
+            }
+
+            int sector = board.getTowerSector(slot);
+            Tower tower = (Tower)board.getPiece(sector);
+            int x = (sector % width) * SECTOR_SIZE;
+            int y = (sector / width) * SECTOR_SIZE;
+            int target = _grid.findNearest(units, x, y, (int)(tower.getRange() * SECTOR_SIZE));
+
+            if(target >= 0) {
+                fire(tower, x, y, units, target, tickRate);
+                board.setTowerReadyTick(slot, _tickCount + tickRate);
+            }
+
+        }
+
+        removeDestroyedUnits();
+
+    }
+
+    /**
+     * Wears off and pulses the status effects in play in one pass, before anything moves, so units burned to
+     * nothing never reach an exit and slows and stuns hold for the whole of this tick's movement.
+     */
+    private void processEffects() {
+
+        EffectStore effects = _data.getEffects();
+
+        if(effects.size() == 0) {
+            return;
+        }
+
+        effects.process(_data.getUnits(), _tickCount, getTickRate(_config));
+
+        removeDestroyedUnits();
+
+    }
+
+    /**
+     * Takes units with no health left out of play and pays out for them.
+     */
+    private void removeDestroyedUnits() {
+
+        UnitStore units = _data.getUnits();
+
+        //sweep from the end so each unit swapped into a freed slot has already been looked at
+        for(int slot = units.size() - 1; slot >= 0; slot--) {
+            if(units.getHealth(slot) <= 0) {
+                _data.setScore(_data.getScore() + _data.getUnitTemplate(units.getType(slot)).getReward());
+                units.remove(slot);
+                _kills++;
+            }
+        }
+
+    }
+
+    /**
+     * Sends a shot from a tower to where a unit will be by the time it lands, supposing the unit keeps moving
+     * as it did over the last tick. A tower deals a second's worth of its damage with each shot.
+     */
+    private void fire(Tower tower, int x, int y, UnitStore units, int target, int tickRate) {
+
+        int shotSpeed = Math.max(1, (int)(tower.getShotSpeed() * SECTOR_SIZE / tickRate));
+        int targetX = units.getX(target);
+        int targetY = units.getY(target);
+        double distance = Math.sqrt((double)(targetX - x) * (targetX - x) + (double)(targetY - y) * (targetY - y));
+        int flightTicks = Math.max(1, (int)Math.ceil(distance / shotSpeed));
+
+        targetX += (targetX - units.getPreviousX(target)) * flightTicks;
+        targetY += (targetY - units.getPreviousY(target)) * flightTicks;
+
+        _data.getProjectiles().add(x, y, targetX, targetY, flightTicks, tower.getDps(), (int)(tower.getSplash() * SECTOR_SIZE),
+                tower.getEffect(), tower.getEffectStrength(), (int)Math.round(tower.getEffectDuration() * tickRate));
+
+    }
+
+    /**
+     * Based on the current optimal path, set each units next destination point, then move them all. Units
+     * that reach an exit are taken out of play here, so nothing is removed while drawing. The steering and
+     * moving may run across several threads; lives are only touched once it is done.
+     */
+    private void moveUnits() {
+
+        UnitStore units = _data.getUnits();
+
+        _mover.move(units, _data.getBoard(), _data.getFinishIndexes(), _ai);
+
+        //highest slot first, so the unit swapped into each freed slot has already been dealt with
+        for(int exit = 0; exit < _mover.getExitCount(); exit++) {
+            units.remove(_mover.getExit(exit));
+            _leaks++;
+            _data.setLives(_data.getLives() - 1);
+            if(_data.getLives() == 0) {
+                _lost = true;
+                return;
+            }
+        }
+
+    }
+
+}
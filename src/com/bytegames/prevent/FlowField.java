@@ -0,0 +1,350 @@
+package com.bytegames.prevent;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * A distance field over the whole map, grown outward from every finish sector at once. Every traversable
+ * sector records the total movement cost of the cheapest route from it to its nearest finish, so the next
+ * step for any unit is found by looking at its four neighbours, however many finishes the map has.
+ *
+ * Crossing a sector costs that sector's movement cost, a small positive integer, so the field is built
+ * with Dial's algorithm over a {@link BucketQueue} rather than a general priority queue. When a sector
+ * changes cost the field is repaired in place, touching only the sectors whose distance actually depended
+ * on it. Repairs are meant to be made on a copy while the original keeps serving lookups; see {@link #copy()}.
+ *
+ * @author byte
+ *
+ */
+public class FlowField implements PathField {
+
+    private static final int DIRECTIONS = 4;
+
+    private int _width;
+    private int _height;
+    private BitSet _finishes;
+    private byte[] _costs;
+    private int[] _distances;
+
+    //scratch space reused between repairs
+    private BucketQueue _queue;
+    private BitSet _orphaned;
+    private int[] _orphans;
+
+    /**
+     * @param width The number of sectors across the map.
+     * @param height The number of sectors down the map.
+     */
+    public FlowField(int width, int height) {
+        _width = width;
+        _height = height;
+        _finishes = new BitSet(width * height);
+        _costs = new byte[width * height];
+        _distances = new int[width * height];
+        _queue = new BucketQueue(MAX_COST);
+        _orphaned = new BitSet(width * height);
+        _orphans = new int[width * height];
+    }
+
+    private FlowField(FlowField other) {
+        _width = other._width;
+        _height = other._height;
+        _finishes = other._finishes;
+        _queue = other._queue;
+        _orphaned = other._orphaned;
+        _orphans = other._orphans;
+    }
+
+    /**
+     * Grows the field outward from all of the finishes in a single pass, replacing anything computed before.
+     */
+    @Override
+    public void build(byte[] costs, int[] finishes) {
+
+        System.arraycopy(costs, 0, _costs, 0, _costs.length);
+        Arrays.fill(_distances, UNREACHABLE);
+
+        _finishes = new BitSet(_costs.length);
+        _queue.clear();
+
+        for(int finish : finishes) {
+            _finishes.set(finish);
+            if(_costs[finish] != BLOCKED) {
+                _distances[finish] = 0;
+                _queue.push(finish, 0);
+            }
+        }
+
+        relax();
+
+    }
+
+    /**
+     * Copies the field so it can be repaired while this one is still being read. The copy shares
+     * this field's scratch space, so only one of them may be repaired at a time.
+     */
+    @Override
+    public FlowField copy() {
+
+        FlowField copy = new FlowField(this);
+        copy._costs = _costs.clone();
+        copy._distances = _distances.clone();
+
+        return copy;
+
+    }
+
+    @Override
+    public void update(byte[] costs, BitSet changed) {
+
+        for(int sector = changed.nextSetBit(0); sector >= 0; sector = changed.nextSetBit(sector + 1)) {
+            setCost(sector, costs[sector]);
+        }
+
+    }
+
+    /**
+     * Repairs the field after a single sector has changed movement cost, been blocked or opened up.
+     *
+     * @param sector The index of the sector that changed.
+     * @param cost The new movement cost of the sector, or BLOCKED.
+     */
+    public void setCost(int sector, byte cost) {
+
+        byte previous = _costs[sector];
+
+        if(previous == cost) {
+            return;
+        }
+
+        _costs[sector] = cost;
+
+        if(cost == BLOCKED || (previous != BLOCKED && cost > previous)) {
+            raised(sector);
+        } else {
+            lowered(sector);
+        }
+
+    }
+
+    /**
+     * @param x Sector horizontal coordinate.
+     * @param y Sector vertical coordinate.
+     * @return The cost of the cheapest route from this sector to the nearest finish, or UNREACHABLE.
+     */
+    public int getDistance(int x, int y) {
+
+        if(contains(x, y) == false) {
+            return UNREACHABLE;
+        }
+
+        return _distances[y * _width + x];
+    }
+
+    @Override
+    public int getNext(int x, int y) {
+
+        int bestCounter = getDistance(x, y);
+
+        if(bestCounter == UNREACHABLE) {
+            return -1;
+        }
+
+        int best = y * _width + x;
+
+        if(getDistance(x - 1, y) < bestCounter) {
+            bestCounter = getDistance(x - 1, y);
+            best = y * _width + x - 1;
+        }
+
+        if(getDistance(x + 1, y) < bestCounter) {
+            bestCounter = getDistance(x + 1, y);
+            best = y * _width + x + 1;
+        }
+
+        if(getDistance(x, y - 1) < bestCounter) {
+            bestCounter = getDistance(x, y - 1);
+            best = (y - 1) * _width + x;
+        }
+
+        if(getDistance(x, y + 1) < bestCounter) {
+            bestCounter = getDistance(x, y + 1);
+            best = (y + 1) * _width + x;
+        }
+
+        return best;
+
+    }
+
+    @Override
+    public int getWidth() {
+        return _width;
+    }
+
+    @Override
+    public int getHeight() {
+        return _height;
+    }
+
+    private boolean contains(int x, int y) {
+        return x >= 0 && y >= 0 && x < _width && y < _height;
+    }
+
+    private int getAdjacent(int sector, int direction) {
+
+        int x = sector % _width;
+        int y = sector / _width;
+
+        switch(direction) {
+            case 0:
+                return x > 0 ? sector - 1 : -1;
+            case 1:
+                return x < _width - 1 ? sector + 1 : -1;
+            case 2:
+                return y > 0 ? sector - _width : -1;
+            default:
+                return y < _height - 1 ? sector + _width : -1;
+        }
+
+    }
+
+    /**
+     * Runs Dial's algorithm over whatever is queued, lowering neighbour distances until nothing improves.
+     */
+    private void relax() {
+
+        while(_queue.isEmpty() == false) {
+
+            int sector = _queue.pop();
+            int distance = _queue.getLastKey();
+
+            if(distance != _distances[sector]) {
+                //superseded by a cheaper entry already popped
+                continue;
+            }
+
+            for(int direction = 0; direction < DIRECTIONS; direction++) {
+                int adjacent = getAdjacent(sector, direction);
+                if(adjacent >= 0 && _costs[adjacent] != BLOCKED) {
+                    int counter = distance + _costs[adjacent];
+                    if(counter < _distances[adjacent]) {
+                        _distances[adjacent] = counter;
+                        _queue.push(adjacent, counter);
+                    }
+                }
+            }
+
+        }
+
+    }
+
+    private void lowered(int sector) {
+
+        int distance = _finishes.get(sector) ? 0 : getBestAdjacentDistance(sector);
+
+        if(distance >= _distances[sector]) {
+            return;
+        }
+
+        //distances only shrink from here, so relaxing outward from the sector settles everything it touches
+        _distances[sector] = distance;
+        _queue.clear();
+        _queue.push(sector, distance);
+
+        relax();
+
+    }
+
+    private void raised(int sector) {
+
+        if(_distances[sector] == UNREACHABLE) {
+            return;
+        }
+
+        //first pass: find every sector whose only cheapest route to a finish ran through the changed one
+        int orphanCount = 0;
+        int checked = 0;
+
+        if(_finishes.get(sector) == false || _costs[sector] == BLOCKED) {
+            _orphans[orphanCount++] = sector;
+            _orphaned.set(sector);
+        }
+
+        while(checked < orphanCount) {
+
+            int orphan = _orphans[checked++];
+
+            for(int direction = 0; direction < DIRECTIONS; direction++) {
+                int adjacent = getAdjacent(orphan, direction);
+                if(adjacent >= 0 && _orphaned.get(adjacent) == false && _finishes.get(adjacent) == false && _distances[adjacent] != UNREACHABLE
+                        && _distances[adjacent] == _distances[orphan] + _costs[adjacent] && isSupported(adjacent) == false) {
+                    _orphans[orphanCount++] = adjacent;
+                    _orphaned.set(adjacent);
+                }
+            }
+
+        }
+
+        for(int i = 0; i < orphanCount; i++) {
+            _distances[_orphans[i]] = UNREACHABLE;
+        }
+
+        _orphaned.clear();
+
+        //second pass: give each orphan the best distance offered by the sectors that kept theirs, then relax
+        _queue.clear();
+
+        for(int i = 0; i < orphanCount; i++) {
+
+            int orphan = _orphans[i];
+
+            if(_costs[orphan] == BLOCKED) {
+                continue;
+            }
+
+            int best = getBestAdjacentDistance(orphan);
+            if(best != UNREACHABLE) {
+                _distances[orphan] = best;
+                _queue.push(orphan, best);
+            }
+
+        }
+
+        relax();
+
+    }
+
+    /**
+     * @return Whether the sector still has a neighbour outside the orphaned set on a cheapest route to a finish.
+     */
+    private boolean isSupported(int sector) {
+
+        int counter = _distances[sector] - _costs[sector];
+
+        for(int direction = 0; direction < DIRECTIONS; direction++) {
+            int adjacent = getAdjacent(sector, direction);
+            if(adjacent >= 0 && _orphaned.get(adjacent) == false && _distances[adjacent] == counter) {
+                return true;
+            }
+        }
+
+        return false;
+
+    }
+
+    private int getBestAdjacentDistance(int sector) {
+
+        int best = UNREACHABLE;
+
+        for(int direction = 0; direction < DIRECTIONS; direction++) {
+            int adjacent = getAdjacent(sector, direction);
+            if(adjacent >= 0 && _distances[adjacent] < best) {
+                best = _distances[adjacent];
+            }
+        }
+
+        return best == UNREACHABLE ? UNREACHABLE : best + _costs[sector];
+
+    }
+
+}
@@ -11,16 +11,16 @@ import java.awt.Point;
 import java.awt.Rectangle;
 import java.awt.RenderingHints;
 import java.awt.Toolkit;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
 import java.awt.font.FontRenderContext;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferStrategy;
 import java.io.*;
-import java.util.LinkedList;
 
 import javax.swing.JFrame;
 
 import org.apache.commons.configuration.ConfigurationException;
-import org.apache.commons.configuration.XMLConfiguration;
 import org.apache.commons.lang.StringEscapeUtils;
 import org.apache.log4j.Logger;
 
@@ -42,6 +42,12 @@ public class Game extends JFrame {
     private static final int SECTOR_CAPACITY_X = 40;
     private static final int SECTOR_CAPACITY_Y = 25;
     private static final int START_SCORE = 20;
+    private static final String DEFAULT_REPLAY_FILE = "last.replay";
+    private static final String DEFAULT_AUTOSAVE_FILE = "autosave.save";
+    private static final int DEFAULT_AUTOSAVE_INTERVAL = 30;
+    private static final int DEFAULT_MAX_TICKS_PER_FRAME = 10;
+    private static final long NANOS_PER_SECOND = 1000000000L;
+    private static final long NANOS_PER_MILLI = 1000000L;
     
     /**
      * The name of the game.
@@ -49,27 +55,22 @@ public class Game extends JFrame {
     public static final String GAME_TITLE = "PREVENT";
 
     private static ResourceCache _cache;
+    private static Viewport _viewport;
     private static Logger LOG = Logger.getLogger(Game.class);
-    /**
-     * Configuration settings.
-     */
-    public static XMLConfiguration config;
 
     private Sector _hoverSector;
     private Color _hoverColor;
     private GraphicsDevice _graphicsDevice;
 
-    private Data _data;
+    private Engine _engine;
+    private Autosaver _autosaver;
     private Input _input;
-    private AI _ai;
     
     private Menu _menu;
     private Menu _levelMenu;
     private Menu _contextMenu;
 
     private GameState _state;
-    private boolean _won;
-    private boolean _lost;
     private boolean _exit;
 
     /**
@@ -78,7 +79,7 @@ public class Game extends JFrame {
     public Game() {
         
         try {
-            config = new XMLConfiguration("config/config.xml");
+            Engine.loadConfig("config/config.xml");
         } catch (ConfigurationException ex) {
             LOG.fatal("Fatal Error: Unable to read required configuration file.");
             System.exit(1);
@@ -86,6 +87,9 @@ public class Game extends JFrame {
         
         _hoverSector = new Sector(0, 0);
         
+        Dimension screenSize = Toolkit.getDefaultToolkit().getScreenSize();
+        _viewport = new Viewport(SECTOR_CAPACITY_X, SECTOR_CAPACITY_Y, screenSize.width, screenSize.height);
+        
         initDisplay();
         
         _cache = new ResourceCache(IMAGES_DIR, AUDIO_DIR);
@@ -96,13 +100,19 @@ public class Game extends JFrame {
             System.exit(1);
         }
 
-        _cache.scaleImages();
+        _cache.scaleImages(_viewport.getScale());
         
         _input = new Input(this);
         
         addKeyListener(_input);
         addMouseListener(_input);
         addMouseMotionListener(_input);
+        addMouseWheelListener(_input);
+        addComponentListener(new ComponentAdapter() {
+            public void componentResized(ComponentEvent e) {
+                _viewport.resize(getWidth(), getHeight());
+            }
+        });
 
         _menu = generateMainMenu();
         _levelMenu = generateLevelMenu();
@@ -111,7 +121,8 @@ public class Game extends JFrame {
         _state = GameState.MENU;
         _exit = false;
 
-        _ai = new AI(this);
+        _engine = null;
+        _autosaver = null;
 
     }
     
@@ -129,13 +140,19 @@ public class Game extends JFrame {
             }
         });
 
-        menu.addMenuEntry(1, "Credits", new MenuFunction() {
+        menu.addMenuEntry(1, "Continue", new MenuFunction() {
+            public void run(Game game) {
+                game.continueGame();
+            }
+        });
+
+        menu.addMenuEntry(2, "Credits", new MenuFunction() {
             public void run(Game game) {
                 game.credits();
             }
         });
 
-        menu.addMenuEntry(2, "Exit", new MenuFunction() {
+        menu.addMenuEntry(3, "Exit", new MenuFunction() {
             public void run(Game game) {
                 game.exit();
             }
@@ -173,7 +190,14 @@ public class Game extends JFrame {
             }
         });
         
-        menu.addMenuEntry(3, "Main Menu", new MenuFunction() {
+        menu.addMenuEntry(3, "Endless", new MenuFunction() {
+            public void run(Game game) {
+                String map = "maps/level1.map";
+                game.newGame(map, new EndlessWaves(System.currentTimeMillis()));
+            }
+        });
+        
+        menu.addMenuEntry(4, "Main Menu", new MenuFunction() {
             public void run(Game game) {
                 game.setGameState(GameState.MENU);
             }
@@ -187,7 +211,7 @@ public class Game extends JFrame {
      * @return The AI component for the game.
      */
     public AI getAI() {
-        return _ai;
+        return _engine == null ? null : _engine.getAI();
     }
 
     /**
@@ -197,19 +221,142 @@ public class Game extends JFrame {
      */
     public void newGame(String map, int difficulty) {
     	
-    	_data = new Data(map); //TODO: read from menu.
-        _data.setScore(START_SCORE);
+    	endGame();
+    	
         try {
-            _data.load();
+            _engine = new Engine(map, START_SCORE); //TODO: read from menu.
         } catch (FileNotFoundException e) {
             LOG.fatal("Fatal Error: Unable to load map: " + map);
             System.exit(1);
         }
         
+        startRecording();
+        startAutosave();
+        
         _state = GameState.GAME;
 
     }
     
+    /**
+     * Starts a new game on a map, playing waves other than the map's own.
+     * @param map The name of the map to load.
+     * @param waves The waves to play.
+     */
+    public void newGame(String map, WaveSource waves) {
+        
+        endGame();
+        
+        try {
+            _engine = new Engine(map, START_SCORE, waves);
+        } catch (FileNotFoundException e) {
+            LOG.fatal("Fatal Error: Unable to load map: " + map);
+            System.exit(1);
+        }
+        
+        startRecording();
+        startAutosave();
+        
+        _state = GameState.GAME;
+        
+    }
+    
+    /**
+     * Carries on the game last autosaved, if there is one.
+     */
+    public void continueGame() {
+        
+        File file = new File(Engine.config.getString("autosave[@file]", DEFAULT_AUTOSAVE_FILE));
+        
+        if(file.exists() == false) {
+            LOG.debug("No autosave to continue from at " + file + ".");
+            return;
+        }
+        
+        Engine engine = null;
+        
+        try {
+            long started = System.nanoTime();
+            engine = SaveGame.load(file);
+            LOG.debug("Loaded " + file + " in " + (System.nanoTime() - started) / NANOS_PER_MILLI + "ms.");
+        } catch(IOException ex) {
+            LOG.error("Error: Unable to continue from " + file + ". " + ex.getMessage());
+            return;
+        }
+        
+        endGame();
+        
+        _engine = engine;
+        
+        startAutosave();
+        
+        _state = GameState.GAME;
+        
+    }
+    
+    /**
+     * Stops the game being played, if any, and its autosaves.
+     */
+    private void endGame() {
+        
+        if(_autosaver != null) {
+            _autosaver.shutdown();
+            _autosaver = null;
+        }
+        
+        if(_engine != null) {
+            _engine.shutdown();
+        }
+        
+    }
+    
+    /**
+     * Autosaves the game at the configured interval, if autosaving is switched on.
+     */
+    private void startAutosave() {
+        
+        if(Engine.config.getBoolean("autosave[@enabled]", false) == false) {
+            return;
+        }
+        
+        String file = Engine.config.getString("autosave[@file]", DEFAULT_AUTOSAVE_FILE);
+        int interval = Engine.config.getInt("autosave[@interval]", DEFAULT_AUTOSAVE_INTERVAL);
+        
+        _autosaver = new Autosaver(new File(file), (long)interval * Engine.getTickRate());
+        
+    }
+    
+    /**
+     * Records the new game to the configured replay file, if recording is switched on.
+     */
+    private void startRecording() {
+        
+        if(Engine.config.getBoolean("replay[@record]", false) == false) {
+            return;
+        }
+        
+        String file = Engine.config.getString("replay[@file]", DEFAULT_REPLAY_FILE);
+        
+        try {
+            _engine.startRecording(new File(file));
+            LOG.debug("Recording game to " + file + ".");
+        } catch(IOException ex) {
+            LOG.error("Error: Unable to record replay to " + file + ". " + ex.getMessage());
+        }
+        
+    }
+    
+    /**
+     * Hands a player's command to the game, to take effect on the next tick.
+     * @param command The command.
+     */
+    public void submit(Command command) {
+        
+        if(_engine != null) {
+            _engine.submit(command);
+        }
+        
+    }
+    
     /**
      * @return The current game state.
      */
@@ -225,11 +372,12 @@ public class Game extends JFrame {
     }
     
     /**
-     * @param sector The sector the mouse is currently in.
+     * @param x Horizontal coordinate of the sector the mouse is currently in.
+     * @param y Vertical coordinate of the sector the mouse is currently in.
      * @param color The color to set on the hover.
      */
-    public void setHoverSector(Sector sector, Color color) {
-        _hoverSector = sector;
+    public void setHoverSector(int x, int y, Color color) {
+        _hoverSector.setLocation(x, y);
         _hoverColor = color;
     }
     
@@ -244,7 +392,7 @@ public class Game extends JFrame {
      * @return The current data store.
      */
     public Data getData() {
-        return _data;
+        return _engine == null ? null : _engine.getData();
     }
 
     /**
@@ -255,17 +403,21 @@ public class Game extends JFrame {
     }
     
     /**
-     * @return The scale in pixels based on the screen resolution.
+     * @return The scale in pixels based on the screen resolution, unaffected by zoom. Menus and text are sized by it.
      */
     public static int getScale() {
-
-        Dimension screenSize = Toolkit.getDefaultToolkit().getScreenSize();
-        int xScale = screenSize.width / SECTOR_CAPACITY_X;
-        int yScale = screenSize.height / SECTOR_CAPACITY_Y;
-        int scale = (xScale < yScale ? xScale : yScale);
-
-        return scale;
-
+        return _viewport.getBaseScale();
+    }
+    
+    /**
+     * @return The viewport onto the board.
+     */
+    public static Viewport getViewport() {
+        return _viewport;
+    }
+    
+    private static Dimension getScreenDimension() {
+        return new Dimension(_viewport.getWidth(), _viewport.getHeight());
     }
 
     private void initDisplay() {
@@ -288,200 +440,141 @@ public class Game extends JFrame {
     }
     
     /**
-     * The game loop.
+     * The game loop. The simulation advances in fixed ticks at the configured tick rate, however long
+     * each frame takes to render. Time left over between ticks is carried to the next frame, and a slow
+     * frame is caught up with several ticks in a row. Rendering draws units part way between the last
+     * two ticks so movement stays smooth at any frame rate.
      */
     public void run() {
 
         LOG.debug("Starting main game loop.");
+        
+        long tickNanos = NANOS_PER_SECOND / Engine.getTickRate();
+        int frameRate = Engine.config.getInt("timing[@framerate]", 0);
+        long frameNanos = frameRate > 0 ? NANOS_PER_SECOND / frameRate : 0;
+        int maxTicksPerFrame = Engine.config.getInt("timing[@maxticksperframe]", DEFAULT_MAX_TICKS_PER_FRAME);
+        
+        long previousTime = System.nanoTime();
+        long accumulator = 0;
 
         while(_exit == false) {
             
-            BufferStrategy bufferStrategy = getBufferStrategy();
-            Graphics gfx = bufferStrategy.getDrawGraphics();
-            Graphics2D gfx2d = (Graphics2D)gfx;
+            long frameStart = System.nanoTime();
+            accumulator += frameStart - previousTime;
+            previousTime = frameStart;
             
-            renderBackground(gfx);
+            //past this much backlog the game slows down rather than spending every frame catching up
+            if(accumulator > maxTicksPerFrame * tickNanos) {
+                accumulator = maxTicksPerFrame * tickNanos;
+            }
             
-            if(_state == GameState.MENU) {
-                
-                renderMenu(gfx2d);
+            while(accumulator >= tickNanos) {
+                tick();
+                accumulator -= tickNanos;
+            }
             
-            } else if(_state == GameState.LEVELMENU) {
-                
-                renderLevelMenu(gfx);
-                
-            } else if(_state == GameState.CREDITS) {
-                
-                renderCredits(gfx);
-                
-            } else {
-
-                if(hasWon()) {
-
-                    renderWin();
-                    
-                } else if(hasLost()) {
-
-                    renderLoss();
-                    
-                } else {
-
-                    _data.dispenseUnits();
-                    moveUnits();
-                    weaponsFire();
-                
-                    if(getData().unitsAllDone()) {
-                        won();
+            render((double)accumulator / tickNanos);
+            
+            if(frameNanos > 0) {
+                long remaining = frameStart + frameNanos - System.nanoTime();
+                if(remaining > 0) {
+                    try {
+                        Thread.sleep(remaining / NANOS_PER_MILLI, (int)(remaining % NANOS_PER_MILLI));
+                    } catch(InterruptedException ex) {
+                        LOG.debug("Warning: Another thread has interrupted the main game loop.");
                     }
                 }
-                
-                renderGame(gfx);
-
-            }
-
-            gfx.dispose();
-            bufferStrategy.show();
-            
-            try {
-                Thread.sleep(10);
-            } catch(InterruptedException ex) {
-                LOG.debug("Warning: Another thread has interrupted the main game loop.");
+            } else {
+                Thread.yield();
             }
         }
         
         LOG.debug("Exit detected. Terminating game loop.");
-    
-    }
-    
-    /**
-     * Win the game.
-     */
-    public void won() {
-        _won = true;
-        _lost = false;
-    }
-    
-    /**
-     * Lose the game.
-     */
-    public void lost() {
-        _lost = true;
-        _won = false;
-    }
-    
-    private void renderWin() {
-        
-    }
-    
-    private void renderLoss() {
         
-    }
+        endGame();
     
-    //TODO: weapons fire
-    private void weaponsFire() {
-    	
-        //ideas...
-    	//loop over all units. if adjacent sector to one currently occupied contains tower, make tower fire upon unit. 
-        //make tower focus on one unit at a time adjacent
-    	
-    }
-
-    private boolean hasWon() {
-        return _won;
-    }
-
-    private boolean hasLost() {
-        return _lost;
     }
     
     /**
-     * Based on the current optimal path, set each units next destination point.
+     * Advances the game by one fixed simulation tick.
      */
-    public void moveUnits() {
-
-        for(Unit unit : getData().getDispensedUnits()) {
+    private void tick() {
+        
+        if(_state == GameState.GAME) {
             
-            if(unit.isDone())
-                continue;
+            _engine.tick();
             
-            if(_data.getFinishSector().equals(unit.getContainingSector())) {
-                unit.setDone(true);
-                int lives = _data.getLives();
-                _data.setLives(lives - 1);
-                if(_data.getLives() == 0) {
-                    lost();
-                    return;
-                }
-                continue;
+            //the snapshot is taken here between ticks; only writing it out happens in the background
+            if(_autosaver != null && _engine.isOver() == false) {
+                _autosaver.tick(_engine);
             }
             
-            //are we there yet?
-            if(unit.getLocation().equals(unit.getDestination())) {
-                LinkedList<Point> optimalPath = _ai.getOptimalPath(unit.getContainingSector(), getData().getFinishSector());
-                
-                if(optimalPath == null) {
-                	LOG.warn("Warning: no optimal path found for unit.");
-                } else {
-                
-                	Point newDestination = optimalPath.peek();
-                
-                	//do we need a new destination?
-                	if(unit.getDestination().equals(newDestination) == false) {
-                		unit.setDestination(newDestination);
-                	}
-                }
-            }
-
-            moveUnit(unit);
         }
-
+        
     }
-
-    private void moveUnit(Unit unit) {
+    
+    /**
+     * Draws one frame.
+     * 
+     * @param alpha How far the simulation has got towards the next tick, from 0 to 1.
+     */
+    private void render(double alpha) {
         
-        //move the unit towards its destination, based on speed (scale/speed), being careful not to overmove
-        int speed = unit.getSpeed();
+        if(_engine != null) {
+            _viewport.setBoardSize(_engine.getData().getBoard().getWidth(), _engine.getData().getBoard().getHeight());
+        }
         
-        Point current = unit.getLocation();
-        Point destination = unit.getDestination();
+        //pans, zooms and resizes asked for since the last frame take effect here, on the thread that draws
+        if(_viewport.update()) {
+            _cache.scaleImages(_viewport.getScale());
+        }
         
-        int movementRequiredX = destination.x - current.x;
-        int movementRequiredY = destination.y - current.y;
+        BufferStrategy bufferStrategy = getBufferStrategy();
+        Graphics gfx = bufferStrategy.getDrawGraphics();
+        Graphics2D gfx2d = (Graphics2D)gfx;
         
-        int proposedX = current.x;
-        int proposedY = current.y;
+        renderBackground(gfx);
         
-        if(movementRequiredX < 0) {
-            proposedX = current.x - speed;
-            if(proposedX < destination.x) {
-                proposedX = destination.x;
-            }
-        } else if(movementRequiredX > 0) {
-            proposedX = current.x + speed;
-            if(proposedX > destination.x) {
-                proposedX = destination.x;
-            }
-        }
+        if(_state == GameState.MENU) {
+            
+            renderMenu(gfx2d);
         
-        if(movementRequiredY < 0) {
-            proposedY = current.y - speed;
-            if(proposedY < destination.y) {
-                proposedY = destination.y;
-            }
-        } else if(movementRequiredY > 0) {
-            proposedY = current.y + speed;
-            if(proposedY > destination.y) {
-                proposedY = destination.y;
+        } else if(_state == GameState.LEVELMENU) {
+            
+            renderLevelMenu(gfx);
+            
+        } else if(_state == GameState.CREDITS) {
+            
+            renderCredits(gfx);
+            
+        } else {
+
+            if(_engine.hasWon()) {
+                renderWin();
+            } else if(_engine.hasLost()) {
+                renderLoss();
             }
+            
+            renderGame(gfx, alpha);
+
         }
+
+        gfx.dispose();
+        bufferStrategy.show();
+        
+    }
+    
+    private void renderWin() {
         
-        unit.setLocation(new Point(proposedX, proposedY));
+    }
+    
+    private void renderLoss() {
         
     }
     
     private void renderMenu(Graphics2D gfx2d) {
         
-        Dimension screenDimension = Toolkit.getDefaultToolkit().getScreenSize();
+        Dimension screenDimension = getScreenDimension();
 
         Font titleFont = new Font("SansSerif", Font.BOLD, Game.getScale() * 4);
         Point titleDrawPoint = new Point(screenDimension.width / 2, screenDimension.height / 4);
@@ -507,7 +600,7 @@ public class Game extends JFrame {
     
     private void renderLevelMenu(Graphics gfx) {
         
-        Dimension screenDimension = Toolkit.getDefaultToolkit().getScreenSize();
+        Dimension screenDimension = getScreenDimension();
         Point center = new Point(screenDimension.width / 2, screenDimension.height / 2);
         _levelMenu.setDrawPosition(center);
         _levelMenu.setVisible(true);
@@ -517,7 +610,7 @@ public class Game extends JFrame {
     
     private void renderBackground(Graphics gfx) {
         
-        Dimension screenDimension = Toolkit.getDefaultToolkit().getScreenSize();
+        Dimension screenDimension = getScreenDimension();
         gfx.setColor(Color.DARK_GRAY);
         gfx.fillRect(0, 0, screenDimension.width,screenDimension.height);
         
@@ -525,9 +618,9 @@ public class Game extends JFrame {
     
     private void renderCredits(Graphics gfx) {
 
-        String[] credits = StringEscapeUtils.unescapeJava(config.getString("strings.credits")).split("\n");
+        String[] credits = StringEscapeUtils.unescapeJava(Engine.config.getString("strings.credits")).split("\n");
 
-        Dimension screenDimension = Toolkit.getDefaultToolkit().getScreenSize();
+        Dimension screenDimension = getScreenDimension();
         Point tempPoint = new Point(20, screenDimension.height / 2);
         
         Graphics2D gfx2d = (Graphics2D)gfx;
@@ -546,9 +639,9 @@ public class Game extends JFrame {
         
     }
     
-    private void renderGame(Graphics gfx) {
+    private void renderGame(Graphics gfx, double alpha) {
         
-        _data.draw(gfx);
+        _engine.getData().draw(gfx, _viewport, _engine.getTickCount(), alpha);
         renderHover(gfx);
         _contextMenu.draw(gfx);
 
@@ -558,27 +651,24 @@ public class Game extends JFrame {
     private void renderHover(Graphics gfx) {
         
         if(_contextMenu.isVisible() == false) {
-            int scale = Game.getScale();
-            int sectorX = scale * _hoverSector.x;
-            int sectorY = scale * _hoverSector.y;
-            int width = getScale();
-            int height = getScale();
+            int scale = _viewport.getScale();
             gfx.setColor(_hoverColor);
-            gfx.drawRect(sectorX, sectorY, width, height);
+            gfx.drawRect(_viewport.getScreenX(_hoverSector.x), _viewport.getScreenY(_hoverSector.y), scale, scale);
         }
         
     }
     
     private void renderStats(Graphics2D gfx2d) {
     
-    	Dimension screenDimension = Toolkit.getDefaultToolkit().getScreenSize();
+    	Dimension screenDimension = getScreenDimension();
     	Point scorePoint = new Point((screenDimension.width / 2), screenDimension.height - (2 * getScale()));
 
         gfx2d.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
         gfx2d.setFont(new Font("SansSerif", Font.PLAIN, getScale()));
         gfx2d.setColor(Color.WHITE);
         
-        String stats = "Score: " + _data.getScore() + " Lives: " + _data.getLives();
+        Data data = _engine.getData();
+        String stats = "Score: " + data.getScore() + " Lives: " + data.getLives();
         
         gfx2d.drawString(stats, scorePoint.x, scorePoint.y);
         
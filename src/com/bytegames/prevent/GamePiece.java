@@ -16,9 +16,9 @@ public interface GamePiece {
      */
     boolean isTraversable();
     /**
-     * @param traversable Whether or not the piece is traversable.
+     * @return How expensive the piece is for units to cross, if it is traversable. Cheaper pieces are preferred by the AI.
      */
-    void setTraversable(boolean traversable);
+    int getMovementCost();
     /**
      * Draw the piece.
      * @param gfx The graphics object to draw with.
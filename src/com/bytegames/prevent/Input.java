@@ -44,6 +44,52 @@ public class Input extends MouseAdapter implements KeyListener {
         	} else if(_game.getGameState() == GameState.CREDITS) {
         	    _game.setGameState(GameState.MENU);
         	}
+        } else if(_game.getGameState() == GameState.GAME) {
+            keyPressedGame(e);
+        }
+        
+    }
+    
+    /**
+     * Arrow keys pan the camera a sector at a time, and plus and minus zoom about the middle of the screen.
+     */
+    private void keyPressedGame(KeyEvent e) {
+        
+        Viewport viewport = Game.getViewport();
+        int step = viewport.getScale();
+        
+        switch(e.getKeyCode()) {
+            case KeyEvent.VK_LEFT:
+                viewport.pan(-step, 0);
+                break;
+            case KeyEvent.VK_RIGHT:
+                viewport.pan(step, 0);
+                break;
+            case KeyEvent.VK_UP:
+                viewport.pan(0, -step);
+                break;
+            case KeyEvent.VK_DOWN:
+                viewport.pan(0, step);
+                break;
+            case KeyEvent.VK_EQUALS:
+            case KeyEvent.VK_PLUS:
+            case KeyEvent.VK_ADD:
+                viewport.zoom(1, viewport.getWidth() / 2, viewport.getHeight() / 2);
+                break;
+            case KeyEvent.VK_MINUS:
+            case KeyEvent.VK_SUBTRACT:
+                viewport.zoom(-1, viewport.getWidth() / 2, viewport.getHeight() / 2);
+                break;
+        }
+        
+    }
+    
+    @Override
+    public void mouseWheelMoved(MouseWheelEvent e) {
+        
+        //wheel away from the player zooms in, about the mouse
+        if(_game.getGameState() == GameState.GAME) {
+            Game.getViewport().zoom(-e.getWheelRotation(), e.getX(), e.getY());
         }
         
     }
@@ -107,10 +153,9 @@ public class Input extends MouseAdapter implements KeyListener {
             
             Point pressPoint = e.getPoint();
             
-            int scale = Game.getScale();
-            int potentialSectorX = pressPoint.x / scale;
-            int potentialSectorY = pressPoint.y / scale;
-            Sector potentialSector = new Sector(potentialSectorX, potentialSectorY);
+            Viewport viewport = Game.getViewport();
+            int potentialSectorX = viewport.getSectorX(pressPoint.x);
+            int potentialSectorY = viewport.getSectorY(pressPoint.y);
             
             ContextMenu contextMenu = (ContextMenu)_game.getContextMenu();
             
@@ -125,10 +170,10 @@ public class Input extends MouseAdapter implements KeyListener {
                 }
             } else {
                 LOG.debug("Context menu is not yet visible.");
-                if(_game.getData().getGamePieces().containsKey(potentialSector)) {
+                if(_game.getData().getBoard().getPiece(potentialSectorX, potentialSectorY) != null) {
                     LOG.debug("There is a game piece at the sector where the mouse is.");
                 
-                    contextMenu.setContext(potentialSector);
+                    contextMenu.setContext(new Sector(potentialSectorX, potentialSectorY));
                     contextMenu.setDrawPosition(pressPoint);
                     
                     LOG.debug("Context and draw position set.");
@@ -174,16 +219,17 @@ public class Input extends MouseAdapter implements KeyListener {
         	_game.getContextMenu().mouseInteract(mousePoint);
         }
         
-        int scale = Game.getScale();
-        int potentialSectorX = mousePoint.x / scale;
-        int potentialSectorY = mousePoint.y / scale;
-        Sector potentialSector = new Sector(potentialSectorX, potentialSectorY);
+        Viewport viewport = Game.getViewport();
+        int potentialSectorX = viewport.getSectorX(mousePoint.x);
+        int potentialSectorY = viewport.getSectorY(mousePoint.y);
         
-        if(_game.getData().getGamePieces().containsKey(potentialSector)) {
-            GamePiece piece = _game.getData().getGamePieces().get(potentialSector);
-            if(piece.isTraversable() || piece instanceof Tower) {
-                _game.setHoverSector(potentialSector, Color.WHITE);
-            }
+        GamePiece piece = _game.getData().getBoard().getPiece(potentialSectorX, potentialSectorY);
+        if(piece instanceof Tower) {
+            _game.setHoverSector(potentialSectorX, potentialSectorY, Color.WHITE);
+        } else if(_game.getData().getBoard().isTerrain(potentialSectorX, potentialSectorY, TerrainType.LAND)) {
+            //a tower here would cut the units off from the finish
+            boolean chokepoint = _game.getAI().wasChokepoint(potentialSectorX, potentialSectorY);
+            _game.setHoverSector(potentialSectorX, potentialSectorY, chokepoint ? Color.RED : Color.WHITE);
         }
     }
     
@@ -0,0 +1,27 @@
+package com.bytegames.prevent;
+
+
+/**
+ * @author byte
+ *
+ * A store of things on the board, one to a slot from 0 to size() - 1, that a {@link SpatialGrid} can sort
+ * into buckets by where they are.
+ */
+public interface Located {
+
+    /**
+     * @return The number of slots in use.
+     */
+    int size();
+    /**
+     * @param slot A slot in use.
+     * @return Horizontal location, in logical units.
+     */
+    int getX(int slot);
+    /**
+     * @param slot A slot in use.
+     * @return Vertical location, in logical units.
+     */
+    int getY(int slot);
+
+}
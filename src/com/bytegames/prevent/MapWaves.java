@@ -0,0 +1,91 @@
+package com.bytegames.prevent;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * The fixed list of waves written in a map file's header line. Waves are separated by colons, and each digit
+ * in a wave is one unit of that level. A count followed by an x repeats the next unit, so 500x1 is five hundred
+ * level one units.
+ *
+ * @author byte
+ *
+ */
+public class MapWaves implements WaveSource {
+
+    private String _wavesStringLine;
+    private List<String> _waveStrings;
+
+    /**
+     * @param wavesStringLine The header line of a map file.
+     */
+    public MapWaves(String wavesStringLine) {
+
+        _wavesStringLine = wavesStringLine;
+        _waveStrings = new ArrayList<String>();
+
+        for(String waveString : wavesStringLine.split(":")) {
+            _waveStrings.add(waveString);
+        }
+
+    }
+
+    /**
+     * @return The header line the waves were read from.
+     */
+    public String getWavesStringLine() {
+        return _wavesStringLine;
+    }
+
+    @Override
+    public Wave getWave(int number) {
+
+        if(number >= _waveStrings.size()) {
+            return null;
+        }
+
+        String waveString = _waveStrings.get(number);
+        Wave wave = new Wave();
+        int i = 0;
+
+        while(i < waveString.length()) {
+
+            int digitsEnd = i;
+            while(digitsEnd < waveString.length() && Character.isDigit(waveString.charAt(digitsEnd))) {
+                digitsEnd++;
+            }
+
+            if(digitsEnd < waveString.length() - 1 && digitsEnd > i && waveString.charAt(digitsEnd) == 'x') {
+                //a repeat count, applied to the single unit after the x
+                int count = Integer.parseInt(waveString.substring(i, digitsEnd));
+                wave.add(getUnitType(waveString.charAt(digitsEnd + 1)), count);
+                i = digitsEnd + 2;
+            } else {
+                wave.add(getUnitType(waveString.charAt(i)), 1);
+                i++;
+            }
+
+        }
+
+        return wave;
+
+    }
+
+    private static UnitType getUnitType(char waveUnitChar) {
+
+        int waveUnitLevel = Character.digit(waveUnitChar, 10);
+
+        switch(waveUnitLevel) {
+            default:
+            case 1:
+                return UnitType.SOLDIER;
+            case 2:
+                return UnitType.HUMVEE;
+            case 3:
+                return UnitType.HUMVEE;
+        }
+
+    }
+
+}
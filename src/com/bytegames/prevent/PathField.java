@@ -0,0 +1,64 @@
+package com.bytegames.prevent;
+
+import java.util.BitSet;
+
+
+/**
+ * @author byte
+ *
+ * A map-wide answer to "which way to the nearest finish?" that the AI keeps up to date as the board changes.
+ * Implementations are built once per map, then repaired on copies so the published field can keep
+ * serving lookups while a newer one is prepared.
+ */
+public interface PathField {
+
+    /**
+     * Distance recorded for sectors that cannot reach any finish.
+     */
+    int UNREACHABLE = Integer.MAX_VALUE;
+
+    /**
+     * The movement cost of a sector that cannot be entered.
+     */
+    byte BLOCKED = 0;
+
+    /**
+     * The largest movement cost a sector may have.
+     */
+    int MAX_COST = Byte.MAX_VALUE;
+
+    /**
+     * Computes the field from scratch, replacing anything computed before.
+     * @param costs Movement cost of each sector, indexed by y * width + x, with BLOCKED for sectors
+     * that cannot be entered. The field keeps its own copy.
+     * @param finishes The indexes of the finish sectors.
+     */
+    void build(byte[] costs, int[] finishes);
+    /**
+     * @return A field answering the same as this one, which can be updated without disturbing this one.
+     * Only one copy of a field may be updated at a time.
+     */
+    PathField copy();
+    /**
+     * Repairs the field after some sectors have changed movement cost, been blocked or opened up.
+     * @param costs Movement cost of each sector, indexed by y * width + x.
+     * @param changed The sectors that may differ from what the field was last built or updated against.
+     */
+    void update(byte[] costs, BitSet changed);
+    /**
+     * @param x Sector horizontal coordinate.
+     * @param y Sector vertical coordinate.
+     * @return The index of the neighbouring sector one step closer to a finish,
+     * the sector itself if it is a finish, or -1 if no finish can be reached.
+     */
+    int getNext(int x, int y);
+    /**
+     * @return The number of sectors across the field.
+     */
+    int getWidth();
+    /**
+     * @return The number of sectors down the field.
+     */
+    int getHeight();
+
+}
@@ -0,0 +1,378 @@
+package com.bytegames.prevent;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.Rectangle;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Every shot in flight, held as parallel primitive arrays like {@link UnitStore}. Shots live in slots 0 to
+ * size() - 1 and a spent one is replaced by the last, so the arrays are a pool that is filled and drained
+ * in place: once they have grown to the most shots ever in flight at once, firing allocates nothing.
+ *
+ * A shot flies in a straight line from its tower to the point it was aimed at, and only meets a unit when it
+ * lands. Its place along the way is worked out from how many ticks it has flown, so flight is exact integer
+ * arithmetic and plays out the same on every run. Landings are resolved together once a tick against the
+ * spatial grid: a bullet hits the nearest unit close enough to the point, and a shell hits every unit in its
+ * splash radius. Every unit hit also takes the shot's status effect, if it carries one.
+ *
+ * @author byte
+ *
+ */
+public class ProjectileStore implements Located {
+
+    private static final int INITIAL_CAPACITY = 256;
+    private static final int HIT_RADIUS = Engine.SECTOR_SIZE / 2;
+    private static final int BULLET_DIVISOR = 8;
+    private static final int SHELL_DIVISOR = 4;
+
+    //how far off screen a shot's location may be and still show: half a sector to its middle, and a tick's flight
+    private static final int DRAW_MARGIN = 3 * Engine.SECTOR_SIZE;
+    private static final byte NO_EFFECT = -1;
+    private static final EffectType[] EFFECT_TYPES = EffectType.values();
+
+    private int _size;
+    private int[] _startX;
+    private int[] _startY;
+    private int[] _targetX;
+    private int[] _targetY;
+    private int[] _flightTicks;
+    private int[] _elapsedTicks;
+    private int[] _damage;
+    private int[] _splash;
+    private byte[] _effects;
+    private int[] _effectStrengths;
+    private int[] _effectTicks;
+
+    //shots that landed this tick, kept between ticks so resolving them allocates nothing
+    private int[] _landed;
+    private int _landedCount;
+
+    /**
+     * Instantiates an empty store.
+     */
+    public ProjectileStore() {
+
+        _size = 0;
+        _startX = new int[INITIAL_CAPACITY];
+        _startY = new int[INITIAL_CAPACITY];
+        _targetX = new int[INITIAL_CAPACITY];
+        _targetY = new int[INITIAL_CAPACITY];
+        _flightTicks = new int[INITIAL_CAPACITY];
+        _elapsedTicks = new int[INITIAL_CAPACITY];
+        _damage = new int[INITIAL_CAPACITY];
+        _splash = new int[INITIAL_CAPACITY];
+        _effects = new byte[INITIAL_CAPACITY];
+        _effectStrengths = new int[INITIAL_CAPACITY];
+        _effectTicks = new int[INITIAL_CAPACITY];
+        _landed = new int[INITIAL_CAPACITY];
+        _landedCount = 0;
+
+    }
+
+    /**
+     * Instantiates a copy of a store.
+     */
+    private ProjectileStore(ProjectileStore projectiles) {
+
+        _size = projectiles._size;
+        _startX = projectiles._startX.clone();
+        _startY = projectiles._startY.clone();
+        _targetX = projectiles._targetX.clone();
+        _targetY = projectiles._targetY.clone();
+        _flightTicks = projectiles._flightTicks.clone();
+        _elapsedTicks = projectiles._elapsedTicks.clone();
+        _damage = projectiles._damage.clone();
+        _splash = projectiles._splash.clone();
+        _effects = projectiles._effects.clone();
+        _effectStrengths = projectiles._effectStrengths.clone();
+        _effectTicks = projectiles._effectTicks.clone();
+        _landed = new int[INITIAL_CAPACITY];
+        _landedCount = 0;
+
+    }
+
+    /**
+     * @return A copy of every shot in flight as it stands.
+     */
+    public ProjectileStore copy() {
+        return new ProjectileStore(this);
+    }
+
+    /**
+     * Writes every shot, one array at a time in slot order.
+     *
+     * @param out Where to write.
+     * @throws IOException Exception thrown when the snapshot cannot be written.
+     */
+    public void write(SnapshotWriter out) throws IOException {
+
+        out.writeInt(_size);
+        out.writeInts(_startX, _size);
+        out.writeInts(_startY, _size);
+        out.writeInts(_targetX, _size);
+        out.writeInts(_targetY, _size);
+        out.writeInts(_flightTicks, _size);
+        out.writeInts(_elapsedTicks, _size);
+        out.writeInts(_damage, _size);
+        out.writeInts(_splash, _size);
+        out.writeBytes(_effects, _size);
+        out.writeInts(_effectStrengths, _size);
+        out.writeInts(_effectTicks, _size);
+
+    }
+
+    /**
+     * Reads back shots written by {@link #write(SnapshotWriter)} into the same slots.
+     *
+     * @param in Where to read from.
+     * @return The shots.
+     * @throws IOException Exception thrown when the snapshot cannot be read or is corrupt.
+     */
+    public static ProjectileStore read(SnapshotReader in) throws IOException {
+
+        ProjectileStore projectiles = new ProjectileStore();
+
+        int size = in.readCount();
+        while(projectiles._startX.length < size) {
+            projectiles.grow();
+        }
+
+        in.readInts(projectiles._startX, size);
+        in.readInts(projectiles._startY, size);
+        in.readInts(projectiles._targetX, size);
+        in.readInts(projectiles._targetY, size);
+        in.readInts(projectiles._flightTicks, size);
+        in.readInts(projectiles._elapsedTicks, size);
+        in.readInts(projectiles._damage, size);
+        in.readInts(projectiles._splash, size);
+        in.readBytes(projectiles._effects, size);
+        in.readInts(projectiles._effectStrengths, size);
+        in.readInts(projectiles._effectTicks, size);
+
+        for(int slot = 0; slot < size; slot++) {
+            if(projectiles._flightTicks[slot] < 1 || projectiles._effects[slot] < NO_EFFECT || projectiles._effects[slot] >= EFFECT_TYPES.length) {
+                throw new IOException("Corrupt snapshot: shot in slot " + slot);
+            }
+        }
+
+        projectiles._size = size;
+
+        return projectiles;
+
+    }
+
+    /**
+     * @return The number of shots in flight.
+     */
+    public int size() {
+        return _size;
+    }
+
+    /**
+     * @param slot The slot of a shot.
+     * @return The shot's horizontal location as of the last tick, in logical units.
+     */
+    public int getX(int slot) {
+        return _startX[slot] + (int)((long)(_targetX[slot] - _startX[slot]) * _elapsedTicks[slot] / _flightTicks[slot]);
+    }
+
+    /**
+     * @param slot The slot of a shot.
+     * @return The shot's vertical location as of the last tick, in logical units.
+     */
+    public int getY(int slot) {
+        return _startY[slot] + (int)((long)(_targetY[slot] - _startY[slot]) * _elapsedTicks[slot] / _flightTicks[slot]);
+    }
+
+    /**
+     * Takes every shot out of flight.
+     */
+    public void clear() {
+        _size = 0;
+    }
+
+    /**
+     * Fires a shot.
+     *
+     * @param x Horizontal location to fire from, in logical units.
+     * @param y Vertical location to fire from, in logical units.
+     * @param targetX Horizontal location to land at, in logical units.
+     * @param targetY Vertical location to land at, in logical units.
+     * @param flightTicks How many ticks the shot takes to land, at least one.
+     * @param damage The damage dealt to each unit hit.
+     * @param splash The radius of units hit around the landing point, in logical units, or zero for a bullet.
+     * @param effect The status effect left on units hit, or null for none.
+     * @param effectStrength The slow percentage or burn damage per second of the effect.
+     * @param effectTicks How many ticks the effect lasts.
+     */
+    public void add(int x, int y, int targetX, int targetY, int flightTicks, int damage, int splash, EffectType effect, int effectStrength, int effectTicks) {
+
+        if(_size == _startX.length) {
+            grow();
+        }
+
+        int slot = _size++;
+
+        _startX[slot] = x;
+        _startY[slot] = y;
+        _targetX[slot] = targetX;
+        _targetY[slot] = targetY;
+        _flightTicks[slot] = Math.max(1, flightTicks);
+        _elapsedTicks[slot] = 0;
+        _damage[slot] = damage;
+        _splash[slot] = splash;
+        _effects[slot] = effect == null ? NO_EFFECT : (byte)effect.ordinal();
+        _effectStrengths[slot] = effectStrength;
+        _effectTicks[slot] = effectTicks;
+
+    }
+
+    /**
+     * Moves every shot on a tick, then lands the ones that arrive, damaging the units they hit. Units left
+     * with no health stay in the store for the caller to sweep up.
+     *
+     * @param grid The spatial grid, rebuilt from the units this tick.
+     * @param units The units in play.
+     * @param effects Where the status effects of shots that hit are put.
+     * @param tick The current tick.
+     * @param tickRate The number of ticks per second.
+     */
+    public void advance(SpatialGrid grid, UnitStore units, EffectStore effects, long tick, int tickRate) {
+
+        _landedCount = 0;
+
+        for(int slot = 0; slot < _size; slot++) {
+            if(++_elapsedTicks[slot] >= _flightTicks[slot]) {
+                if(_landedCount == _landed.length) {
+                    _landed = Arrays.copyOf(_landed, _landedCount * 2);
+                }
+                _landed[_landedCount++] = slot;
+            }
+        }
+
+        for(int index = 0; index < _landedCount; index++) {
+            land(_landed[index], grid, units, effects, tick, tickRate);
+        }
+
+        //the landed slots are in ascending order; removing from the highest keeps the lower ones where they are
+        for(int index = _landedCount - 1; index >= 0; index--) {
+            remove(_landed[index]);
+        }
+
+    }
+
+    private void land(int slot, SpatialGrid grid, UnitStore units, EffectStore effects, long tick, int tickRate) {
+
+        int x = _targetX[slot];
+        int y = _targetY[slot];
+
+        if(_splash[slot] > 0) {
+            int found = grid.findWithin(units, x, y, _splash[slot]);
+            for(int index = 0; index < found; index++) {
+                hit(slot, grid.getFound(index), units, effects, tick, tickRate);
+            }
+            return;
+        }
+
+        int unit = grid.findNearest(units, x, y, HIT_RADIUS);
+
+        if(unit >= 0) {
+            hit(slot, unit, units, effects, tick, tickRate);
+        }
+
+    }
+
+    private void hit(int slot, int unit, UnitStore units, EffectStore effects, long tick, int tickRate) {
+
+        units.setHealth(unit, units.getHealth(unit) - _damage[slot]);
+
+        if(_effects[slot] != NO_EFFECT) {
+            effects.apply(units, unit, EFFECT_TYPES[_effects[slot]], _effectStrengths[slot], tick, _effectTicks[slot], tickRate);
+        }
+
+    }
+
+    private void remove(int slot) {
+
+        int last = --_size;
+
+        if(slot != last) {
+            _startX[slot] = _startX[last];
+            _startY[slot] = _startY[last];
+            _targetX[slot] = _targetX[last];
+            _targetY[slot] = _targetY[last];
+            _flightTicks[slot] = _flightTicks[last];
+            _elapsedTicks[slot] = _elapsedTicks[last];
+            _damage[slot] = _damage[last];
+            _splash[slot] = _splash[last];
+            _effects[slot] = _effects[last];
+            _effectStrengths[slot] = _effectStrengths[last];
+            _effectTicks[slot] = _effectTicks[last];
+        }
+
+    }
+
+    /**
+     * Draws every shot in an area, bullets small and shells larger. Only the shots in the grid's buckets around
+     * the area are looked at.
+     *
+     * @param gfx The graphics object used to draw with.
+     * @param scale The size of a sector in pixels.
+     * @param visible The area to draw, in pixels from the top left of the board.
+     * @param grid A grid sorted from the shots since they last moved.
+     * @param alpha How far between the previous tick and the current one to draw shots, from 0 to 1.
+     */
+    public void draw(Graphics gfx, int scale, Rectangle visible, SpatialGrid grid, double alpha) {
+
+        int bulletSize = Math.max(1, scale / BULLET_DIVISOR);
+        int shellSize = Math.max(1, scale / SHELL_DIVISOR);
+
+        int found = grid.findInArea(visible.x * Engine.SECTOR_SIZE / scale - DRAW_MARGIN,
+                visible.y * Engine.SECTOR_SIZE / scale - DRAW_MARGIN,
+                (visible.x + visible.width) * Engine.SECTOR_SIZE / scale + DRAW_MARGIN,
+                (visible.y + visible.height) * Engine.SECTOR_SIZE / scale + DRAW_MARGIN);
+
+        for(int index = 0; index < found; index++) {
+
+            int slot = grid.getFound(index);
+
+            //shots are drawn from the middle of the sector they would fill, like the towers that fire them
+            double progress = Math.min(1, (_elapsedTicks[slot] + alpha) / _flightTicks[slot]);
+            double x = _startX[slot] + (_targetX[slot] - _startX[slot]) * progress + Engine.SECTOR_SIZE / 2;
+            double y = _startY[slot] + (_targetY[slot] - _startY[slot]) * progress + Engine.SECTOR_SIZE / 2;
+            int size = _splash[slot] > 0 ? shellSize : bulletSize;
+            int drawX = (int)Math.round(x * scale / Engine.SECTOR_SIZE) - size / 2;
+            int drawY = (int)Math.round(y * scale / Engine.SECTOR_SIZE) - size / 2;
+
+            if(visible.intersects(drawX, drawY, size, size) == false) {
+                continue;
+            }
+
+            gfx.setColor(_splash[slot] > 0 ? Color.ORANGE : Color.YELLOW);
+            gfx.fillOval(drawX, drawY, size, size);
+
+        }
+
+    }
+
+    private void grow() {
+
+        int capacity = _startX.length * 2;
+
+        _startX = Arrays.copyOf(_startX, capacity);
+        _startY = Arrays.copyOf(_startY, capacity);
+        _targetX = Arrays.copyOf(_targetX, capacity);
+        _targetY = Arrays.copyOf(_targetY, capacity);
+        _flightTicks = Arrays.copyOf(_flightTicks, capacity);
+        _elapsedTicks = Arrays.copyOf(_elapsedTicks, capacity);
+        _damage = Arrays.copyOf(_damage, capacity);
+        _splash = Arrays.copyOf(_splash, capacity);
+        _effects = Arrays.copyOf(_effects, capacity);
+        _effectStrengths = Arrays.copyOf(_effectStrengths, capacity);
+        _effectTicks = Arrays.copyOf(_effectTicks, capacity);
+
+    }
+
+}
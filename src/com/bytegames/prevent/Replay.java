@@ -0,0 +1,361 @@
+package com.bytegames.prevent;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+import org.apache.commons.configuration.ConfigurationException;
+import org.apache.log4j.BasicConfigurator;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+/**
+ * A recorded session, read back from a file written by {@link ReplayRecorder}, and a headless driver that
+ * plays it through again as fast as the engine will go. The engine only changes through ticks and the
+ * commands applied at their start, so feeding it the same commands on the same ticks plays the session out
+ * exactly as it went, which makes recordings good both for chasing down reported slowdowns and as
+ * benchmarks drawn from real play.
+ *
+ * The file holds, big endian:
+ * <pre>
+ * int    magic
+ * short  version
+ * utf    map name
+ * int    starting score
+ * bool   endless waves
+ * long   endless seed
+ * long   CRC32 of the map file
+ * long   CRC32 of the configuration file
+ * then records until the end record, each:
+ * varint ticks since the previous record
+ * byte   command type, or -1 for the end record
+ * varint sector x, varint sector y, byte tower type or -1   (commands)
+ * int    final score, int final lives                       (end record)
+ * </pre>
+ *
+ * A file cut short by a crash plays every command it has, then runs on until the game ends.
+ *
+ * Usage: Replay file [repeats]
+ *
+ * @author byte
+ *
+ */
+public class Replay {
+
+    static final int MAGIC = 0x50524550;
+    static final int VERSION = 1;
+    static final int END = -1;
+    static final int NO_TOWER = -1;
+
+    private static final long DEFAULT_MAX_TICKS = 10000000;
+    private static final int INITIAL_COMMANDS = 64;
+
+    private static Logger LOG = Logger.getLogger(Replay.class);
+
+    private String _map;
+    private int _score;
+    private boolean _endless;
+    private long _seed;
+    private long _mapChecksum;
+    private long _configChecksum;
+
+    private long[] _ticks;
+    private Command[] _commands;
+    private int _commandCount;
+
+    private boolean _complete;
+    private long _endTick;
+    private int _endScore;
+    private int _endLives;
+
+    /**
+     * Reads a replay file.
+     *
+     * @param file The file to read.
+     * @throws IOException Exception thrown when the file cannot be read or is not a replay.
+     */
+    public Replay(File file) throws IOException {
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+
+        try {
+
+            if(in.readInt() != MAGIC) {
+                throw new IOException("Not a replay file: " + file);
+            }
+
+            int version = in.readShort();
+            if(version != VERSION) {
+                throw new IOException("Unsupported replay version " + version + ": " + file);
+            }
+
+            _map = in.readUTF();
+            _score = in.readInt();
+            _endless = in.readBoolean();
+            _seed = in.readLong();
+            _mapChecksum = in.readLong();
+            _configChecksum = in.readLong();
+
+            readCommands(in);
+
+        } finally {
+            in.close();
+        }
+
+    }
+
+    /**
+     * @return The name of the map played.
+     */
+    public String getMap() {
+        return _map;
+    }
+
+    /**
+     * @return The number of commands recorded.
+     */
+    public int getCommandCount() {
+        return _commandCount;
+    }
+
+    /**
+     * @return Whether the recording was closed properly, rather than cut short.
+     */
+    public boolean isComplete() {
+        return _complete;
+    }
+
+    /**
+     * @return Whether the map and configuration on the classpath are the ones the session was recorded with.
+     * Playback against anything else is not expected to come out the same.
+     * @throws IOException Exception thrown when the map or configuration cannot be read.
+     */
+    public boolean matchesResources() throws IOException {
+        return _mapChecksum == getMapChecksum(_map) && _configChecksum == getConfigChecksum();
+    }
+
+    /**
+     * @return A new engine set up as the recorded session started, repairing paths on the calling thread so
+     * it follows the recording tick for tick.
+     * @throws FileNotFoundException Exception thrown when the map is unavailable.
+     */
+    public Engine createEngine() throws FileNotFoundException {
+
+        Engine engine = new Engine(_map, _score, _endless ? new EndlessWaves(_seed) : null);
+        engine.getAI().setSynchronous(true);
+
+        return engine;
+
+    }
+
+    /**
+     * Plays the session through on an engine fresh from {@link #createEngine()}, handing each command over just
+     * before the tick it was applied on.
+     *
+     * @param engine The engine to play on.
+     * @param maxTicks The most ticks to play when the recording was cut short.
+     */
+    public void play(Engine engine, long maxTicks) {
+
+        long lastTick = _complete ? _endTick : maxTicks;
+        int next = 0;
+
+        while(engine.isOver() == false && engine.getTickCount() < lastTick) {
+
+            long tick = engine.getTickCount() + 1;
+
+            while(next < _commandCount && _ticks[next] == tick) {
+                engine.submit(_commands[next++]);
+            }
+
+            engine.tick();
+
+        }
+
+    }
+
+    /**
+     * @param engine An engine the session has been played on.
+     * @return Whether it finished with the score and lives the recording did. Always false for a recording cut short.
+     */
+    public boolean matchesEnd(Engine engine) {
+        return _complete && engine.getTickCount() == _endTick
+                && engine.getData().getScore() == _endScore && engine.getData().getLives() == _endLives;
+    }
+
+    /**
+     * @param map The name of a map.
+     * @return A checksum of the map file.
+     * @throws IOException Exception thrown when the map cannot be read.
+     */
+    public static long getMapChecksum(String map) throws IOException {
+
+        URL url = Main.class.getClassLoader().getResource(map);
+
+        if(url == null) {
+            throw new FileNotFoundException(map);
+        }
+
+        return getChecksum(url);
+
+    }
+
+    /**
+     * @return A checksum of the configuration file the engines were loaded with.
+     * @throws IOException Exception thrown when the configuration cannot be read.
+     */
+    public static long getConfigChecksum() throws IOException {
+        return getChecksum(Engine.config.getURL());
+    }
+
+    private static long getChecksum(URL url) throws IOException {
+
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[4096];
+        InputStream in = url.openStream();
+
+        try {
+            int read;
+            while((read = in.read(buffer)) > 0) {
+                crc.update(buffer, 0, read);
+            }
+        } finally {
+            in.close();
+        }
+
+        return crc.getValue();
+
+    }
+
+    private void readCommands(DataInputStream in) throws IOException {
+
+        _ticks = new long[INITIAL_COMMANDS];
+        _commands = new Command[INITIAL_COMMANDS];
+        _commandCount = 0;
+        _complete = false;
+
+        long tick = 0;
+
+        try {
+
+            while(true) {
+
+                tick += readVarLong(in);
+                int type = in.readByte();
+
+                if(type == END) {
+                    _endScore = in.readInt();
+                    _endLives = in.readInt();
+                    _endTick = tick;
+                    _complete = true;
+                    return;
+                }
+
+                int x = (int)readVarLong(in);
+                int y = (int)readVarLong(in);
+                int tower = in.readByte();
+
+                if(_commandCount == _commands.length) {
+                    _ticks = Arrays.copyOf(_ticks, _commandCount * 2);
+                    _commands = Arrays.copyOf(_commands, _commandCount * 2);
+                }
+
+                _ticks[_commandCount] = tick;
+                _commands[_commandCount] = new Command(CommandType.values()[type], x, y, tower == NO_TOWER ? null : TowerType.values()[tower]);
+                _commandCount++;
+
+            }
+
+        } catch(EOFException ex) {
+            LOG.warn("Warning: Replay ends without an end record; it was cut short after " + _commandCount + " commands.");
+        }
+
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+
+        long value = 0;
+        int shift = 0;
+        int read;
+
+        do {
+            read = in.readUnsignedByte();
+            value |= (long)(read & 0x7F) << shift;
+            shift += 7;
+        } while((read & 0x80) != 0);
+
+        return value;
+
+    }
+
+    /**
+     * Entry point for headless playback.
+     *
+     * @param args The replay file, and optionally how many times to play it through.
+     */
+    public static void main(String[] args) {
+
+        BasicConfigurator.configure();
+        Logger.getRootLogger().setLevel(Level.INFO);
+
+        if(args.length < 1) {
+            System.err.println("Usage: Replay file [repeats]");
+            System.exit(1);
+        }
+
+        int repeats = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+        Replay replay = null;
+
+        try {
+            Engine.loadConfig("config/config.xml");
+            replay = new Replay(new File(args[0]));
+            if(replay.matchesResources() == false) {
+                LOG.warn("Warning: The map or configuration differs from the recording; playback may not match.");
+            }
+        } catch(ConfigurationException ex) {
+            LOG.fatal("Fatal Error: Unable to read required configuration file.");
+            System.exit(1);
+        } catch(IOException ex) {
+            LOG.fatal("Fatal Error: Unable to read replay: " + ex.getMessage());
+            System.exit(1);
+        }
+
+        for(int run = 0; run < repeats; run++) {
+
+            Engine engine = null;
+
+            try {
+                engine = replay.createEngine();
+            } catch(FileNotFoundException ex) {
+                LOG.fatal("Fatal Error: Unable to load map: " + replay.getMap());
+                System.exit(1);
+            }
+
+            long started = System.nanoTime();
+
+            replay.play(engine, DEFAULT_MAX_TICKS);
+
+            long elapsedMillis = Math.max(1, (System.nanoTime() - started) / 1000000);
+            String outcome = engine.hasWon() ? "WON" : (engine.hasLost() ? "LOST" : "UNFINISHED");
+            Data data = engine.getData();
+
+            System.out.println("replay=" + args[0] + " run=" + (run + 1) + " commands=" + replay.getCommandCount()
+                    + " outcome=" + outcome + " ticks=" + engine.getTickCount() + " lives=" + data.getLives()
+                    + " score=" + data.getScore() + " matches=" + (replay.isComplete() ? String.valueOf(replay.matchesEnd(engine)) : "unknown")
+                    + " elapsedMs=" + elapsedMillis + " ticksPerSecond=" + (engine.getTickCount() * 1000 / elapsedMillis));
+
+            engine.shutdown();
+
+        }
+
+    }
+
+}
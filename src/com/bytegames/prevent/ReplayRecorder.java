@@ -0,0 +1,110 @@
+package com.bytegames.prevent;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Writes a session to a replay file as it is played: a header naming the map, the starting score, the waves
+ * and checksums of the map and configuration, then every command the engine applied, stamped with its tick.
+ * Ticks are stored as the gap since the previous command, so a long session of occasional clicks stays a
+ * few bytes per command. Each command is flushed as it is written, so a session that dies still leaves a
+ * replay of everything up to the moment it did.
+ *
+ * See {@link Replay} for the format and for playing a file back.
+ *
+ * @author byte
+ *
+ */
+public class ReplayRecorder {
+
+    private DataOutputStream _out;
+    private long _lastTick;
+
+    /**
+     * Creates the replay file and writes its header.
+     *
+     * @param file The file to record to. Any existing file is replaced.
+     * @param map The name of the map being played.
+     * @param score The score the game started with.
+     * @param waves The waves being played, or null for the map's own.
+     * @throws IOException Exception thrown when the file cannot be written, or the map or configuration cannot be read.
+     */
+    public ReplayRecorder(File file, String map, int score, WaveSource waves) throws IOException {
+
+        if(waves != null && waves instanceof EndlessWaves == false) {
+            throw new IllegalArgumentException("Only a map's own waves or endless waves can be recorded.");
+        }
+
+        _out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        _lastTick = 0;
+
+        _out.writeInt(Replay.MAGIC);
+        _out.writeShort(Replay.VERSION);
+        _out.writeUTF(map);
+        _out.writeInt(score);
+        _out.writeBoolean(waves != null);
+        _out.writeLong(waves != null ? ((EndlessWaves)waves).getSeed() : 0);
+        _out.writeLong(Replay.getMapChecksum(map));
+        _out.writeLong(Replay.getConfigChecksum());
+        _out.flush();
+
+    }
+
+    /**
+     * @param tick The tick the command was applied on.
+     * @param command The command.
+     * @throws IOException Exception thrown when the file cannot be written.
+     */
+    public void record(long tick, Command command) throws IOException {
+
+        writeTick(tick);
+        _out.writeByte(command.getType().ordinal());
+        writeVarLong(_out, command.getX());
+        writeVarLong(_out, command.getY());
+        _out.writeByte(command.getTowerType() == null ? Replay.NO_TOWER : command.getTowerType().ordinal());
+        _out.flush();
+
+    }
+
+    /**
+     * Marks the end of the session with how it stood, so playback can tell whether it came out the same, then
+     * closes the file.
+     *
+     * @param tick The last tick played.
+     * @param score The score at the end.
+     * @param lives The lives left at the end.
+     * @throws IOException Exception thrown when the file cannot be written.
+     */
+    public void close(long tick, int score, int lives) throws IOException {
+
+        writeTick(tick);
+        _out.writeByte(Replay.END);
+        _out.writeInt(score);
+        _out.writeInt(lives);
+        _out.close();
+
+    }
+
+    private void writeTick(long tick) throws IOException {
+        writeVarLong(_out, tick - _lastTick);
+        _lastTick = tick;
+    }
+
+    /**
+     * Writes a non-negative number seven bits to a byte, low bits first, with the top bit set on every byte but the last.
+     */
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+
+        while((value & ~0x7FL) != 0) {
+            out.writeByte((int)((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+
+        out.writeByte((int)value);
+
+    }
+
+}
@@ -26,6 +26,7 @@ public class ResourceCache {
     private String _spriteDir;
     //private String _audioDir;
     private HashMap<String, Sprite> _spriteCache;
+    private HashMap<String, BufferedImage> _originalImages;
     private HashMap<String, File> _audioCache;
 
     /**
@@ -39,6 +40,7 @@ public class ResourceCache {
         _spriteDir = imageDir;
         //_audioDir = audioDir;
         _spriteCache = new HashMap<String, Sprite>();
+        _originalImages = new HashMap<String, BufferedImage>();
         _audioCache = new HashMap<String, File>();
 
     }
@@ -94,6 +96,7 @@ public class ResourceCache {
             }
             Sprite spr = new Sprite(img);
             _spriteCache.put(resourcePath, spr);
+            _originalImages.put(resourcePath, img);
         }
 
     }
@@ -104,14 +107,18 @@ public class ResourceCache {
     }
     
     /**
-     * Set the scale of images stored in the resource cache.
+     * Set the scale of images stored in the resource cache. Images are always scaled from the files as loaded,
+     * so zooming in and out repeatedly loses no quality.
+     * 
+     * @param scale The size of a sector in pixels.
      */
-    public void scaleImages() {
+    public void scaleImages(int scale) {
         
         for(String imageName : _spriteCache.keySet()) {
-            BufferedImage preScale = _spriteCache.get(imageName).getImage();
-            int scale = Game.getScale();
-            BufferedImage postScale = getScaledImage(preScale, scale, scale, RenderingHints.VALUE_INTERPOLATION_BILINEAR, true);
+            BufferedImage preScale = _originalImages.get(imageName);
+            //stepping down by halves only helps when shrinking, and never reaches a larger size
+            boolean shrinking = preScale.getWidth() >= scale && preScale.getHeight() >= scale;
+            BufferedImage postScale = getScaledImage(preScale, scale, scale, RenderingHints.VALUE_INTERPOLATION_BILINEAR, shrinking);
             _spriteCache.get(imageName).setImage(postScale);
         }
 
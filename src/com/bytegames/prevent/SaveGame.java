@@ -0,0 +1,172 @@
+package com.bytegames.prevent;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.configuration.Configuration;
+import org.apache.log4j.Logger;
+
+/**
+ * A saved game: a snapshot of an engine taken between ticks, and the binary file it is written to and read
+ * back from. Taking the snapshot only copies the game's arrays, and shares the board's sectors until they
+ * next change, so it is quick enough to take on the ticking thread; writing it out can then happen on any
+ * other thread while play goes on. See {@link Autosaver}.
+ *
+ * The file is written and read through NIO channels, arrays in bulk, and holds, big endian:
+ * <pre>
+ * int    magic
+ * short  version
+ * string map name
+ * long   CRC32 of the configuration file
+ * long   ticks played, bool won, bool lost, int kills, int leaks
+ * int    score, int lives, int wave number
+ * byte   wave source, then string map waves line or long endless seed
+ * long   spawn tick, bool wave starting, long wave start tick
+ * int    stream count, then per stream arrays of run, entry, units remaining and next release tick
+ * int    width, int height, byte[width * height] tiles
+ * int    tower count, then tower sectors and ready ticks in firing order
+ * units as parallel arrays in slot order, shots likewise, then effects by unit slot
+ * int    magic again, marking a file written to the end
+ * </pre>
+ * A string is an int byte count followed by UTF-8 bytes. Files of any other version are refused rather
+ * than guessed at.
+ *
+ * @author byte
+ *
+ */
+public class SaveGame {
+
+    static final int MAGIC = 0x50534156;
+    static final int VERSION = 1;
+
+    private static Logger LOG = Logger.getLogger(SaveGame.class);
+
+    private Data _data;
+    private long _tickCount;
+    private boolean _won;
+    private boolean _lost;
+    private int _kills;
+    private int _leaks;
+
+    /**
+     * Takes a snapshot of an engine. Call it between ticks, on the thread that ticks the engine.
+     *
+     * @param engine The engine to save.
+     */
+    public SaveGame(Engine engine) {
+        _data = engine.getData().copy();
+        _tickCount = engine.getTickCount();
+        _won = engine.hasWon();
+        _lost = engine.hasLost();
+        _kills = engine.getKillCount();
+        _leaks = engine.getLeakCount();
+    }
+
+    /**
+     * @return The number of ticks that had been played when the snapshot was taken.
+     */
+    public long getTickCount() {
+        return _tickCount;
+    }
+
+    /**
+     * Writes the snapshot to a file. Safe to call from any thread.
+     *
+     * @param file The file to write. Any existing file is replaced.
+     * @throws IOException Exception thrown when the file cannot be written.
+     */
+    public void write(File file) throws IOException {
+
+        SnapshotWriter out = new SnapshotWriter(file);
+
+        try {
+
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeString(_data.getMapFile());
+            out.writeLong(getConfigChecksum());
+
+            out.writeLong(_tickCount);
+            out.writeBoolean(_won);
+            out.writeBoolean(_lost);
+            out.writeInt(_kills);
+            out.writeInt(_leaks);
+
+            _data.write(out);
+
+            out.writeInt(MAGIC);
+
+        } finally {
+            out.close();
+        }
+
+    }
+
+    /**
+     * Reads a saved game back into a new engine, ready to tick on from where it was saved, using the shared configuration.
+     *
+     * @param file The file to read.
+     * @return The engine.
+     * @throws IOException Exception thrown when the file cannot be read, or is not a saved game this version can read.
+     */
+    public static Engine load(File file) throws IOException {
+        return load(file, Engine.config);
+    }
+
+    /**
+     * Reads a saved game back into a new engine, ready to tick on from where it was saved.
+     *
+     * @param file The file to read.
+     * @param config The configuration to create pieces and units from.
+     * @return The engine.
+     * @throws IOException Exception thrown when the file cannot be read, or is not a saved game this version can read.
+     */
+    public static Engine load(File file, Configuration config) throws IOException {
+
+        SnapshotReader in = new SnapshotReader(file);
+
+        try {
+
+            if(in.readInt() != MAGIC) {
+                throw new IOException("Not a saved game: " + file);
+            }
+
+            int version = in.readShort();
+            if(version != VERSION) {
+                throw new IOException("Unsupported saved game version " + version + ": " + file);
+            }
+
+            String map = in.readString();
+
+            if(in.readLong() != getConfigChecksum()) {
+                LOG.warn("Warning: The configuration has changed since " + file + " was saved; play may not carry on as it would have.");
+            }
+
+            long tickCount = in.readLong();
+            boolean won = in.readBoolean();
+            boolean lost = in.readBoolean();
+            int kills = in.readInt();
+            int leaks = in.readInt();
+
+            Data data = Data.read(in, map, config);
+
+            if(in.readInt() != MAGIC) {
+                throw new IOException("Saved game is corrupt: " + file);
+            }
+
+            return new Engine(data, tickCount, won, lost, kills, leaks, config);
+
+        } finally {
+            in.close();
+        }
+
+    }
+
+    /**
+     * @return A checksum of the shared configuration file, or zero when none has been loaded.
+     */
+    private static long getConfigChecksum() throws IOException {
+        return Engine.config == null ? 0 : Replay.getConfigChecksum();
+    }
+
+}
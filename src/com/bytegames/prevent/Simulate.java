@@ -0,0 +1,77 @@
+package com.bytegames.prevent;
+
+import java.io.FileNotFoundException;
+
+import org.apache.commons.configuration.ConfigurationException;
+import org.apache.log4j.BasicConfigurator;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+/**
+ * Headless driver that plays a map's waves through as fast as possible with no display, then reports how
+ * the game ended. Meant for balance runs on machines with no screen.
+ *
+ * Usage: Simulate [map] [max ticks] [endless seed]
+ *
+ * Given a seed, the map's own waves are replaced with endless ones, which suits long soak runs.
+ *
+ * @author byte
+ *
+ */
+public class Simulate {
+
+    private static final String DEFAULT_MAP = "maps/level1.map";
+    private static final long DEFAULT_MAX_TICKS = 1000000;
+    private static final int START_SCORE = 20;
+
+    private static Logger LOG = Logger.getLogger(Simulate.class);
+
+    /**
+     * Entry point for a headless run.
+     *
+     * @param args The map to load, the most ticks to run before giving up, and optionally a seed for endless waves.
+     */
+    public static void main(String[] args) {
+
+        BasicConfigurator.configure();
+        Logger.getRootLogger().setLevel(Level.INFO);
+
+        String map = args.length > 0 ? args[0] : DEFAULT_MAP;
+        long maxTicks = args.length > 1 ? Long.parseLong(args[1]) : DEFAULT_MAX_TICKS;
+        WaveSource waves = args.length > 2 ? new EndlessWaves(Long.parseLong(args[2])) : null;
+
+        Engine engine = null;
+
+        try {
+            Engine.loadConfig("config/config.xml");
+            engine = new Engine(map, START_SCORE, waves);
+        } catch(ConfigurationException ex) {
+            LOG.fatal("Fatal Error: Unable to read required configuration file.");
+            System.exit(1);
+        } catch(FileNotFoundException ex) {
+            LOG.fatal("Fatal Error: Unable to load map: " + map);
+            System.exit(1);
+        }
+
+        //no tower changes can race the simulation here, but keep every repair on this thread so runs repeat exactly
+        engine.getAI().setSynchronous(true);
+
+        long started = System.nanoTime();
+
+        while(engine.isOver() == false && engine.getTickCount() < maxTicks) {
+            engine.tick();
+        }
+
+        long elapsedMillis = Math.max(1, (System.nanoTime() - started) / 1000000);
+        String outcome = engine.hasWon() ? "WON" : (engine.hasLost() ? "LOST" : "UNFINISHED");
+        Data data = engine.getData();
+
+        System.out.println("map=" + map + " outcome=" + outcome + " ticks=" + engine.getTickCount()
+                + " wave=" + data.getWaveNumber() + " lives=" + data.getLives() + " score=" + data.getScore()
+                + " elapsedMs=" + elapsedMillis + " ticksPerSecond=" + (engine.getTickCount() * 1000 / elapsedMillis));
+
+        engine.shutdown();
+
+    }
+
+}
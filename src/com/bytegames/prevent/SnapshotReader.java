@@ -0,0 +1,232 @@
+package com.bytegames.prevent;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads back what a {@link SnapshotWriter} wrote, through one direct buffer refilled from a file channel.
+ * Arrays come in in bulk, a buffer's worth at a time.
+ *
+ * @author byte
+ *
+ */
+public class SnapshotReader {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private FileChannel _channel;
+    private ByteBuffer _buffer;
+
+    /**
+     * Opens a file for reading.
+     *
+     * @param file The file to read.
+     * @throws IOException Exception thrown when the file cannot be opened.
+     */
+    public SnapshotReader(File file) throws IOException {
+
+        _channel = new FileInputStream(file).getChannel();
+        _buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+        //start empty, so the first read fills it
+        _buffer.flip();
+
+    }
+
+    /**
+     * @return The next value.
+     * @throws IOException Exception thrown when the file cannot be read or ends early.
+     */
+    public byte readByte() throws IOException {
+        ensure(1);
+        return _buffer.get();
+    }
+
+    /**
+     * @return The next value.
+     * @throws IOException Exception thrown when the file cannot be read or ends early.
+     */
+    public boolean readBoolean() throws IOException {
+        return readByte() != 0;
+    }
+
+    /**
+     * @return The next value.
+     * @throws IOException Exception thrown when the file cannot be read or ends early.
+     */
+    public short readShort() throws IOException {
+        ensure(2);
+        return _buffer.getShort();
+    }
+
+    /**
+     * @return The next value.
+     * @throws IOException Exception thrown when the file cannot be read or ends early.
+     */
+    public int readInt() throws IOException {
+        ensure(4);
+        return _buffer.getInt();
+    }
+
+    /**
+     * @return The next value.
+     * @throws IOException Exception thrown when the file cannot be read or ends early.
+     */
+    public long readLong() throws IOException {
+        ensure(8);
+        return _buffer.getLong();
+    }
+
+    /**
+     * @return The next string, as written by {@link SnapshotWriter#writeString(String)}.
+     * @throws IOException Exception thrown when the file cannot be read or ends early.
+     */
+    public String readString() throws IOException {
+        return new String(readBytes(readCount()), SnapshotWriter.UTF8);
+    }
+
+    /**
+     * Reads a count written ahead of an array, checking it is one an array could hold.
+     *
+     * @return The count.
+     * @throws IOException Exception thrown when the file cannot be read, ends early, or holds a negative count.
+     */
+    public int readCount() throws IOException {
+
+        int count = readInt();
+
+        if(count < 0) {
+            throw new IOException("Corrupt snapshot: negative count " + count);
+        }
+
+        return count;
+
+    }
+
+    /**
+     * @param count How many values to read.
+     * @return The values, in an array of exactly that length.
+     * @throws IOException Exception thrown when the file cannot be read or ends early.
+     */
+    public byte[] readBytes(int count) throws IOException {
+        return readBytes(new byte[count], count);
+    }
+
+    /**
+     * @param values The array to read into, from the start.
+     * @param count How many values to read.
+     * @return The array read into.
+     * @throws IOException Exception thrown when the file cannot be read or ends early.
+     */
+    public byte[] readBytes(byte[] values, int count) throws IOException {
+
+        int offset = 0;
+
+        while(offset < count) {
+            ensure(1);
+            int chunk = Math.min(count - offset, _buffer.remaining());
+            _buffer.get(values, offset, chunk);
+            offset += chunk;
+        }
+
+        return values;
+
+    }
+
+    /**
+     * @param count How many values to read.
+     * @return The values, in an array of exactly that length.
+     * @throws IOException Exception thrown when the file cannot be read or ends early.
+     */
+    public int[] readInts(int count) throws IOException {
+        return readInts(new int[count], count);
+    }
+
+    /**
+     * @param values The array to read into, from the start.
+     * @param count How many values to read.
+     * @return The array read into.
+     * @throws IOException Exception thrown when the file cannot be read or ends early.
+     */
+    public int[] readInts(int[] values, int count) throws IOException {
+
+        int offset = 0;
+
+        while(offset < count) {
+            ensure(4);
+            int chunk = Math.min(count - offset, _buffer.remaining() / 4);
+            _buffer.asIntBuffer().get(values, offset, chunk);
+            _buffer.position(_buffer.position() + chunk * 4);
+            offset += chunk;
+        }
+
+        return values;
+
+    }
+
+    /**
+     * @param count How many values to read.
+     * @return The values, in an array of exactly that length.
+     * @throws IOException Exception thrown when the file cannot be read or ends early.
+     */
+    public long[] readLongs(int count) throws IOException {
+        return readLongs(new long[count], count);
+    }
+
+    /**
+     * @param values The array to read into, from the start.
+     * @param count How many values to read.
+     * @return The array read into.
+     * @throws IOException Exception thrown when the file cannot be read or ends early.
+     */
+    public long[] readLongs(long[] values, int count) throws IOException {
+
+        int offset = 0;
+
+        while(offset < count) {
+            ensure(8);
+            int chunk = Math.min(count - offset, _buffer.remaining() / 8);
+            _buffer.asLongBuffer().get(values, offset, chunk);
+            _buffer.position(_buffer.position() + chunk * 8);
+            offset += chunk;
+        }
+
+        return values;
+
+    }
+
+    /**
+     * Closes the file.
+     *
+     * @throws IOException Exception thrown when the file cannot be closed.
+     */
+    public void close() throws IOException {
+        _channel.close();
+    }
+
+    /**
+     * Refills the buffer until at least a number of bytes are waiting in it.
+     */
+    private void ensure(int bytes) throws IOException {
+
+        if(_buffer.remaining() >= bytes) {
+            return;
+        }
+
+        _buffer.compact();
+
+        while(_buffer.position() < bytes) {
+            if(_channel.read(_buffer) < 0) {
+                throw new EOFException("Snapshot ends early.");
+            }
+        }
+
+        _buffer.flip();
+
+    }
+
+}
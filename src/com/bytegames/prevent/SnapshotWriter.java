@@ -0,0 +1,186 @@
+package com.bytegames.prevent;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Writes the big endian binary of a {@link SaveGame} to a file channel through one direct buffer. Arrays go
+ * out in bulk, a buffer's worth at a time, rather than value by value through a stream, so writing the
+ * million tiles of a large board is a handful of copies.
+ *
+ * @author byte
+ *
+ */
+public class SnapshotWriter {
+
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private FileChannel _channel;
+    private ByteBuffer _buffer;
+
+    /**
+     * Creates the file, replacing any that exists.
+     *
+     * @param file The file to write.
+     * @throws IOException Exception thrown when the file cannot be created.
+     */
+    public SnapshotWriter(File file) throws IOException {
+        _channel = new FileOutputStream(file).getChannel();
+        _buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    }
+
+    /**
+     * @param value The value to write.
+     * @throws IOException Exception thrown when the file cannot be written.
+     */
+    public void writeByte(int value) throws IOException {
+        ensure(1);
+        _buffer.put((byte)value);
+    }
+
+    /**
+     * @param value The value to write.
+     * @throws IOException Exception thrown when the file cannot be written.
+     */
+    public void writeBoolean(boolean value) throws IOException {
+        writeByte(value ? 1 : 0);
+    }
+
+    /**
+     * @param value The value to write.
+     * @throws IOException Exception thrown when the file cannot be written.
+     */
+    public void writeShort(int value) throws IOException {
+        ensure(2);
+        _buffer.putShort((short)value);
+    }
+
+    /**
+     * @param value The value to write.
+     * @throws IOException Exception thrown when the file cannot be written.
+     */
+    public void writeInt(int value) throws IOException {
+        ensure(4);
+        _buffer.putInt(value);
+    }
+
+    /**
+     * @param value The value to write.
+     * @throws IOException Exception thrown when the file cannot be written.
+     */
+    public void writeLong(long value) throws IOException {
+        ensure(8);
+        _buffer.putLong(value);
+    }
+
+    /**
+     * Writes a string as its length in bytes followed by its UTF-8 bytes, with no limit on the length.
+     *
+     * @param value The string to write.
+     * @throws IOException Exception thrown when the file cannot be written.
+     */
+    public void writeString(String value) throws IOException {
+        byte[] bytes = value.getBytes(UTF8);
+        writeInt(bytes.length);
+        writeBytes(bytes, bytes.length);
+    }
+
+    /**
+     * @param values The values to write.
+     * @param count How many to write, from the first.
+     * @throws IOException Exception thrown when the file cannot be written.
+     */
+    public void writeBytes(byte[] values, int count) throws IOException {
+
+        int offset = 0;
+
+        while(offset < count) {
+            ensure(1);
+            int chunk = Math.min(count - offset, _buffer.remaining());
+            _buffer.put(values, offset, chunk);
+            offset += chunk;
+        }
+
+    }
+
+    /**
+     * @param values The values to write.
+     * @param count How many to write, from the first.
+     * @throws IOException Exception thrown when the file cannot be written.
+     */
+    public void writeInts(int[] values, int count) throws IOException {
+
+        int offset = 0;
+
+        while(offset < count) {
+            ensure(4);
+            int chunk = Math.min(count - offset, _buffer.remaining() / 4);
+            _buffer.asIntBuffer().put(values, offset, chunk);
+            _buffer.position(_buffer.position() + chunk * 4);
+            offset += chunk;
+        }
+
+    }
+
+    /**
+     * @param values The values to write.
+     * @param count How many to write, from the first.
+     * @throws IOException Exception thrown when the file cannot be written.
+     */
+    public void writeLongs(long[] values, int count) throws IOException {
+
+        int offset = 0;
+
+        while(offset < count) {
+            ensure(8);
+            int chunk = Math.min(count - offset, _buffer.remaining() / 8);
+            _buffer.asLongBuffer().put(values, offset, chunk);
+            _buffer.position(_buffer.position() + chunk * 8);
+            offset += chunk;
+        }
+
+    }
+
+    /**
+     * Writes out what is buffered, makes sure it has reached the disk, and closes the file.
+     *
+     * @throws IOException Exception thrown when the file cannot be written.
+     */
+    public void close() throws IOException {
+
+        try {
+            flush();
+            _channel.force(false);
+        } finally {
+            _channel.close();
+        }
+
+    }
+
+    private void ensure(int bytes) throws IOException {
+
+        if(_buffer.remaining() < bytes) {
+            flush();
+        }
+
+    }
+
+    private void flush() throws IOException {
+
+        _buffer.flip();
+
+        while(_buffer.hasRemaining()) {
+            _channel.write(_buffer);
+        }
+
+        _buffer.clear();
+
+    }
+
+}
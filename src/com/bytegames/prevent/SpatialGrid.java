@@ -0,0 +1,265 @@
+package com.bytegames.prevent;
+
+import java.util.Arrays;
+
+/**
+ * A uniform grid of buckets over the board that sorts units by where they stand, so a question like "which
+ * unit is nearest this tower" only looks at the buckets within reach instead of at every unit in play. Any
+ * other {@link Located} store, such as the shots in flight, can be sorted the same way for drawing.
+ *
+ * The grid is rebuilt from scratch each tick with a counting sort: one pass counts the units in each bucket,
+ * a prefix sum turns the counts into where each bucket's run starts, and a second pass drops every unit's
+ * slot into its run. That is linear in the number of units and allocates nothing once the arrays have grown
+ * to fit. The slots stored are only good until a unit is next removed from the store.
+ *
+ * @author byte
+ *
+ */
+public class SpatialGrid {
+
+    /**
+     * The width and height of a bucket, in sectors.
+     */
+    public static final int CELL_SECTORS = 2;
+
+    private static final int CELL_SIZE = CELL_SECTORS * Engine.SECTOR_SIZE;
+    private static final int INITIAL_CAPACITY = 64;
+    private static final int NONE = -1;
+
+    private int _columns;
+    private int _rows;
+
+    //the slots of the units in bucket c are _items[_cellStart[c]] to _items[_cellStart[c + 1] - 1]
+    private int[] _cellStart;
+    private int[] _items;
+    private int[] _unitCells;
+
+    //results of the last findWithin
+    private int[] _found;
+    private int _foundCount;
+
+    /**
+     * Instantiates an empty grid covering a board.
+     *
+     * @param width The number of sectors across the board.
+     * @param height The number of sectors down the board.
+     */
+    public SpatialGrid(int width, int height) {
+
+        _columns = Math.max(1, (width + CELL_SECTORS - 1) / CELL_SECTORS);
+        _rows = Math.max(1, (height + CELL_SECTORS - 1) / CELL_SECTORS);
+        _cellStart = new int[_columns * _rows + 1];
+        _items = new int[INITIAL_CAPACITY];
+        _unitCells = new int[INITIAL_CAPACITY];
+        _found = new int[INITIAL_CAPACITY];
+        _foundCount = 0;
+
+    }
+
+    /**
+     * Sorts everything in a store into its bucket, replacing whatever the grid held before.
+     *
+     * @param units The units in play, or any other store of things on the board.
+     */
+    public void rebuild(Located units) {
+
+        int size = units.size();
+
+        if(_items.length < size) {
+            int capacity = Math.max(size, _items.length * 2);
+            _items = new int[capacity];
+            _unitCells = new int[capacity];
+        }
+
+        Arrays.fill(_cellStart, 0);
+
+        for(int slot = 0; slot < size; slot++) {
+            int cell = getCell(units.getX(slot), units.getY(slot));
+            _unitCells[slot] = cell;
+            _cellStart[cell + 1]++;
+        }
+
+        for(int cell = 1; cell < _cellStart.length; cell++) {
+            _cellStart[cell] += _cellStart[cell - 1];
+        }
+
+        //_cellStart[c + 1] now marks the end of bucket c; filling each bucket backwards from its end leaves it
+        //marking the start instead, with slots in ascending order, and shifting down one puts it in place
+        for(int slot = size - 1; slot >= 0; slot--) {
+            _items[--_cellStart[_unitCells[slot] + 1]] = slot;
+        }
+
+        System.arraycopy(_cellStart, 1, _cellStart, 0, _cellStart.length - 1);
+        _cellStart[_cellStart.length - 1] = size;
+
+    }
+
+    /**
+     * Finds the living unit nearest a point, looking only in the buckets the range reaches. Ties go to the
+     * lowest slot so the choice does not depend on how the buckets happen to be visited.
+     *
+     * @param units The units the grid was last rebuilt from.
+     * @param x Horizontal location, in logical units.
+     * @param y Vertical location, in logical units.
+     * @param range The furthest a unit may be, in logical units.
+     * @return The slot of the nearest living unit within range, or -1 if there is none.
+     */
+    public int findNearest(UnitStore units, int x, int y, int range) {
+
+        int firstColumn = clamp((x - range) / CELL_SIZE, _columns);
+        int lastColumn = clamp((x + range) / CELL_SIZE, _columns);
+        int firstRow = clamp((y - range) / CELL_SIZE, _rows);
+        int lastRow = clamp((y + range) / CELL_SIZE, _rows);
+
+        long best = (long)range * range;
+        int nearest = NONE;
+
+        for(int row = firstRow; row <= lastRow; row++) {
+            for(int column = firstColumn; column <= lastColumn; column++) {
+
+                int cell = row * _columns + column;
+
+                for(int item = _cellStart[cell]; item < _cellStart[cell + 1]; item++) {
+
+                    int slot = _items[item];
+
+                    if(units.getHealth(slot) <= 0) {
+                        continue;
+                    }
+
+                    long dx = units.getX(slot) - x;
+                    long dy = units.getY(slot) - y;
+                    long distance = dx * dx + dy * dy;
+
+                    if(distance < best || (distance == best && (nearest == NONE || slot < nearest))) {
+                        best = distance;
+                        nearest = slot;
+                    }
+
+                }
+
+            }
+        }
+
+        return nearest;
+
+    }
+
+    /**
+     * Finds every living unit within a distance of a point, in ascending slot order within each bucket, and
+     * keeps them for {@link #getFound(int)} until the next search.
+     *
+     * @param units The units the grid was last rebuilt from.
+     * @param x Horizontal location, in logical units.
+     * @param y Vertical location, in logical units.
+     * @param range The furthest a unit may be, in logical units.
+     * @return How many units were found.
+     */
+    public int findWithin(UnitStore units, int x, int y, int range) {
+
+        int firstColumn = clamp((x - range) / CELL_SIZE, _columns);
+        int lastColumn = clamp((x + range) / CELL_SIZE, _columns);
+        int firstRow = clamp((y - range) / CELL_SIZE, _rows);
+        int lastRow = clamp((y + range) / CELL_SIZE, _rows);
+
+        long limit = (long)range * range;
+
+        _foundCount = 0;
+
+        for(int row = firstRow; row <= lastRow; row++) {
+            for(int column = firstColumn; column <= lastColumn; column++) {
+
+                int cell = row * _columns + column;
+
+                for(int item = _cellStart[cell]; item < _cellStart[cell + 1]; item++) {
+
+                    int slot = _items[item];
+
+                    if(units.getHealth(slot) <= 0) {
+                        continue;
+                    }
+
+                    long dx = units.getX(slot) - x;
+                    long dy = units.getY(slot) - y;
+
+                    if(dx * dx + dy * dy <= limit) {
+                        if(_foundCount == _found.length) {
+                            _found = Arrays.copyOf(_found, _foundCount * 2);
+                        }
+                        _found[_foundCount++] = slot;
+                    }
+
+                }
+
+            }
+        }
+
+        return _foundCount;
+
+    }
+
+    /**
+     * Finds everything whose location is in an area, whatever its health, bucket by bucket and in ascending slot
+     * order within each, and keeps them for {@link #getFound(int)} until the next search.
+     *
+     * @param left The left edge of the area, in logical units.
+     * @param top The top edge of the area, in logical units.
+     * @param right The right edge of the area, in logical units.
+     * @param bottom The bottom edge of the area, in logical units.
+     * @return How many were found.
+     */
+    public int findInArea(int left, int top, int right, int bottom) {
+
+        //the outermost buckets also hold anything off the edge of the board, so they are taken whole
+        int firstColumn = clamp(left / CELL_SIZE, _columns);
+        int lastColumn = clamp(right / CELL_SIZE, _columns);
+        int firstRow = clamp(top / CELL_SIZE, _rows);
+        int lastRow = clamp(bottom / CELL_SIZE, _rows);
+
+        _foundCount = 0;
+
+        for(int row = firstRow; row <= lastRow; row++) {
+
+            int from = _cellStart[row * _columns + firstColumn];
+            int to = _cellStart[row * _columns + lastColumn + 1];
+
+            //the buckets along a row are next to each other, so the row's run can be copied in one go
+            if(_foundCount + to - from > _found.length) {
+                _found = Arrays.copyOf(_found, Math.max(_found.length * 2, _foundCount + to - from));
+            }
+
+            System.arraycopy(_items, from, _found, _foundCount, to - from);
+            _foundCount += to - from;
+
+        }
+
+        return _foundCount;
+
+    }
+
+    /**
+     * @param index A unit found by the last search, from 0 to its count - 1.
+     * @return The unit's slot.
+     */
+    public int getFound(int index) {
+        return _found[index];
+    }
+
+    private int getCell(int x, int y) {
+        return clamp(y / CELL_SIZE, _rows) * _columns + clamp(x / CELL_SIZE, _columns);
+    }
+
+    private static int clamp(int value, int limit) {
+
+        if(value < 0) {
+            return 0;
+        }
+        if(value >= limit) {
+            return limit - 1;
+        }
+
+        return value;
+
+    }
+
+}
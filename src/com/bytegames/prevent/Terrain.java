@@ -7,48 +7,52 @@ import java.awt.Point;
 /**
  * @author byte
  *
+ * An immutable piece of ground. A board shares one instance between every sector of the same terrain type.
  */
 public class Terrain implements GamePiece {
     
+    private final String _spriteName;
     private Sprite _sprite;
-    private boolean _traversable;
+    private final boolean _traversable;
+    private final int _movementCost;
     
     /**
      * @param sprite The sprite for the terrain.
      * @param traversable Whether this terrain is traversable or not.
+     * @param movementCost How expensive this terrain is for units to cross.
      */
-    public Terrain(String sprite, boolean traversable) {
-        _sprite = Game.getCache().getSprite(sprite);
+    public Terrain(String sprite, boolean traversable, int movementCost) {
+        _spriteName = sprite;
+        _sprite = null;
         _traversable = traversable;
+        _movementCost = movementCost;
     }
     
     /**
-     * @return The sprite for this terrain.
+     * @return The sprite for this terrain, looked up the first time it is asked for.
      */
     public Sprite getSprite() {
+        
+        if(_sprite == null) {
+            _sprite = Game.getCache().getSprite(_spriteName);
+        }
+        
         return _sprite;
     }
 
-    /**
-     * @param sprite The sprite to assign to this terrain.
-     */
-    public void setSprite(Sprite sprite) {
-        _sprite = sprite;
-    }
-
     @Override
     public boolean isTraversable() {
         return _traversable;
     }
 
     @Override
-    public void setTraversable(boolean traversable) {
-        _traversable = traversable;
+    public int getMovementCost() {
+        return _movementCost;
     }
 
     @Override
     public void draw(Graphics gfx, Point p) {
-        _sprite.draw(gfx, p);
+        getSprite().draw(gfx, p);
     }
 
 }
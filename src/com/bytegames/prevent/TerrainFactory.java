@@ -1,5 +1,6 @@
 package com.bytegames.prevent;
 
+import org.apache.commons.configuration.Configuration;
 import org.apache.log4j.Logger;
 
 
@@ -17,23 +18,43 @@ public class TerrainFactory {
      * @return The terrain.
      */
     public static Terrain getTerrain(TerrainType t) {
+        return getTerrain(t, Engine.config);
+    }
+    
+    /**
+     * @param t The type of terrain requested.
+     * @param config The configuration to read its statistics from.
+     * @return The terrain.
+     */
+    public static Terrain getTerrain(TerrainType t, Configuration config) {
 
         switch(t) {
             case ENTRY:
-                return new Terrain("opening.png", true);
+                return getConfiguredTerrain("entry", config);
             case EXIT:
-                return new Terrain("opening.png", true);
+                return getConfiguredTerrain("exit", config);
             case LAND:
-                return new Terrain("empty.png", true);
+                return getConfiguredTerrain("land", config);
             case WATER:
-                return new Terrain("water.png", false);
+                return getConfiguredTerrain("water", config);
             case ROCK:
-                return new Terrain("wall.png", false);
+                return getConfiguredTerrain("rock", config);
             default:
                 LOG.error("Unable to instantiate requested terrain.");
                 return null;
         }
         
     }
+    
+    private static Terrain getConfiguredTerrain(String name, Configuration config) {
+        
+        String spriteFile = config.getString("terrain." + name + "[@sprite]");
+        boolean traversable = config.getBoolean("terrain." + name + "[@traversable]");
+        int movementCost = config.getInt("terrain." + name + "[@movecost]", 1);
+        
+        LOG.debug("Terrain '" + name + "' instantiated and returned.");
+        
+        return new Terrain(spriteFile, traversable, movementCost);
+    }
 
 }
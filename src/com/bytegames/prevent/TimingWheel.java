@@ -0,0 +1,296 @@
+package com.bytegames.prevent;
+
+import java.util.Arrays;
+
+/**
+ * A hierarchical timing wheel for events scheduled against the simulation clock. Events are plain ints whose
+ * meaning is up to the caller, and each is due on a particular tick.
+ *
+ * The wheel has several levels of slots. The lowest level has one slot per tick; each level above covers a
+ * whole turn of the one below with each of its slots. An event waits in the lowest level that separates its
+ * tick from the current one, and drops a level each time the wheel below comes round to it. Scheduling and
+ * firing are constant time per event however many are pending or how far ahead they are, and events due on
+ * the same tick fire in the order they were scheduled, however far ahead that was, so runs are repeatable
+ * however fast the clock is driven.
+ *
+ * @author byte
+ *
+ */
+public class TimingWheel {
+
+    /**
+     * Receives events as they come due.
+     */
+    public interface Listener {
+        /**
+         * @param event The event that is due.
+         * @param tick The current tick.
+         */
+        void fire(int event, long tick);
+    }
+
+    private static final int SLOT_BITS = 8;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int SLOT_MASK = SLOTS - 1;
+    private static final int LEVELS = 5;
+    private static final int INITIAL_CAPACITY = 64;
+    private static final int NONE = -1;
+
+    private long _now;
+    private int _pending;
+
+    //head and tail of the list of events waiting in each slot, level by level
+    private int[] _heads;
+    private int[] _tails;
+
+    //during a cascade, the last event moved into each slot so far, and the slots that have one
+    private int[] _cascaded;
+    private int[] _cascadedSlots;
+
+    //pool of list nodes, with unused ones chained through _next
+    private int[] _events;
+    private long[] _ticks;
+    private int[] _next;
+    private int _free;
+
+    /**
+     * Instantiates an empty wheel at tick zero.
+     */
+    public TimingWheel() {
+        this(0);
+    }
+
+    /**
+     * Instantiates an empty wheel at a tick, such as one a saved game was saved on.
+     *
+     * @param tick The tick to start at.
+     */
+    public TimingWheel(long tick) {
+
+        _now = tick;
+        _pending = 0;
+
+        _heads = new int[LEVELS * SLOTS];
+        _tails = new int[LEVELS * SLOTS];
+        Arrays.fill(_heads, NONE);
+        Arrays.fill(_tails, NONE);
+
+        _cascaded = new int[LEVELS * SLOTS];
+        _cascadedSlots = new int[LEVELS * SLOTS];
+        Arrays.fill(_cascaded, NONE);
+
+        _events = new int[0];
+        _ticks = new long[0];
+        _next = new int[0];
+        _free = NONE;
+        grow(INITIAL_CAPACITY);
+
+    }
+
+    /**
+     * @return The tick the wheel has been advanced to.
+     */
+    public long getTick() {
+        return _now;
+    }
+
+    /**
+     * @return The number of events scheduled and not yet fired.
+     */
+    public int size() {
+        return _pending;
+    }
+
+    /**
+     * Removes every pending event.
+     */
+    public void clear() {
+
+        for(int slot = 0; slot < _heads.length; slot++) {
+            for(int node = _heads[slot]; node != NONE; ) {
+                int next = _next[node];
+                release(node);
+                node = next;
+            }
+            _heads[slot] = _tails[slot] = NONE;
+        }
+
+    }
+
+    /**
+     * @param event The event to fire.
+     * @param tick The tick to fire it on. Ticks already reached fire on the next advance.
+     */
+    public void schedule(int event, long tick) {
+
+        if(tick <= _now) {
+            tick = _now + 1;
+        }
+
+        if(((tick ^ _now) >>> (SLOT_BITS * LEVELS)) != 0) {
+            throw new IllegalArgumentException("Event scheduled too far ahead: tick " + tick + " from " + _now);
+        }
+
+        if(_free == NONE) {
+            grow(_events.length * 2);
+        }
+
+        int node = _free;
+        _free = _next[node];
+
+        _events[node] = event;
+        _ticks[node] = tick;
+        _next[node] = NONE;
+        _pending++;
+
+        insert(node);
+
+    }
+
+    /**
+     * Moves the wheel on one tick and fires every event due on it.
+     *
+     * @param listener Receives the events. It may schedule further events.
+     */
+    public void advance(Listener listener) {
+
+        _now++;
+
+        if(_pending == 0) {
+            return;
+        }
+
+        //a level comes round when every level below it has just wrapped to zero; refill from the top down
+        int level = 0;
+        while(level < LEVELS - 1 && ((_now >>> (SLOT_BITS * level)) & SLOT_MASK) == 0) {
+            level++;
+        }
+
+        for(; level > 0; level--) {
+            cascade(level);
+        }
+
+        int slot = (int)(_now & SLOT_MASK);
+        int node = _heads[slot];
+
+        _heads[slot] = _tails[slot] = NONE;
+
+        while(node != NONE) {
+            int next = _next[node];
+            int event = _events[node];
+            release(node);
+            listener.fire(event, _now);
+            node = next;
+        }
+
+    }
+
+    /**
+     * Moves the wheel on to a tick, firing everything due along the way in order.
+     *
+     * @param tick The tick to advance to.
+     * @param listener Receives the events. It may schedule further events.
+     */
+    public void advanceTo(long tick, Listener listener) {
+
+        while(_now < tick) {
+            advance(listener);
+        }
+
+    }
+
+    private void insert(int node) {
+
+        int slot = getSlot(_ticks[node]);
+
+        if(_tails[slot] == NONE) {
+            _heads[slot] = node;
+        } else {
+            _next[_tails[slot]] = node;
+        }
+
+        _tails[slot] = node;
+
+    }
+
+    /**
+     * @return The slot an event due on a tick waits in: the lowest level that separates the tick from the current one.
+     */
+    private int getSlot(long tick) {
+
+        long difference = tick ^ _now;
+        int level = 0;
+
+        while(level < LEVELS - 1 && (difference >>> (SLOT_BITS * (level + 1))) != 0) {
+            level++;
+        }
+
+        return level * SLOTS + (int)((tick >>> (SLOT_BITS * level)) & SLOT_MASK);
+
+    }
+
+    /**
+     * Redistributes the events in the slot of a level that the clock has just reached into the levels below.
+     * Everything in a higher level was scheduled before anything due on the same tick in a lower one, so the
+     * events moved down go in front of those already waiting, keeping the order they were in.
+     */
+    private void cascade(int level) {
+
+        int slot = level * SLOTS + (int)((_now >>> (SLOT_BITS * level)) & SLOT_MASK);
+        int node = _heads[slot];
+        int cascadedCount = 0;
+
+        _heads[slot] = _tails[slot] = NONE;
+
+        while(node != NONE) {
+
+            int next = _next[node];
+            int target = getSlot(_ticks[node]);
+            int previous = _cascaded[target];
+
+            if(previous == NONE) {
+                _next[node] = _heads[target];
+                _heads[target] = node;
+                _cascadedSlots[cascadedCount++] = target;
+            } else {
+                _next[node] = _next[previous];
+                _next[previous] = node;
+            }
+
+            if(_next[node] == NONE) {
+                _tails[target] = node;
+            }
+
+            _cascaded[target] = node;
+            node = next;
+
+        }
+
+        for(int i = 0; i < cascadedCount; i++) {
+            _cascaded[_cascadedSlots[i]] = NONE;
+        }
+
+    }
+
+    private void release(int node) {
+        _next[node] = _free;
+        _free = node;
+        _pending--;
+    }
+
+    private void grow(int capacity) {
+
+        int previous = _events.length;
+
+        _events = Arrays.copyOf(_events, capacity);
+        _ticks = Arrays.copyOf(_ticks, capacity);
+        _next = Arrays.copyOf(_next, capacity);
+
+        for(int node = capacity - 1; node >= previous; node--) {
+            _next[node] = _free;
+            _free = node;
+        }
+
+    }
+
+}
@@ -14,10 +14,18 @@ import java.util.LinkedList;
 public class Tower implements GamePiece {
 
     private String _name;
+    private String _spriteName;
     private Sprite _sprite;
     private int _dps;
     private int _cost;
     private boolean _traversable;
+    private int _movementCost;
+    private double _range;
+    private double _splash;
+    private double _shotSpeed;
+    private EffectType _effect;
+    private int _effectStrength;
+    private double _effectDuration;
     private LinkedList<TowerType> _upgradeTypes;
     
     /**
@@ -30,19 +38,32 @@ public class Tower implements GamePiece {
     public Tower(String name, String sprite, int dps, int cost, boolean traversable) {
 
         _name = name;
-        _sprite = Game.getCache().getSprite(sprite);
+        _spriteName = sprite;
+        _sprite = null;
         _dps = dps;
         _cost = cost;
         _traversable = traversable;
+        _movementCost = 1;
+        _range = 0;
+        _splash = 0;
+        _shotSpeed = 0;
+        _effect = null;
+        _effectStrength = 0;
+        _effectDuration = 0;
         
         _upgradeTypes = new LinkedList<TowerType>();
 
     }
     
     /**
-     * @return The sprite for this tower.
+     * @return The sprite for this tower, looked up the first time it is asked for.
      */
     public Sprite getSprite() {
+        
+        if(_sprite == null) {
+            _sprite = Game.getCache().getSprite(_spriteName);
+        }
+        
         return _sprite;
     }
     
@@ -52,10 +73,18 @@ public class Tower implements GamePiece {
     public void upgrade(Tower upgrade) {
         //TODO: this method is stupid... its just a copy.
         _name = upgrade.getName();
-        _sprite = upgrade.getSprite();
+        _spriteName = upgrade._spriteName;
+        _sprite = upgrade._sprite;
         _dps = upgrade.getDps();
         _cost = upgrade.getCost();
         _traversable = upgrade.isTraversable();
+        _movementCost = upgrade.getMovementCost();
+        _range = upgrade.getRange();
+        _splash = upgrade.getSplash();
+        _shotSpeed = upgrade.getShotSpeed();
+        _effect = upgrade.getEffect();
+        _effectStrength = upgrade.getEffectStrength();
+        _effectDuration = upgrade.getEffectDuration();
         _upgradeTypes = upgrade.getUpgradeTowerTypes();
     }
     
@@ -129,6 +158,96 @@ public class Tower implements GamePiece {
     }
 
     @Override
+    public int getMovementCost() {
+        return _movementCost;
+    }
+    
+    /**
+     * @param movementCost How expensive this tower is for units to cross, if it is traversable.
+     */
+    public void setMovementCost(int movementCost) {
+        _movementCost = movementCost;
+    }
+
+    /**
+     * @return How far the tower can fire, in sectors.
+     */
+    public double getRange() {
+        return _range;
+    }
+    
+    /**
+     * @param range How far the tower can fire, in sectors.
+     */
+    public void setRange(double range) {
+        _range = range;
+    }
+
+    /**
+     * @return The radius around the point of impact the tower's shells damage, in sectors, or zero for
+     * bullets that hit a single unit.
+     */
+    public double getSplash() {
+        return _splash;
+    }
+    
+    /**
+     * @param splash The radius around the point of impact the tower's shells damage, in sectors, or zero for
+     * bullets that hit a single unit.
+     */
+    public void setSplash(double splash) {
+        _splash = splash;
+    }
+    
+    /**
+     * @return How fast the tower's shots fly, in sectors per second.
+     */
+    public double getShotSpeed() {
+        return _shotSpeed;
+    }
+    
+    /**
+     * @param shotSpeed How fast the tower's shots fly, in sectors per second.
+     */
+    public void setShotSpeed(double shotSpeed) {
+        _shotSpeed = shotSpeed;
+    }
+
+    /**
+     * @return The status effect the tower's shots leave on units they hit, or null for none.
+     */
+    public EffectType getEffect() {
+        return _effect;
+    }
+    
+    /**
+     * @return The slow percentage or burn damage per second of the tower's effect.
+     */
+    public int getEffectStrength() {
+        return _effectStrength;
+    }
+    
+    /**
+     * @return How long the tower's effect lasts, in seconds.
+     */
+    public double getEffectDuration() {
+        return _effectDuration;
+    }
+    
+    /**
+     * @param effect The status effect the tower's shots leave on units they hit, or null for none.
+     * @param strength The slow percentage or burn damage per second of the effect.
+     * @param duration How long the effect lasts, in seconds.
+     */
+    public void setEffect(EffectType effect, int strength, double duration) {
+        _effect = effect;
+        _effectStrength = strength;
+        _effectDuration = duration;
+    }
+
+    /**
+     * @param traversable Whether or not this tower is traversable.
+     */
     public void setTraversable(boolean traversable) {
 
         _traversable = traversable;
@@ -138,7 +257,7 @@ public class Tower implements GamePiece {
     @Override
     public void draw(Graphics gfx, Point p) {
 
-        _sprite.draw(gfx, p);
+        getSprite().draw(gfx, p);
         
     }
 
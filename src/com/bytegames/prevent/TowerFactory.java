@@ -1,5 +1,6 @@
 package com.bytegames.prevent;
 
+import org.apache.commons.configuration.Configuration;
 import org.apache.log4j.Logger;
 
 /**
@@ -17,14 +18,23 @@ public class TowerFactory {
      * @return The tower.
      */
     public static Tower getTower(TowerType t) {
+        return getTower(t, Engine.config);
+    }
+    
+    /**
+     * @param t The type of tower requested.
+     * @param config The configuration to read its statistics from.
+     * @return The tower.
+     */
+    public static Tower getTower(TowerType t, Configuration config) {
 
         switch(t) {
             case SMALLTURRET:
-                return getLightTurretTower();
+                return getLightTurretTower(config);
             case MEDIUMTURRET:
-                return getMediumTurretTower();
+                return getMediumTurretTower(config);
             case HEAVYTURRET:
-                return getHeavyTurretTower();
+                return getHeavyTurretTower(config);
             default:
                 LOG.error("Unable to instantiate requested tower.");
                 return null;
@@ -32,14 +42,41 @@ public class TowerFactory {
         
     }
     
-    private static Tower getLightTurretTower() {
+    /**
+     * Reads the status effect a tower's shots leave, if it has one.
+     */
+    private static void setEffect(Tower tower, String name, Configuration config) {
+        
+        String effect = config.getString("towers." + name + "[@effect]", null);
+        
+        if(effect == null) {
+            return;
+        }
+        
+        int strength = config.getInt("towers." + name + "[@effectstrength]", 0);
+        double duration = config.getDouble("towers." + name + "[@effectduration]");
+        
+        tower.setEffect(EffectType.valueOf(effect.toUpperCase()), strength, duration);
+        
+    }
+    
+    private static Tower getLightTurretTower(Configuration config) {
         
-        String spriteFile = Game.config.getString("towers.light[@sprite]");
-        int dps = Game.config.getInt("towers.light[@dps]");
-        int cost = Game.config.getInt("towers.light[@cost]");
-        boolean traversable = Game.config.getBoolean("towers.light[@traversable]");
+        String spriteFile = config.getString("towers.light[@sprite]");
+        int dps = config.getInt("towers.light[@dps]");
+        int cost = config.getInt("towers.light[@cost]");
+        boolean traversable = config.getBoolean("towers.light[@traversable]");
+        int movementCost = config.getInt("towers.light[@movecost]", 1);
+        double range = config.getDouble("towers.light[@range]");
+        double splash = config.getDouble("towers.light[@splash]", 0);
+        double shotSpeed = config.getDouble("towers.light[@shotspeed]");
 
         Tower smallTurretTower = new Tower("Small Turret", spriteFile, dps, cost, traversable);
+        smallTurretTower.setMovementCost(movementCost);
+        smallTurretTower.setRange(range);
+        smallTurretTower.setSplash(splash);
+        smallTurretTower.setShotSpeed(shotSpeed);
+        setEffect(smallTurretTower, "light", config);
         smallTurretTower.getUpgradeTowerTypes().add(TowerType.MEDIUMTURRET);
         
         LOG.debug("Light tower instantiated and returned.");
@@ -47,14 +84,23 @@ public class TowerFactory {
         return smallTurretTower;
     }
     
-    private static Tower getMediumTurretTower() {
+    private static Tower getMediumTurretTower(Configuration config) {
         
-        String spriteFile = Game.config.getString("towers.medium[@sprite]");
-        int dps = Game.config.getInt("towers.medium[@dps]");
-        int cost = Game.config.getInt("towers.medium[@cost]");
-        boolean traversable = Game.config.getBoolean("towers.medium[@traversable]");
+        String spriteFile = config.getString("towers.medium[@sprite]");
+        int dps = config.getInt("towers.medium[@dps]");
+        int cost = config.getInt("towers.medium[@cost]");
+        boolean traversable = config.getBoolean("towers.medium[@traversable]");
+        int movementCost = config.getInt("towers.medium[@movecost]", 1);
+        double range = config.getDouble("towers.medium[@range]");
+        double splash = config.getDouble("towers.medium[@splash]", 0);
+        double shotSpeed = config.getDouble("towers.medium[@shotspeed]");
 
         Tower mediumTurretTower = new Tower("Medium Turret", spriteFile, dps, cost, traversable);
+        mediumTurretTower.setMovementCost(movementCost);
+        mediumTurretTower.setRange(range);
+        mediumTurretTower.setSplash(splash);
+        mediumTurretTower.setShotSpeed(shotSpeed);
+        setEffect(mediumTurretTower, "medium", config);
         mediumTurretTower.getUpgradeTowerTypes().add(TowerType.HEAVYTURRET);
         
         LOG.debug("Medium tower instantiated and returned.");
@@ -62,14 +108,23 @@ public class TowerFactory {
         return mediumTurretTower;
     }
     
-    private static Tower getHeavyTurretTower() {
+    private static Tower getHeavyTurretTower(Configuration config) {
         
-        String spriteFile = Game.config.getString("towers.heavy[@sprite]");
-        int dps = Game.config.getInt("towers.heavy[@dps]");
-        int cost = Game.config.getInt("towers.heavy[@cost]");
-        boolean traversable = Game.config.getBoolean("towers.heavy[@traversable]");
+        String spriteFile = config.getString("towers.heavy[@sprite]");
+        int dps = config.getInt("towers.heavy[@dps]");
+        int cost = config.getInt("towers.heavy[@cost]");
+        boolean traversable = config.getBoolean("towers.heavy[@traversable]");
+        int movementCost = config.getInt("towers.heavy[@movecost]", 1);
+        double range = config.getDouble("towers.heavy[@range]");
+        double splash = config.getDouble("towers.heavy[@splash]", 0);
+        double shotSpeed = config.getDouble("towers.heavy[@shotspeed]");
 
         Tower heavyTurretTower = new Tower("Heavy Turret", spriteFile, dps, cost, traversable);
+        heavyTurretTower.setMovementCost(movementCost);
+        heavyTurretTower.setRange(range);
+        heavyTurretTower.setSplash(splash);
+        heavyTurretTower.setShotSpeed(shotSpeed);
+        setEffect(heavyTurretTower, "heavy", config);
         
         LOG.debug("Heavy tower instantiated and returned.");
         
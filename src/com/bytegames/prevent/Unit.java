@@ -1,63 +1,39 @@
 package com.bytegames.prevent;
 
-import java.awt.Color;
-import java.awt.Graphics;
-import java.awt.Point;
-
-//import org.apache.log4j.Logger;
-
 /**
- * Represents a unit that attempts to navigate to a specified destination.
- * 
+ * The starting statistics for one kind of unit. Units in play live in a {@link UnitStore}; this is only
+ * what a unit is dispensed with.
+ *
  * @author byte
  *
  */
 public class Unit {
-    
-    private static final int HEALTH_BAR_HEIGHT_DIVISOR = 15;
 
     private String _name;
-    private Sprite _sprite;
-    private int _speed;
-    private int _startingHealth;
+    private UnitType _type;
+    private String _spriteName;
     private int _health;
-    private Point _location;
-    private Point _destination;
-    private boolean _done;
-    
-    //private static Logger LOG = Logger.getLogger(Unit.class);
-    
+    private int _speed;
+    private int _reward;
+
     /**
      * Instantiate a new unit.
-     * 
+     *
      * @param name The name of the unit.
+     * @param type The variety of unit.
      * @param spriteResourceName The resource used to represent this unit.
      * @param health The initial health level of this unit.
-     * @param speed The initial speed level of this unit. Lower number means faster.
+     * @param speed The initial speed level of this unit, in logical units per tick.
+     * @param reward The score awarded for destroying this unit.
      */
-    public Unit(String name, String spriteResourceName, int health, int speed) {
+    public Unit(String name, UnitType type, String spriteResourceName, int health, int speed, int reward) {
 
         _name = name;
-        _sprite = Game.getCache().getSprite(spriteResourceName);
-        _health = _startingHealth = health;
+        _type = type;
+        _spriteName = spriteResourceName;
+        _health = health;
         setSpeed(speed); //clamp speed
-        _location = new Point(0,0);
-        _destination = new Point(0,0);
-        _done = false;
-    }
-    
-    /**
-     * @return Whether or not this unit is still in play.
-     */
-    public boolean isDone() {
-        return _done;
-    }
-    
-    /**
-     * @param done Whether or not this unit is still in play.
-     */
-    public void setDone(boolean done) {
-        _done = done;
+        _reward = reward;
     }
 
     /**
@@ -66,89 +42,51 @@ public class Unit {
     public String getName() {
         return _name;
     }
-    
-    /**
-     * @return This units current location.
-     */
-    public Point getLocation() {
-        return _location;
-    }
-    
-    /**
-     * @return The sector this unit is currently in, based on the current game scale.
-     */
-    public Sector getContainingSector() {
-        int scale = Game.getScale();
-        int sectorX = _location.x / scale;
-        int sectorY = _location.y / scale;
-        return new Sector(sectorX, sectorY);
-    }
-    
-    /**
-     * @param point The location to place this unit.
-     */
-    public void setLocation(Point point) {
-        _location = point;
-    }
-    
+
     /**
-     * @return The destination point of this unit.
+     * @return The variety of unit.
      */
-    public Point getDestination() {
-        return _destination;
+    public UnitType getType() {
+        return _type;
     }
-    
+
     /**
-     * @param point The new destination point of this unit.
+     * @return The resource used to represent this unit.
      */
-    public void setDestination(Point point) {
-        _destination = point;
+    public String getSpriteName() {
+        return _spriteName;
     }
-    
+
     /**
-     * @param speed The speed for the unit. 
+     * @param speed The speed for the unit.
      */
     public void setSpeed(int speed) {
         if(speed < 1)
             speed = 1;
-        if(speed > Game.getScale()) 
-            speed = Game.getScale();
+        if(speed > Engine.SECTOR_SIZE)
+            speed = Engine.SECTOR_SIZE;
         _speed = speed;
     }
-    
+
     /**
-     * @return The current speed of the unit. 
+     * @return The current speed of the unit.
      */
     public int getSpeed() {
         return _speed;
     }
-    
+
     /**
      * @return The current health level of the unit.
      */
     public int getHealth() {
         return _health;
     }
-    
+
     /**
-     * @param gfx The graphics object used to draw with.
+     * @return The score awarded for destroying this unit.
      */
-    public void draw(Graphics gfx) {
-        
-        _sprite.draw(gfx, _location);
-
-        int scale = Game.getScale();
-        
-        int healthBarHeight = scale / HEALTH_BAR_HEIGHT_DIVISOR;
-        healthBarHeight = (healthBarHeight == 0 ? 1 : healthBarHeight);
-        
-        double healthBarWidth = (_health / _startingHealth) * scale;
-        
-        Point barDrawLocation = new Point(_location.x, _location.y - healthBarHeight);
-        
-        gfx.setColor(Color.RED);        
-        gfx.fillRect(barDrawLocation.x, barDrawLocation.y, (int)healthBarWidth, healthBarHeight);
-
+    public int getReward() {
+        return _reward;
     }
-    
+
 }
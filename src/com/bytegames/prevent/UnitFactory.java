@@ -1,5 +1,6 @@
 package com.bytegames.prevent;
 
+import org.apache.commons.configuration.Configuration;
 import org.apache.log4j.Logger;
 
 
@@ -17,14 +18,23 @@ public class UnitFactory {
      * @return A unit.
      */
     public static Unit getUnit(UnitType type) {
+        return getUnit(type, Engine.config);
+    }
+    
+    /**
+     * @param type The type of unit to retrieve.
+     * @param config The configuration to read its statistics from.
+     * @return A unit.
+     */
+    public static Unit getUnit(UnitType type, Configuration config) {
         
         switch(type) {
             case SOLDIER:
-                return getSoldier();
+                return getSoldier(config);
             case HUMVEE:
-                return getHumvee();
+                return getHumvee(config);
             case TANK:
-                return getTank();
+                return getTank(config);
             default:
                 LOG.error("Unable to instantiate requested unit.");
                 return null;
@@ -32,37 +42,40 @@ public class UnitFactory {
         
     }
     
-    private static Unit getSoldier() {
+    private static Unit getSoldier(Configuration config) {
         
-        String spriteFile = Game.config.getString("units.soldier[@sprite]");
-        int health = Game.config.getInt("units.soldier[@health]");
-        int speed = Game.config.getInt("units.soldier[@speed]");
+        String spriteFile = config.getString("units.soldier[@sprite]");
+        int health = config.getInt("units.soldier[@health]");
+        int speed = config.getInt("units.soldier[@speed]");
+        int reward = config.getInt("units.soldier[@reward]", 1);
 
         LOG.debug("Soldier unit instantiated and returned.");
         
-        return new Unit("Soldier", spriteFile, health, speed);
+        return new Unit("Soldier", UnitType.SOLDIER, spriteFile, health, speed, reward);
     }
     
-    private static Unit getHumvee() {
+    private static Unit getHumvee(Configuration config) {
 
-        String spriteFile = Game.config.getString("units.humvee[@sprite]");
-        int health = Game.config.getInt("units.humvee[@health]");
-        int speed = Game.config.getInt("units.humvee[@speed]");
+        String spriteFile = config.getString("units.humvee[@sprite]");
+        int health = config.getInt("units.humvee[@health]");
+        int speed = config.getInt("units.humvee[@speed]");
+        int reward = config.getInt("units.humvee[@reward]", 1);
         
         LOG.debug("Humvee unit instantiated and returned.");
 
-        return new Unit("Humvee", spriteFile, health, speed);
+        return new Unit("Humvee", UnitType.HUMVEE, spriteFile, health, speed, reward);
     }
     
-    private static Unit getTank() {
+    private static Unit getTank(Configuration config) {
 
-        String spriteFile = Game.config.getString("units.tank[@sprite]");
-        int health = Game.config.getInt("units.tank[@health]");
-        int speed = Game.config.getInt("units.tank[@speed]");
+        String spriteFile = config.getString("units.tank[@sprite]");
+        int health = config.getInt("units.tank[@health]");
+        int speed = config.getInt("units.tank[@speed]");
+        int reward = config.getInt("units.tank[@reward]", 1);
         
         LOG.debug("Tank unit instantiated and returned.");
 
-        return new Unit("Tank", spriteFile, health, speed);
+        return new Unit("Tank", UnitType.TANK, spriteFile, health, speed, reward);
     }
     
 }
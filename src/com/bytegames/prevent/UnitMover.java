@@ -0,0 +1,270 @@
+package com.bytegames.prevent;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.apache.log4j.Logger;
+
+/**
+ * The movement phase of a tick: steers every unit that has reached its destination onto the next step of its
+ * path, moves them all, and notes which ones stand on a finish. Large waves are split into fixed chunks of
+ * slots that are worked on a fork-join pool, one core per chunk at a time.
+ *
+ * Nothing shared is changed while the chunks run. Each chunk writes only its own slots of the store, and
+ * collects the units it finds on an exit in its own accumulator rather than touching the lives. The
+ * accumulators are merged afterwards in slot order, so the exits come out the same however the chunks were
+ * scheduled, and a parallel tick ends bit for bit where a single threaded one would.
+ *
+ * @author byte
+ *
+ */
+public class UnitMover {
+
+    private static Logger LOG = Logger.getLogger(UnitMover.class);
+
+    /**
+     * The number of slots in each chunk of work. Chunks are the same whether or not they run in parallel.
+     */
+    public static final int CHUNK_SIZE = 1024;
+
+    //below this many units the pool costs more than it saves
+    private static final int PARALLEL_THRESHOLD = 4 * CHUNK_SIZE;
+
+    private boolean _parallel;
+    private ForkJoinPool _pool;
+
+    //per chunk accumulators, kept between ticks
+    private Chunk[] _chunks;
+    private int _chunkCount;
+
+    //the merged result of the last pass, in descending slot order
+    private int[] _exits;
+    private int _exitCount;
+
+    /**
+     * Instantiates a mover that works in parallel once waves are large enough.
+     */
+    public UnitMover() {
+        _parallel = true;
+        _pool = null;
+        _chunks = new Chunk[0];
+        _chunkCount = 0;
+        _exits = new int[CHUNK_SIZE];
+        _exitCount = 0;
+    }
+
+    /**
+     * @param parallel Whether large waves may be moved on several threads. The outcome is the same either way.
+     */
+    public void setParallel(boolean parallel) {
+        _parallel = parallel;
+    }
+
+    /**
+     * Stops the worker threads, if any were started.
+     */
+    public void shutdown() {
+
+        if(_pool != null) {
+            _pool.shutdownNow();
+            _pool = null;
+        }
+
+    }
+
+    /**
+     * Steers and moves every unit in play. Units found on an exit are left where they are for the caller to
+     * take out of play, and can be read back afterwards with {@link #getExit(int)}.
+     *
+     * @param units The units in play.
+     * @param board The board they are on.
+     * @param finishes The board index of every finish sector.
+     * @param ai The AI to steer them by.
+     */
+    public void move(UnitStore units, Board board, BitSet finishes, AI ai) {
+
+        int size = units.size();
+
+        _chunkCount = (size + CHUNK_SIZE - 1) / CHUNK_SIZE;
+
+        if(_chunks.length < _chunkCount) {
+            _chunks = Arrays.copyOf(_chunks, _chunkCount);
+        }
+
+        for(int chunk = 0; chunk < _chunkCount; chunk++) {
+            if(_chunks[chunk] == null) {
+                _chunks[chunk] = new Chunk();
+            }
+        }
+
+        //settle the paths on this thread first, the chunks may only read them
+        ai.pinDirections();
+
+        if(_parallel && size >= PARALLEL_THRESHOLD) {
+            getPool().invoke(new ChunkTask(units, board, finishes, ai, 0, _chunkCount));
+        } else {
+            for(int chunk = 0; chunk < _chunkCount; chunk++) {
+                moveChunk(units, board, finishes, ai, chunk);
+            }
+        }
+
+        merge();
+
+    }
+
+    /**
+     * @return The number of units found on an exit by the last pass.
+     */
+    public int getExitCount() {
+        return _exitCount;
+    }
+
+    /**
+     * @param index An exit found by the last pass, from 0 to getExitCount() - 1.
+     * @return The slot of the unit. Slots are in descending order, so removing them in turn leaves the rest valid.
+     */
+    public int getExit(int index) {
+        return _exits[index];
+    }
+
+    private void moveChunk(UnitStore units, Board board, BitSet finishes, AI ai, int chunk) {
+
+        Chunk accumulator = _chunks[chunk];
+        int from = chunk * CHUNK_SIZE;
+        int to = Math.min(from + CHUNK_SIZE, units.size());
+
+        accumulator.exitCount = 0;
+        accumulator.stranded = 0;
+
+        for(int slot = from; slot < to; slot++) {
+
+            int sectorX = units.getSectorX(slot);
+            int sectorY = units.getSectorY(slot);
+
+            if(board.contains(sectorX, sectorY) && finishes.get(board.getIndex(sectorX, sectorY))) {
+                accumulator.addExit(slot);
+                continue;
+            }
+
+            //are we there yet?
+            if(units.isAtDestination(slot)) {
+                byte direction = ai.getDirection(sectorX, sectorY);
+
+                if(direction == Direction.NONE) {
+                    accumulator.stranded++;
+                } else {
+                    units.setDestination(slot, (sectorX + Direction.getOffsetX(direction)) * Engine.SECTOR_SIZE, (sectorY + Direction.getOffsetY(direction)) * Engine.SECTOR_SIZE);
+                }
+            }
+
+        }
+
+        //units on an exit are about to leave play, so moving them along with the rest makes no difference
+        units.move(from, to);
+
+    }
+
+    /**
+     * Gathers every chunk's exits into one list, highest slot first.
+     */
+    private void merge() {
+
+        int stranded = 0;
+
+        _exitCount = 0;
+
+        for(int chunk = _chunkCount - 1; chunk >= 0; chunk--) {
+
+            Chunk accumulator = _chunks[chunk];
+
+            if(_exitCount + accumulator.exitCount > _exits.length) {
+                _exits = Arrays.copyOf(_exits, Math.max(_exits.length * 2, _exitCount + accumulator.exitCount));
+            }
+
+            for(int exit = accumulator.exitCount - 1; exit >= 0; exit--) {
+                _exits[_exitCount++] = accumulator.exits[exit];
+            }
+
+            stranded += accumulator.stranded;
+
+        }
+
+        if(stranded > 0) {
+            LOG.warn("Warning: no optimal path found for " + stranded + " units.");
+        }
+
+    }
+
+    private ForkJoinPool getPool() {
+
+        if(_pool == null) {
+            _pool = new ForkJoinPool();
+        }
+
+        return _pool;
+
+    }
+
+    /**
+     * What one chunk found while it ran.
+     */
+    private static class Chunk {
+
+        private int[] exits = new int[16];
+        private int exitCount;
+        private int stranded;
+
+        private void addExit(int slot) {
+
+            if(exitCount == exits.length) {
+                exits = Arrays.copyOf(exits, exitCount * 2);
+            }
+
+            exits[exitCount++] = slot;
+
+        }
+
+    }
+
+    /**
+     * Moves a range of chunks, halving it until a single chunk is left to do.
+     */
+    private class ChunkTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private UnitStore _units;
+        private Board _board;
+        private BitSet _finishes;
+        private AI _ai;
+        private int _from;
+        private int _to;
+
+        public ChunkTask(UnitStore units, Board board, BitSet finishes, AI ai, int from, int to) {
+            _units = units;
+            _board = board;
+            _finishes = finishes;
+            _ai = ai;
+            _from = from;
+            _to = to;
+        }
+
+        @Override
+        protected void compute() {
+
+            if(_to - _from == 1) {
+                moveChunk(_units, _board, _finishes, _ai, _from);
+                return;
+            }
+
+            int middle = (_from + _to) >>> 1;
+
+            invokeAll(new ChunkTask(_units, _board, _finishes, _ai, _from, middle), new ChunkTask(_units, _board, _finishes, _ai, middle, _to));
+
+        }
+
+    }
+
+}
@@ -0,0 +1,630 @@
+package com.bytegames.prevent;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Every unit in play, held as parallel primitive arrays indexed by slot rather than as one object per unit.
+ * The live units always fill slots 0 to size() - 1. Removing a unit moves the last one into its slot, so
+ * removal is constant time and iteration never skips over gaps, but a unit's slot can change whenever
+ * another unit is removed.
+ *
+ * Locations are in the engine's logical units. The location each unit had at the end of the previous tick is
+ * kept alongside its current one so drawing can interpolate between them.
+ *
+ * Since slots move, anything that has to find a unit again on a later tick holds its handle instead. A handle
+ * stays good for as long as the unit is in play, and stops matching anything once the unit leaves, even a unit
+ * that takes over its slot. The generation that tells handles apart only has 11 bits, though, so once its
+ * entry in the handle table has been reused 2048 times a stale handle can find a newer unit. Anything holding
+ * handles has to check them every tick, as the effect pass does, rather than keep them indefinitely.
+ *
+ * Each unit also carries the sum of the status effects on it, kept up to date by the {@link EffectStore} as
+ * effects start and wear off, so moving a unit never has to look at its effects one by one.
+ *
+ * @author byte
+ *
+ */
+public class UnitStore implements Located {
+
+    private static final int INITIAL_CAPACITY = 64;
+    private static final int HEALTH_BAR_HEIGHT_DIVISOR = 15;
+
+    //how far off screen a unit's location may be and still show: its own sector, its health bar, and up to a
+    //sector of movement since the tick it was sorted on
+    private static final int DRAW_MARGIN = 3 * Engine.SECTOR_SIZE;
+    private static final int MAX_SLOW_PERCENT = 90;
+
+    //a handle is an index into the handle table in its low bits, and that entry's generation above them;
+    //the generation wraps after 2048 reuses of an entry
+    private static final int HANDLE_INDEX_BITS = 20;
+    private static final int HANDLE_INDEX_MASK = (1 << HANDLE_INDEX_BITS) - 1;
+
+    private int _size;
+    private byte[] _types;
+    private int[] _x;
+    private int[] _y;
+    private int[] _previousX;
+    private int[] _previousY;
+    private int[] _destinationX;
+    private int[] _destinationY;
+    private int[] _health;
+    private int[] _startingHealth;
+    private int[] _speed;
+    private int[] _slowPercent;
+    private int[] _stuns;
+    private int[] _handles;
+
+    //handle table: the slot each handle index points at, or -1, with free indexes stacked for reuse
+    private int[] _handleSlots;
+    private int[] _handleGenerations;
+    private int[] _freeHandles;
+    private int _freeHandleCount;
+
+    //sprites are looked up by unit type the first time one is drawn
+    private String[] _spriteNames;
+    private Sprite[] _sprites;
+    private Point _drawPoint;
+
+    /**
+     * Instantiates an empty store.
+     */
+    public UnitStore() {
+
+        _size = 0;
+        _types = new byte[INITIAL_CAPACITY];
+        _x = new int[INITIAL_CAPACITY];
+        _y = new int[INITIAL_CAPACITY];
+        _previousX = new int[INITIAL_CAPACITY];
+        _previousY = new int[INITIAL_CAPACITY];
+        _destinationX = new int[INITIAL_CAPACITY];
+        _destinationY = new int[INITIAL_CAPACITY];
+        _health = new int[INITIAL_CAPACITY];
+        _startingHealth = new int[INITIAL_CAPACITY];
+        _speed = new int[INITIAL_CAPACITY];
+        _slowPercent = new int[INITIAL_CAPACITY];
+        _stuns = new int[INITIAL_CAPACITY];
+        _handles = new int[INITIAL_CAPACITY];
+
+        _handleSlots = new int[INITIAL_CAPACITY];
+        _handleGenerations = new int[INITIAL_CAPACITY];
+        _freeHandles = new int[INITIAL_CAPACITY];
+        _freeHandleCount = 0;
+        freeHandles(0, INITIAL_CAPACITY);
+
+        _spriteNames = new String[UnitType.values().length];
+        _sprites = new Sprite[UnitType.values().length];
+        _drawPoint = new Point();
+
+    }
+
+    /**
+     * Instantiates a copy of a store, handles and all.
+     */
+    private UnitStore(UnitStore units) {
+
+        _size = units._size;
+        _types = units._types.clone();
+        _x = units._x.clone();
+        _y = units._y.clone();
+        _previousX = units._previousX.clone();
+        _previousY = units._previousY.clone();
+        _destinationX = units._destinationX.clone();
+        _destinationY = units._destinationY.clone();
+        _health = units._health.clone();
+        _startingHealth = units._startingHealth.clone();
+        _speed = units._speed.clone();
+        _slowPercent = units._slowPercent.clone();
+        _stuns = units._stuns.clone();
+        _handles = units._handles.clone();
+
+        _handleSlots = units._handleSlots.clone();
+        _handleGenerations = units._handleGenerations.clone();
+        _freeHandles = units._freeHandles.clone();
+        _freeHandleCount = units._freeHandleCount;
+
+        _spriteNames = units._spriteNames.clone();
+        _sprites = new Sprite[_spriteNames.length];
+        _drawPoint = new Point();
+
+    }
+
+    /**
+     * @return A copy of every unit as it stands, with the same slots and handles.
+     */
+    public UnitStore copy() {
+        return new UnitStore(this);
+    }
+
+    /**
+     * Writes every unit, one array at a time in slot order.
+     *
+     * @param out Where to write.
+     * @throws IOException Exception thrown when the snapshot cannot be written.
+     */
+    public void write(SnapshotWriter out) throws IOException {
+
+        out.writeInt(_spriteNames.length);
+        for(String spriteName : _spriteNames) {
+            out.writeString(spriteName == null ? "" : spriteName);
+        }
+
+        out.writeInt(_size);
+        out.writeBytes(_types, _size);
+        out.writeInts(_x, _size);
+        out.writeInts(_y, _size);
+        out.writeInts(_previousX, _size);
+        out.writeInts(_previousY, _size);
+        out.writeInts(_destinationX, _size);
+        out.writeInts(_destinationY, _size);
+        out.writeInts(_health, _size);
+        out.writeInts(_startingHealth, _size);
+        out.writeInts(_speed, _size);
+        out.writeInts(_slowPercent, _size);
+        out.writeInts(_stuns, _size);
+
+    }
+
+    /**
+     * Reads back units written by {@link #write(SnapshotWriter)} into the same slots. Handles are handed out
+     * afresh, so anything that held on to units by handle has to be saved by slot and looked up again.
+     *
+     * @param in Where to read from.
+     * @return The units.
+     * @throws IOException Exception thrown when the snapshot cannot be read or is corrupt.
+     */
+    public static UnitStore read(SnapshotReader in) throws IOException {
+
+        UnitStore units = new UnitStore();
+
+        int types = in.readCount();
+        if(types != units._spriteNames.length) {
+            throw new IOException("Corrupt snapshot: " + types + " unit types");
+        }
+
+        for(int type = 0; type < types; type++) {
+            String spriteName = in.readString();
+            units._spriteNames[type] = spriteName.length() == 0 ? null : spriteName;
+        }
+
+        int size = in.readCount();
+        while(units._x.length < size) {
+            units.grow();
+        }
+
+        in.readBytes(units._types, size);
+        in.readInts(units._x, size);
+        in.readInts(units._y, size);
+        in.readInts(units._previousX, size);
+        in.readInts(units._previousY, size);
+        in.readInts(units._destinationX, size);
+        in.readInts(units._destinationY, size);
+        in.readInts(units._health, size);
+        in.readInts(units._startingHealth, size);
+        in.readInts(units._speed, size);
+        in.readInts(units._slowPercent, size);
+        in.readInts(units._stuns, size);
+
+        for(int slot = 0; slot < size; slot++) {
+            if(units._types[slot] < 0 || units._types[slot] >= types || units._startingHealth[slot] <= 0) {
+                throw new IOException("Corrupt snapshot: unit in slot " + slot);
+            }
+            units.assignHandle(slot);
+        }
+
+        units._size = size;
+
+        return units;
+
+    }
+
+    /**
+     * @return The number of units in play.
+     */
+    public int size() {
+        return _size;
+    }
+
+    /**
+     * Puts a unit into play, standing still at a location.
+     *
+     * @param unit The statistics to start the unit with.
+     * @param x Horizontal location, in logical units.
+     * @param y Vertical location, in logical units.
+     * @return The slot the unit was put in.
+     */
+    public int add(Unit unit, int x, int y) {
+        return add(unit, x, y, unit.getHealth(), unit.getSpeed());
+    }
+
+    /**
+     * Puts a unit into play, standing still at a location, with its health and speed adjusted from its type's usual.
+     *
+     * @param unit The statistics to start the unit with.
+     * @param x Horizontal location, in logical units.
+     * @param y Vertical location, in logical units.
+     * @param health The health to start the unit with.
+     * @param speed The unit's speed, in logical units per tick.
+     * @return The slot the unit was put in.
+     */
+    public int add(Unit unit, int x, int y, int health, int speed) {
+
+        if(_size == _x.length) {
+            grow();
+        }
+
+        int type = unit.getType().ordinal();
+
+        if(_spriteNames[type] == null) {
+            _spriteNames[type] = unit.getSpriteName();
+        }
+
+        int slot = _size++;
+
+        _types[slot] = (byte)type;
+        _x[slot] = _previousX[slot] = _destinationX[slot] = x;
+        _y[slot] = _previousY[slot] = _destinationY[slot] = y;
+        _health[slot] = _startingHealth[slot] = health;
+        _speed[slot] = speed;
+        _slowPercent[slot] = 0;
+        _stuns[slot] = 0;
+
+        assignHandle(slot);
+
+        return slot;
+
+    }
+
+    private void assignHandle(int slot) {
+        int index = _freeHandles[--_freeHandleCount];
+        _handleSlots[index] = slot;
+        _handles[slot] = (_handleGenerations[index] << HANDLE_INDEX_BITS) | index;
+    }
+
+    /**
+     * Takes a unit out of play by moving the last unit into its slot.
+     *
+     * @param slot The slot of the unit to remove.
+     */
+    public void remove(int slot) {
+
+        int last = --_size;
+        int index = _handles[slot] & HANDLE_INDEX_MASK;
+
+        //retire the handle so it no longer finds this slot, or whoever moves into it, until the generation wraps
+        _handleSlots[index] = -1;
+        _handleGenerations[index] = (_handleGenerations[index] + 1) & (Integer.MAX_VALUE >>> HANDLE_INDEX_BITS);
+        _freeHandles[_freeHandleCount++] = index;
+
+        if(slot != last) {
+            _types[slot] = _types[last];
+            _x[slot] = _x[last];
+            _y[slot] = _y[last];
+            _previousX[slot] = _previousX[last];
+            _previousY[slot] = _previousY[last];
+            _destinationX[slot] = _destinationX[last];
+            _destinationY[slot] = _destinationY[last];
+            _health[slot] = _health[last];
+            _startingHealth[slot] = _startingHealth[last];
+            _speed[slot] = _speed[last];
+            _slowPercent[slot] = _slowPercent[last];
+            _stuns[slot] = _stuns[last];
+            _handles[slot] = _handles[last];
+            _handleSlots[_handles[slot] & HANDLE_INDEX_MASK] = slot;
+        }
+
+    }
+
+    /**
+     * Takes every unit out of play.
+     */
+    public void clear() {
+
+        while(_size > 0) {
+            remove(_size - 1);
+        }
+
+    }
+
+    /**
+     * @param slot The slot of a unit.
+     * @return A handle that finds the unit again for as long as it is in play, wherever it moves to. Check it
+     * every tick: after the unit leaves, its entry may be reused enough times for the handle to match again.
+     */
+    public int getHandle(int slot) {
+        return _handles[slot];
+    }
+
+    /**
+     * @param handle A unit's handle.
+     * @return The slot the unit is in now, or -1 if it has left play and its entry has been reused fewer than
+     * 2048 times since.
+     */
+    public int getSlot(int handle) {
+
+        int index = handle & HANDLE_INDEX_MASK;
+        int slot = _handleSlots[index];
+
+        if(slot < 0 || _handles[slot] != handle) {
+            return -1;
+        }
+
+        return slot;
+
+    }
+
+    /**
+     * @param slot The slot of a unit.
+     * @param percent How much to add to the unit's total slow, which may be negative to take a slow away.
+     */
+    public void addSlow(int slot, int percent) {
+        _slowPercent[slot] += percent;
+    }
+
+    /**
+     * @param slot The slot of a unit.
+     * @param stuns How many stuns to add to the unit, which may be negative to take them away.
+     */
+    public void addStuns(int slot, int stuns) {
+        _stuns[slot] += stuns;
+    }
+
+    /**
+     * @param slot The slot of a unit.
+     * @return How far the unit moves this tick, after its slows and stuns.
+     */
+    public int getEffectiveSpeed(int slot) {
+
+        if(_stuns[slot] > 0) {
+            return 0;
+        }
+
+        int slow = Math.min(MAX_SLOW_PERCENT, _slowPercent[slot]);
+
+        return Math.max(1, _speed[slot] * (100 - slow) / 100);
+
+    }
+
+    /**
+     * @param slot The slot of a unit.
+     * @return The unit's horizontal location, in logical units.
+     */
+    public int getX(int slot) {
+        return _x[slot];
+    }
+
+    /**
+     * @param slot The slot of a unit.
+     * @return The unit's vertical location, in logical units.
+     */
+    public int getY(int slot) {
+        return _y[slot];
+    }
+
+    /**
+     * @param slot The slot of a unit.
+     * @return The unit's horizontal location at the end of the previous tick, in logical units.
+     */
+    public int getPreviousX(int slot) {
+        return _previousX[slot];
+    }
+
+    /**
+     * @param slot The slot of a unit.
+     * @return The unit's vertical location at the end of the previous tick, in logical units.
+     */
+    public int getPreviousY(int slot) {
+        return _previousY[slot];
+    }
+
+    /**
+     * @param slot The slot of a unit.
+     * @return The horizontal coordinate of the sector the unit is in.
+     */
+    public int getSectorX(int slot) {
+        return _x[slot] / Engine.SECTOR_SIZE;
+    }
+
+    /**
+     * @param slot The slot of a unit.
+     * @return The vertical coordinate of the sector the unit is in.
+     */
+    public int getSectorY(int slot) {
+        return _y[slot] / Engine.SECTOR_SIZE;
+    }
+
+    /**
+     * @param slot The slot of a unit.
+     * @return Whether the unit has reached the destination it was last given.
+     */
+    public boolean isAtDestination(int slot) {
+        return _x[slot] == _destinationX[slot] && _y[slot] == _destinationY[slot];
+    }
+
+    /**
+     * @param slot The slot of a unit.
+     * @param x Horizontal destination, in logical units.
+     * @param y Vertical destination, in logical units.
+     */
+    public void setDestination(int slot, int x, int y) {
+        _destinationX[slot] = x;
+        _destinationY[slot] = y;
+    }
+
+    /**
+     * @param slot The slot of a unit.
+     * @return The unit's current health.
+     */
+    public int getHealth(int slot) {
+        return _health[slot];
+    }
+
+    /**
+     * @param slot The slot of a unit.
+     * @param health The unit's new health.
+     */
+    public void setHealth(int slot, int health) {
+        _health[slot] = health;
+    }
+
+    /**
+     * @param slot The slot of a unit.
+     * @return The unit's variety.
+     */
+    public UnitType getType(int slot) {
+        return UnitType.values()[_types[slot]];
+    }
+
+    /**
+     * Moves every unit up to its speed towards its destination, being careful not to overmove,
+     * and remembers where each one started the tick.
+     */
+    public void move() {
+        move(0, _size);
+    }
+
+    /**
+     * Moves a range of units up to their speed towards their destinations. Ranges that do not overlap touch
+     * nothing in common, so they may be moved on different threads at once.
+     *
+     * @param from The first slot to move.
+     * @param to One past the last slot to move.
+     */
+    public void move(int from, int to) {
+
+        for(int slot = from; slot < to; slot++) {
+
+            int speed = getEffectiveSpeed(slot);
+            int x = _x[slot];
+            int y = _y[slot];
+            int destinationX = _destinationX[slot];
+            int destinationY = _destinationY[slot];
+
+            _previousX[slot] = x;
+            _previousY[slot] = y;
+
+            if(x < destinationX) {
+                _x[slot] = Math.min(x + speed, destinationX);
+            } else if(x > destinationX) {
+                _x[slot] = Math.max(x - speed, destinationX);
+            }
+
+            if(y < destinationY) {
+                _y[slot] = Math.min(y + speed, destinationY);
+            } else if(y > destinationY) {
+                _y[slot] = Math.max(y - speed, destinationY);
+            }
+
+        }
+
+    }
+
+    /**
+     * Draws every unit in an area with its health bar. Only the units in the grid's buckets around the area
+     * are looked at, so drawing costs the same however many units are off screen.
+     *
+     * @param gfx The graphics object used to draw with.
+     * @param scale The size of a sector in pixels.
+     * @param visible The area to draw, in pixels from the top left of the board.
+     * @param grid A grid sorted from the units since any was last removed.
+     * @param alpha How far between the previous tick and the current one to draw units, from 0 to 1.
+     */
+    public void draw(Graphics gfx, int scale, Rectangle visible, SpatialGrid grid, double alpha) {
+
+        int healthBarHeight = scale / HEALTH_BAR_HEIGHT_DIVISOR;
+        healthBarHeight = (healthBarHeight == 0 ? 1 : healthBarHeight);
+
+        gfx.setColor(Color.RED);
+
+        int found = grid.findInArea(visible.x * Engine.SECTOR_SIZE / scale - DRAW_MARGIN,
+                visible.y * Engine.SECTOR_SIZE / scale - DRAW_MARGIN,
+                (visible.x + visible.width) * Engine.SECTOR_SIZE / scale + DRAW_MARGIN,
+                (visible.y + visible.height) * Engine.SECTOR_SIZE / scale + DRAW_MARGIN);
+
+        for(int index = 0; index < found; index++) {
+
+            int slot = grid.getFound(index);
+
+            double x = _previousX[slot] + (_x[slot] - _previousX[slot]) * alpha;
+            double y = _previousY[slot] + (_y[slot] - _previousY[slot]) * alpha;
+
+            _drawPoint.x = (int)Math.round(x * scale / Engine.SECTOR_SIZE);
+            _drawPoint.y = (int)Math.round(y * scale / Engine.SECTOR_SIZE);
+
+            //a unit fills the sector below and right of its location, with its health bar just above
+            if(_drawPoint.x + scale < visible.x || _drawPoint.x > visible.x + visible.width
+                    || _drawPoint.y + scale < visible.y || _drawPoint.y - healthBarHeight > visible.y + visible.height) {
+                continue;
+            }
+
+            //not every unit type ships with an image yet, so those are drawn as a health bar alone
+            Sprite sprite = getSprite(_types[slot]);
+            if(sprite != null) {
+                sprite.draw(gfx, _drawPoint);
+            }
+
+            int healthBarWidth = _health[slot] * scale / _startingHealth[slot];
+
+            gfx.fillRect(_drawPoint.x, _drawPoint.y - healthBarHeight, healthBarWidth, healthBarHeight);
+
+        }
+
+    }
+
+    private Sprite getSprite(int type) {
+
+        if(_sprites[type] == null) {
+            _sprites[type] = Game.getCache().getSprite(_spriteNames[type]);
+        }
+
+        return _sprites[type];
+
+    }
+
+    private void grow() {
+
+        int capacity = _x.length * 2;
+
+        _types = Arrays.copyOf(_types, capacity);
+        _x = Arrays.copyOf(_x, capacity);
+        _y = Arrays.copyOf(_y, capacity);
+        _previousX = Arrays.copyOf(_previousX, capacity);
+        _previousY = Arrays.copyOf(_previousY, capacity);
+        _destinationX = Arrays.copyOf(_destinationX, capacity);
+        _destinationY = Arrays.copyOf(_destinationY, capacity);
+        _health = Arrays.copyOf(_health, capacity);
+        _startingHealth = Arrays.copyOf(_startingHealth, capacity);
+        _speed = Arrays.copyOf(_speed, capacity);
+        _slowPercent = Arrays.copyOf(_slowPercent, capacity);
+        _stuns = Arrays.copyOf(_stuns, capacity);
+        _handles = Arrays.copyOf(_handles, capacity);
+
+        if(capacity > HANDLE_INDEX_MASK + 1) {
+            throw new IllegalStateException("Too many units in play: " + capacity);
+        }
+
+        int previous = _handleSlots.length;
+
+        _handleSlots = Arrays.copyOf(_handleSlots, capacity);
+        _handleGenerations = Arrays.copyOf(_handleGenerations, capacity);
+        _freeHandles = Arrays.copyOf(_freeHandles, capacity);
+        freeHandles(previous, capacity);
+
+    }
+
+    /**
+     * Stacks the handle indexes in a range as free, lowest on top.
+     */
+    private void freeHandles(int from, int to) {
+
+        for(int index = to - 1; index >= from; index--) {
+            _handleSlots[index] = -1;
+            _freeHandles[_freeHandleCount++] = index;
+        }
+
+    }
+
+}
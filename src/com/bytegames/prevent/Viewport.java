@@ -0,0 +1,255 @@
+package com.bytegames.prevent;
+
+import java.awt.Rectangle;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The window onto the board: how many pixels a sector takes up, and which part of the board is on screen.
+ * The base scale fits a fixed number of sectors to the screen and is worked out again only when the screen
+ * is resized, rather than asked of the toolkit on every use. The camera zooms that scale in and out and pans
+ * across boards larger than the screen, and drawing only visits the sectors it can see.
+ *
+ * Input asks for pans, zooms and resizes from its own threads; they are only applied when the render thread
+ * calls {@link #update()} at the start of a frame, so a frame is drawn and hit tested against one camera.
+ *
+ * @author byte
+ *
+ */
+public class Viewport {
+
+    private static final int MIN_ZOOM_PERCENT = 25;
+    private static final int MAX_ZOOM_PERCENT = 400;
+    private static final int ZOOM_STEP_PERCENT = 25;
+    private static final int MIN_SCALE = 2;
+
+    private int _sectorsAcross;
+    private int _sectorsDown;
+
+    //the camera as of the last update, read by input to hit test
+    private volatile int _width;
+    private volatile int _height;
+    private volatile int _baseScale;
+    private volatile int _scale;
+    private volatile int _zoomPercent;
+    private volatile int _cameraX;
+    private volatile int _cameraY;
+    private int _boardWidth;
+    private int _boardHeight;
+
+    //requests waiting for the next update
+    private volatile int _requestedWidth;
+    private volatile int _requestedHeight;
+    private AtomicBoolean _resized;
+    private AtomicInteger _panX;
+    private AtomicInteger _panY;
+    private AtomicInteger _zoomSteps;
+    private volatile int _zoomAnchorX;
+    private volatile int _zoomAnchorY;
+
+    /**
+     * @param sectorsAcross How many sectors fit across the screen at normal zoom.
+     * @param sectorsDown How many sectors fit down the screen at normal zoom.
+     * @param width The width of the screen in pixels.
+     * @param height The height of the screen in pixels.
+     */
+    public Viewport(int sectorsAcross, int sectorsDown, int width, int height) {
+
+        _sectorsAcross = sectorsAcross;
+        _sectorsDown = sectorsDown;
+        _zoomPercent = 100;
+        _cameraX = 0;
+        _cameraY = 0;
+        _boardWidth = 0;
+        _boardHeight = 0;
+
+        _resized = new AtomicBoolean(false);
+        _panX = new AtomicInteger();
+        _panY = new AtomicInteger();
+        _zoomSteps = new AtomicInteger();
+
+        applySize(width, height);
+
+    }
+
+    /**
+     * @return The size of a sector in pixels at normal zoom, which the menus and text are sized by.
+     */
+    public int getBaseScale() {
+        return _baseScale;
+    }
+
+    /**
+     * @return The size of a sector in pixels at the current zoom.
+     */
+    public int getScale() {
+        return _scale;
+    }
+
+    /**
+     * @return The width of the screen in pixels.
+     */
+    public int getWidth() {
+        return _width;
+    }
+
+    /**
+     * @return The height of the screen in pixels.
+     */
+    public int getHeight() {
+        return _height;
+    }
+
+    /**
+     * @return How far the camera is panned across the board, in pixels at the current zoom.
+     */
+    public int getCameraX() {
+        return _cameraX;
+    }
+
+    /**
+     * @return How far the camera is panned down the board, in pixels at the current zoom.
+     */
+    public int getCameraY() {
+        return _cameraY;
+    }
+
+    /**
+     * @return The part of the board on screen, in pixels at the current zoom measured from the board's top left.
+     */
+    public Rectangle getVisibleArea() {
+        return new Rectangle(_cameraX, _cameraY, _width, _height);
+    }
+
+    /**
+     * @param screenX A horizontal screen coordinate.
+     * @return The horizontal coordinate of the sector under it.
+     */
+    public int getSectorX(int screenX) {
+        return (screenX + _cameraX) / _scale;
+    }
+
+    /**
+     * @param screenY A vertical screen coordinate.
+     * @return The vertical coordinate of the sector under it.
+     */
+    public int getSectorY(int screenY) {
+        return (screenY + _cameraY) / _scale;
+    }
+
+    /**
+     * @param sectorX A sector horizontal coordinate.
+     * @return The horizontal screen coordinate of the sector's left edge.
+     */
+    public int getScreenX(int sectorX) {
+        return sectorX * _scale - _cameraX;
+    }
+
+    /**
+     * @param sectorY A sector vertical coordinate.
+     * @return The vertical screen coordinate of the sector's top edge.
+     */
+    public int getScreenY(int sectorY) {
+        return sectorY * _scale - _cameraY;
+    }
+
+    /**
+     * Asks for the screen size to change. Safe to call from any thread.
+     *
+     * @param width The new width in pixels.
+     * @param height The new height in pixels.
+     */
+    public void resize(int width, int height) {
+        _requestedWidth = width;
+        _requestedHeight = height;
+        _resized.set(true);
+    }
+
+    /**
+     * Asks for the camera to move. Safe to call from any thread.
+     *
+     * @param dx How many pixels to move right, or left if negative.
+     * @param dy How many pixels to move down, or up if negative.
+     */
+    public void pan(int dx, int dy) {
+        _panX.addAndGet(dx);
+        _panY.addAndGet(dy);
+    }
+
+    /**
+     * Asks for the camera to zoom, keeping the point of the board under a screen position where it is. Safe
+     * to call from any thread.
+     *
+     * @param steps How many steps to zoom in, or out if negative.
+     * @param screenX Horizontal screen coordinate to zoom about.
+     * @param screenY Vertical screen coordinate to zoom about.
+     */
+    public void zoom(int steps, int screenX, int screenY) {
+        _zoomAnchorX = screenX;
+        _zoomAnchorY = screenY;
+        _zoomSteps.addAndGet(steps);
+    }
+
+    /**
+     * @param width The number of sectors across the board being shown.
+     * @param height The number of sectors down the board being shown.
+     */
+    public void setBoardSize(int width, int height) {
+        _boardWidth = width;
+        _boardHeight = height;
+    }
+
+    /**
+     * Applies the resizes, zooms and pans asked for since the last update. Call it from the render thread
+     * at the start of a frame.
+     *
+     * @return Whether the scale changed, so anything drawn at the old scale needs redoing.
+     */
+    public boolean update() {
+
+        int previousScale = _scale;
+
+        if(_resized.getAndSet(false)) {
+            applySize(_requestedWidth, _requestedHeight);
+        }
+
+        int steps = _zoomSteps.getAndSet(0);
+
+        if(steps != 0) {
+
+            int zoomPercent = Math.max(MIN_ZOOM_PERCENT, Math.min(MAX_ZOOM_PERCENT, _zoomPercent + steps * ZOOM_STEP_PERCENT));
+            int scale = getScale(zoomPercent);
+
+            //keep the board point under the anchor where it is on screen
+            _cameraX = (int)((long)(_cameraX + _zoomAnchorX) * scale / _scale) - _zoomAnchorX;
+            _cameraY = (int)((long)(_cameraY + _zoomAnchorY) * scale / _scale) - _zoomAnchorY;
+            _zoomPercent = zoomPercent;
+            _scale = scale;
+
+        }
+
+        _cameraX += _panX.getAndSet(0);
+        _cameraY += _panY.getAndSet(0);
+
+        //boards smaller than the screen sit in the top left, as they always have
+        _cameraX = Math.max(0, Math.min(_cameraX, _boardWidth * _scale - _width));
+        _cameraY = Math.max(0, Math.min(_cameraY, _boardHeight * _scale - _height));
+
+        return _scale != previousScale;
+
+    }
+
+    private void applySize(int width, int height) {
+
+        _width = width;
+        _height = height;
+        _baseScale = Math.max(MIN_SCALE, Math.min(width / _sectorsAcross, height / _sectorsDown));
+        _scale = getScale(_zoomPercent);
+
+    }
+
+    private int getScale(int zoomPercent) {
+        return Math.max(MIN_SCALE, _baseScale * zoomPercent / 100);
+    }
+
+}
@@ -0,0 +1,160 @@
+package com.bytegames.prevent;
+
+import java.util.Arrays;
+
+/**
+ * The units making up one wave, kept as runs of the same unit type rather than as one object per unit,
+ * so a wave of thousands costs a few bytes until its units are actually dispensed. Each run is released
+ * from every entry at once, as separate spawn streams that each let out a burst of units every interval.
+ *
+ * @author byte
+ *
+ */
+public class Wave {
+
+    private static final int INITIAL_RUNS = 4;
+
+    private UnitType[] _types;
+    private int[] _counts;
+    private int _runCount;
+    private int _healthPercent;
+    private int _speedBonus;
+    private int _interval;
+    private int _burst;
+
+    /**
+     * Instantiates an empty wave.
+     */
+    public Wave() {
+        _types = new UnitType[INITIAL_RUNS];
+        _counts = new int[INITIAL_RUNS];
+        _runCount = 0;
+        _healthPercent = 100;
+        _speedBonus = 0;
+        _interval = 0;
+        _burst = 1;
+    }
+
+    /**
+     * Adds units to the end of the wave, extending the last run when it is of the same type.
+     *
+     * @param type The type of unit to add.
+     * @param count How many of them to add.
+     */
+    public void add(UnitType type, int count) {
+
+        if(count <= 0) {
+            return;
+        }
+
+        if(_runCount > 0 && _types[_runCount - 1] == type) {
+            _counts[_runCount - 1] += count;
+            return;
+        }
+
+        if(_runCount == _types.length) {
+            _types = Arrays.copyOf(_types, _runCount * 2);
+            _counts = Arrays.copyOf(_counts, _runCount * 2);
+        }
+
+        _types[_runCount] = type;
+        _counts[_runCount] = count;
+        _runCount++;
+
+    }
+
+    /**
+     * @return The health units in this wave are dispensed with, as a percentage of their type's usual health.
+     */
+    public int getHealthPercent() {
+        return _healthPercent;
+    }
+
+    /**
+     * @param healthPercent The health units in this wave are dispensed with, as a percentage of their type's usual health.
+     */
+    public void setHealthPercent(int healthPercent) {
+        _healthPercent = healthPercent;
+    }
+
+    /**
+     * @return The speed added to every unit in this wave.
+     */
+    public int getSpeedBonus() {
+        return _speedBonus;
+    }
+
+    /**
+     * @param speedBonus The speed added to every unit in this wave.
+     */
+    public void setSpeedBonus(int speedBonus) {
+        _speedBonus = speedBonus;
+    }
+
+    /**
+     * @return The ticks between each release of units from one of the wave's spawn streams, or zero for the map's usual pace.
+     */
+    public int getInterval() {
+        return _interval;
+    }
+
+    /**
+     * @param interval The ticks between each release of units from one of the wave's spawn streams, or zero for the map's usual pace.
+     */
+    public void setInterval(int interval) {
+        _interval = interval;
+    }
+
+    /**
+     * @return How many units each spawn stream releases at once.
+     */
+    public int getBurst() {
+        return _burst;
+    }
+
+    /**
+     * @param burst How many units each spawn stream releases at once.
+     */
+    public void setBurst(int burst) {
+        _burst = burst;
+    }
+
+    /**
+     * @return The number of runs of a single unit type in the wave.
+     */
+    public int getRunCount() {
+        return _runCount;
+    }
+
+    /**
+     * @param run A run, counting from zero.
+     * @return The type of unit in the run.
+     */
+    public UnitType getType(int run) {
+        return _types[run];
+    }
+
+    /**
+     * @param run A run, counting from zero.
+     * @return The number of units in the run.
+     */
+    public int getCount(int run) {
+        return _counts[run];
+    }
+
+    /**
+     * @return The number of units in the wave.
+     */
+    public long size() {
+
+        long size = 0;
+
+        for(int run = 0; run < _runCount; run++) {
+            size += _counts[run];
+        }
+
+        return size;
+
+    }
+
+}
@@ -0,0 +1,17 @@
+package com.bytegames.prevent;
+
+
+/**
+ * @author byte
+ *
+ * Supplies the waves of a game one at a time, as they are reached.
+ */
+public interface WaveSource {
+
+    /**
+     * @param number The wave number, counting from zero.
+     * @return A fresh wave, ready to dispense from its first unit, or null once there are no more waves.
+     */
+    Wave getWave(int number);
+
+}